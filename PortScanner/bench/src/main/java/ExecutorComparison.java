@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Compares the fixed thread pool against virtual threads on loopback.
+ *
+ * Two workloads are timed with the same blocking ScanEngine scanPort:
+ *   refused - closed loopback ports, every connect answered by an RST
+ *   stalled - a listener whose accept queue is full, so SYNs are dropped
+ *             and every connect waits for the full timeout
+ *
+ * The fixed pool is fine when probes return quickly; virtual threads win
+ * once probes spend most of their time blocked waiting on the network.
+ *
+ * Usage: java -cp target/benchmarks.jar ExecutorComparison [probes] [timeoutMs] [threads]
+ */
+public class ExecutorComparison {
+
+    public static void main(String[] args) throws Exception {
+        int probes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int timeoutMs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int virtualLimit = 10000;
+
+        System.out.printf("probes=%d timeout=%dms threads=%d virtualLimit=%d%n%n",
+                          probes, timeoutMs, threads, virtualLimit);
+
+        int closedPort = findClosedPort();
+        try (StalledListener stalled = new StalledListener()) {
+            int[] refusedPorts = repeat(closedPort, probes);
+            int[] stalledPorts = repeat(stalled.port(), Math.min(probes, 2000));
+
+            System.out.printf("%-10s %-10s %10s %12s%n", "workload", "executor", "ms", "probes/s");
+            run("refused", "fixed", refusedPorts, timeoutMs,
+                Executors.newFixedThreadPool(threads), Integer.MAX_VALUE);
+            run("stalled", "fixed", stalledPorts, timeoutMs,
+                Executors.newFixedThreadPool(threads), Integer.MAX_VALUE);
+            run("refused", "virtual", refusedPorts, timeoutMs,
+                Executors.newVirtualThreadPerTaskExecutor(), virtualLimit);
+            run("stalled", "virtual", stalledPorts, timeoutMs,
+                Executors.newVirtualThreadPerTaskExecutor(), virtualLimit);
+        }
+    }
+
+    private static void run(String workload, String name, int[] ports, int timeoutMs,
+                            ExecutorService executor, int limit) throws Exception {
+        ScanEngine.Scan scanner = new ScanEngine().prepare(new ScanRequest("127.0.0.1"));
+        Semaphore inFlight = new Semaphore(limit);
+        List<Future<PortResult>> futures = new ArrayList<>(ports.length);
+
+        long start = System.nanoTime();
+        for (int port : ports) {
+            inFlight.acquire();
+            futures.add(executor.submit(() -> {
+                try {
+                    return scanner.scanPort("127.0.0.1", port, timeoutMs);
+                } finally {
+                    inFlight.release();
+                }
+            }));
+        }
+        for (Future<PortResult> future : futures) {
+            future.get();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        executor.shutdown();
+
+        System.out.printf("%-10s %-10s %10d %12.0f%n", workload, name, elapsedMs,
+                          ports.length * 1000.0 / Math.max(1, elapsedMs));
+    }
+
+    private static int findClosedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int[] repeat(int port, int count) {
+        int[] ports = new int[count];
+        Arrays.fill(ports, port);
+        return ports;
+    }
+
+    /**
+     * Listener with a backlog of one that never accepts. Once the queue is
+     * filled, the kernel drops further SYNs and connects time out.
+     */
+    private static class StalledListener implements AutoCloseable {
+        private final ServerSocket server;
+        private final List<Socket> fillers = new ArrayList<>();
+
+        StalledListener() throws IOException {
+            server = new ServerSocket();
+            server.bind(new InetSocketAddress("127.0.0.1", 0), 1);
+            for (int i = 0; i < 4; i++) {
+                Socket filler = new Socket();
+                try {
+                    filler.connect(server.getLocalSocketAddress(), 100);
+                    fillers.add(filler);
+                } catch (IOException e) {
+                    filler.close();
+                }
+            }
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Socket filler : fillers) {
+                filler.close();
+            }
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End-to-end throughput of whole scans against a SimulatedNetwork.
+ *
+ * Every engine scans the same seeded farm through ScanEngine.scan, the
+ * path the command line takes, and is scored against the farm's ground
+ * truth:
+ *   probes/s   - ports scanned per second of scan time
+ *   p99        - connect latency over every outcome (ScanMetrics)
+ *   recall     - open ports found, of those the farm serves
+ *   precision  - reported open ports that really are open
+ *   banners    - open ports with a banner whose banner came back intact
+ *   filtered   - hosts reported as answering nothing, against the dead hosts
+ *
+ * With --min-rate, --min-recall or --min-banners it exits with status 1
+ * when any engine falls short, so CI can fail on a regression.
+ *
+ * --inflight defaults to the scanner's own window (ScanRequest.defaultMaxInFlight),
+ * lowered if the farm would leave too few file descriptors for it.
+ *
+ * Usage: java -cp target/benchmarks.jar ScanThroughput [--hosts 8] [--ports 256]
+ *            [--seed 42] [--timeout 200] [--inflight N] [--threads 100]
+ *            [--latency 5] [--banner] [--engines thread,nio,virtual]
+ *            [--min-rate N] [--min-recall 0.99] [--min-banners 0.99]
+ */
+public class ScanThroughput {
+
+    public static void main(String[] args) throws Exception {
+        SimulatedNetwork.Layout layout = new SimulatedNetwork.Layout();
+        int timeoutMs = 200;
+        int maxInFlight = 0; // the scanner's default, see defaultInFlight
+        int threads = 100;
+        boolean banner = false;
+        String[] engines = {"thread", "nio", "virtual"};
+        double minRate = 0;
+        double minRecall = 0;
+        double minBanners = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--banner")) {
+                banner = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                System.err.println("✗ Missing value for " + arg);
+                System.exit(2);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--hosts": layout.hosts = Integer.parseInt(value); break;
+                case "--ports": layout.ports = Integer.parseInt(value); break;
+                case "--seed": layout.seed = Long.parseLong(value); break;
+                case "--latency": layout.meanLatencyMs = Integer.parseInt(value); break;
+                case "--timeout": timeoutMs = Integer.parseInt(value); break;
+                case "--inflight": maxInFlight = Integer.parseInt(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--engines": engines = value.split(","); break;
+                case "--min-rate": minRate = Double.parseDouble(value); break;
+                case "--min-recall": minRecall = Double.parseDouble(value); break;
+                case "--min-banners": minBanners = Double.parseDouble(value); break;
+                default:
+                    System.err.println("✗ Unknown option " + arg);
+                    System.exit(2);
+            }
+        }
+        if (layout.hosts < 1 || layout.hosts > 254 || layout.ports < 1
+                || layout.basePort + layout.ports > 65536) {
+            System.err.println("✗ Farm must be 1-254 hosts and fit above port " + layout.basePort);
+            System.exit(2);
+        }
+        // Keep at least one normal host
+        layout.deadHosts = Math.min(layout.deadHosts, layout.hosts - 1);
+        layout.firewalledHosts = Math.min(layout.firewalledHosts,
+                                          layout.hosts - 1 - layout.deadHosts);
+        if (maxInFlight <= 0) {
+            maxInFlight = defaultInFlight(layout);
+        }
+        checkDescriptors(layout, maxInFlight);
+
+        System.out.printf("hosts=%d ports=%d seed=%d timeout=%dms inflight=%d threads=%d "
+                          + "latency=%dms banner=%s%n",
+                          layout.hosts, layout.ports, layout.seed, timeoutMs, maxInFlight,
+                          threads, layout.meanLatencyMs, banner);
+
+        boolean failed = false;
+        try (SimulatedNetwork network = new SimulatedNetwork(layout)) {
+            Truth truth = new Truth(network);
+            System.out.printf("farm: %d open (%d with banner), %d closed, %d filtered, "
+                              + "%d dead host(s)%n%n",
+                              truth.open.size(), truth.banners, truth.closed, truth.filtered,
+                              layout.deadHosts);
+            System.out.printf("%-8s %8s %10s %8s %8s %9s %8s %9s%n", "engine", "ms", "probes/s",
+                              "p99 ms", "recall", "precision", "banners", "filtered");
+
+            for (String engine : engines) {
+                ScanMetrics metrics = new ScanMetrics();
+                ScanRequest request = new ScanRequest(network.targetSpec())
+                    .ports(layout.basePort, layout.basePort + layout.ports - 1)
+                    .engine(engine)
+                    .timeout(timeoutMs)
+                    .threads(threads)
+                    .maxInFlight(maxInFlight)
+                    .bannerGrab(banner)
+                    .metrics(metrics);
+
+                ScanReport report;
+                try {
+                    report = new ScanEngine().scan(request, null);
+                } catch (IllegalArgumentException e) {
+                    // an option combination the engine rejects
+                    System.out.printf("%-8s skipped, %s%n", engine, e.getMessage());
+                    continue;
+                }
+                Score score = truth.score(report.getResults(), banner);
+                long probes = (long) layout.hosts * layout.ports;
+                double rate = probes * 1000.0 / Math.max(1, report.getDurationMs());
+                PortStates states = report.getPortStates();
+
+                System.out.printf("%-8s %8d %10.0f %8.2f %8.4f %9.4f %8s %4d/%-4d%n", engine,
+                                  report.getDurationMs(), rate,
+                                  metrics.getConnectPercentileMs(99), score.recall,
+                                  score.precision,
+                                  banner ? String.format("%.4f", score.bannerAccuracy) : "-",
+                                  states != null ? states.getFilteredHosts() : 0,
+                                  layout.deadHosts);
+
+                if (rate < minRate || score.recall < minRecall
+                        || (banner && score.bannerAccuracy < minBanners)) {
+                    failed = true;
+                }
+            }
+        }
+        if (failed) {
+            System.err.println("✗ Below threshold (--min-rate " + minRate + ", --min-recall "
+                               + minRecall + ", --min-banners " + minBanners + ")");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The window a command line scan would use, or less if the farm and
+     * the accepted end of every connect would not fit under the limit
+     */
+    private static int defaultInFlight(SimulatedNetwork.Layout layout) {
+        com.sun.management.UnixOperatingSystemMXBean unix = unixBean();
+        int window = ScanRequest.defaultMaxInFlight();
+        if (unix == null) {
+            return window;
+        }
+        long room = (unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount()
+                     - layout.descriptors() - 64) / 2;
+        return (int) Math.max(16, Math.min(window, room));
+    }
+
+    /**
+     * Refuse to start a farm the process cannot hold open
+     */
+    private static void checkDescriptors(SimulatedNetwork.Layout layout, int maxInFlight) {
+        com.sun.management.UnixOperatingSystemMXBean unix = unixBean();
+        if (unix == null) {
+            return;
+        }
+        // The scanner's own connects and their accepted ends come on top of the farm
+        long needed = layout.descriptors() + 2L * maxInFlight
+                    + unix.getOpenFileDescriptorCount() + 64;
+        if (needed > unix.getMaxFileDescriptorCount()) {
+            System.err.println("✗ The farm needs about " + needed + " file descriptors, the limit is "
+                               + unix.getMaxFileDescriptorCount()
+                               + ": raise ulimit -n or scan fewer hosts or ports");
+            System.exit(2);
+        }
+    }
+
+    private static com.sun.management.UnixOperatingSystemMXBean unixBean() {
+        java.lang.management.OperatingSystemMXBean os =
+            java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.UnixOperatingSystemMXBean
+            ? (com.sun.management.UnixOperatingSystemMXBean) os : null;
+    }
+
+    /**
+     * Ground truth of the farm, keyed by host:port
+     */
+    private static class Truth {
+        final Map<String, SimulatedNetwork.Port> open = new HashMap<>();
+        final List<String> excluded = new ArrayList<>();
+        int banners;
+        int closed;
+        int filtered;
+
+        Truth(SimulatedNetwork network) {
+            for (SimulatedNetwork.Port port : network.getPorts()) {
+                String key = port.host + ":" + port.port;
+                if (!port.bound) {
+                    excluded.add(key);
+                } else if (SimulatedNetwork.OPEN.equals(port.state)) {
+                    open.put(key, port);
+                    if (!port.expectedBanner().isEmpty()) {
+                        banners++;
+                    }
+                } else if (SimulatedNetwork.CLOSED.equals(port.state)) {
+                    closed++;
+                } else {
+                    filtered++;
+                }
+            }
+        }
+
+        Score score(List<PortResult> results, boolean banner) {
+            int found = 0;
+            int reported = 0;
+            int bannersRight = 0;
+            for (PortResult result : results) {
+                String key = result.getHost() + ":" + result.getPort();
+                if (!result.isOpen() || excluded.contains(key)) {
+                    continue;
+                }
+                reported++;
+                SimulatedNetwork.Port port = open.get(key);
+                if (port == null) {
+                    continue;
+                }
+                found++;
+                String expected = port.expectedBanner();
+                if (banner && !expected.isEmpty() && expected.equals(result.getBanner())) {
+                    bannersRight++;
+                }
+            }
+            Score score = new Score();
+            score.recall = open.isEmpty() ? 1 : (double) found / open.size();
+            score.precision = reported == 0 ? 1 : (double) found / reported;
+            score.bannerAccuracy = banners == 0 ? 1 : (double) bannersRight / banners;
+            return score;
+        }
+    }
+
+    private static class Score {
+        double recall;
+        double precision;
+        double bannerAccuracy;
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * A farm of simulated targets on loopback addresses (127.77.0.1, .2, ...),
+ * laid out from a seed so every run sees the same network.
+ *
+ * Each port is one of:
+ *   open     - a listener; it sends a banner after an injected delay, or
+ *              (at the drop rate, or with no banner) keeps the connection
+ *              silent until the client leaves
+ *   closed   - nothing listening, the kernel answers with a RST
+ *   filtered - a listener whose accept queue is full and never drained,
+ *              so the kernel drops SYNs and connects time out
+ *
+ * Hosts are normal (closed ports refuse), firewalled (every port that is
+ * not open is filtered) or dead (everything filtered).
+ *
+ * Loopback cannot delay or lose the TCP handshake itself without root
+ * tools such as netem, so latency and loss are injected where a process
+ * can: in the service's reply. All open ports are served by one selector
+ * thread. Addresses other than 127.0.0.1 need Linux, where all of
+ * 127.0.0.0/8 reaches the loopback interface.
+ */
+public class SimulatedNetwork implements AutoCloseable {
+
+    static final String OPEN = "open";
+    static final String CLOSED = "closed";
+    static final String FILTERED = "filtered";
+
+    private static final String[] BANNERS = {
+        "SSH-2.0-OpenSSH_9.6\r\n",
+        "220 mail.sim.test ESMTP Postfix\r\n",
+        "220 (vsFTPd 3.0.5)\r\n",
+        "+OK POP3 server ready\r\n",
+        "* OK [CAPABILITY IMAP4rev1] ready\r\n",
+        "-ERR unknown command\r\n",
+    };
+
+    /**
+     * Shape of the farm; every field has a default for a quick run
+     */
+    static class Layout {
+        int hosts = 8;
+        int firewalledHosts = 1;
+        int deadHosts = 1;
+        int basePort = 21000;
+        int ports = 256;
+        double openRate = 0.10;
+        double filteredRate = 0.05;  // on normal hosts
+        double silentRate = 0.20;    // open ports that send no banner
+        double dropRate = 0.02;      // open ports whose banner is lost
+        int meanLatencyMs = 5;       // banner delay, exponentially distributed
+        long seed = 42;
+
+        /**
+         * File descriptors the farm holds: a listener per open port, a
+         * listener and two queue fillers per filtered one (estimate)
+         */
+        long descriptors() {
+            double normalFiltered = (hosts - firewalledHosts - deadHosts) * filteredRate;
+            double filtered = normalFiltered + firewalledHosts * (1 - openRate) + deadHosts;
+            return Math.round(ports * (hosts * openRate + 3 * filtered));
+        }
+    }
+
+    /**
+     * What one port does
+     */
+    static class Port {
+        final String host;
+        final int port;
+        final String state;
+        final byte[] banner;   // null: silent
+        final boolean drop;
+        final int latencyMs;
+        boolean bound = true; // false if the port was taken, it is then left out of accuracy
+
+        Port(String host, int port, String state, byte[] banner, boolean drop, int latencyMs) {
+            this.host = host;
+            this.port = port;
+            this.state = state;
+            this.banner = banner;
+            this.drop = drop;
+            this.latencyMs = latencyMs;
+        }
+
+        /**
+         * The banner a scanner should report, "" if it should get none
+         */
+        String expectedBanner() {
+            return banner == null || drop ? "" : BannerGrabber.formatBanner(banner, banner.length);
+        }
+    }
+
+    private final Layout layout;
+    private final List<Port> ports = new ArrayList<>();
+    private final List<ServerSocket> stalled = new ArrayList<>();
+    private final List<Socket> fillers = new ArrayList<>();
+    private final Selector selector;
+    private final Thread thread;
+    private final PriorityQueue<Reply> replies = new PriorityQueue<>(
+        (a, b) -> Long.compare(a.due - b.due, 0));
+    private volatile boolean closed;
+
+    SimulatedNetwork(Layout layout) throws IOException {
+        this.layout = layout;
+        this.selector = Selector.open();
+        SplittableRandom random = new SplittableRandom(layout.seed);
+        try {
+            for (int h = 0; h < layout.hosts; h++) {
+                String host = "127.77.0." + (h + 1);
+                boolean dead = h >= layout.hosts - layout.deadHosts;
+                boolean firewalled = !dead
+                    && h >= layout.hosts - layout.deadHosts - layout.firewalledHosts;
+                for (int p = 0; p < layout.ports; p++) {
+                    // Every draw is made for every port, so changing one rate
+                    // does not reshuffle the rest of the layout
+                    double kind = random.nextDouble();
+                    double filteredDraw = random.nextDouble();
+                    boolean silent = random.nextDouble() < layout.silentRate;
+                    boolean drop = random.nextDouble() < layout.dropRate;
+                    String banner = BANNERS[random.nextInt(BANNERS.length)];
+                    int latency = (int) Math.min(10L * layout.meanLatencyMs,
+                        Math.round(-layout.meanLatencyMs * Math.log(1 - random.nextDouble())));
+
+                    String state = dead ? FILTERED
+                                 : kind < layout.openRate ? OPEN
+                                 : firewalled || filteredDraw < layout.filteredRate ? FILTERED
+                                 : CLOSED;
+                    Port port = new Port(host, layout.basePort + p, state,
+                                         OPEN.equals(state) && !silent
+                                             ? banner.getBytes(StandardCharsets.ISO_8859_1) : null,
+                                         OPEN.equals(state) && drop, latency);
+                    bind(port);
+                    ports.add(port);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "simulated-network");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Layout getLayout() {
+        return layout;
+    }
+
+    List<Port> getPorts() {
+        return ports;
+    }
+
+    /**
+     * Target specification covering every simulated host
+     */
+    String targetSpec() {
+        return "127.77.0.1-127.77.0." + layout.hosts;
+    }
+
+    private void bind(Port port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(port.host, port.port);
+        try {
+            if (OPEN.equals(port.state)) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                try {
+                    server.bind(address, 1024);
+                } catch (IOException e) {
+                    server.close();
+                    throw e;
+                }
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT, port);
+            } else if (FILTERED.equals(port.state)) {
+                // A backlog of one holds two connections; then SYNs are dropped
+                ServerSocket server = new ServerSocket();
+                stalled.add(server);
+                server.bind(address, 1);
+                for (int i = 0; i < 2; i++) {
+                    Socket filler = new Socket();
+                    fillers.add(filler);
+                    filler.connect(address, 1000);
+                }
+            }
+        } catch (java.net.BindException e) {
+            port.bound = false; // taken by something else on this machine
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                Reply next = replies.peek();
+                long waitMs = next == null ? 0
+                            : Math.max(1, (next.due - System.nanoTime()) / 1_000_000L);
+                selector.select(waitMs);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(key);
+                    } else if (key.isReadable()) {
+                        drain(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.nanoTime();
+                while ((next = replies.peek()) != null && next.due - now <= 0) {
+                    replies.poll();
+                    send(next);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Simulated network failed: " + e.getMessage());
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        Port port = (Port) key.attachment();
+        SocketChannel client;
+        while ((client = ((ServerSocketChannel) key.channel()).accept()) != null) {
+            client.configureBlocking(false);
+            if (port.banner == null || port.drop) {
+                // Silent service: read and discard until the scanner hangs up
+                client.register(selector, SelectionKey.OP_READ);
+            } else {
+                replies.add(new Reply(client, port.banner,
+                                      System.nanoTime() + port.latencyMs * 1_000_000L));
+            }
+        }
+    }
+
+    private void drain(SelectionKey key) {
+        SocketChannel client = (SocketChannel) key.channel();
+        try {
+            if (client.read(ByteBuffer.allocate(512)) >= 0) {
+                return;
+            }
+        } catch (IOException e) {
+            // Reset by the scanner
+        }
+        key.cancel();
+        closeQuietly(client);
+    }
+
+    private static void send(Reply reply) {
+        try {
+            // A banner fits the socket buffer, one write sends it all
+            reply.client.write(ByteBuffer.wrap(reply.banner));
+        } catch (IOException e) {
+            // The scanner gave up first
+        }
+        closeQuietly(reply.client);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key.channel());
+        }
+        for (Reply reply : replies) {
+            closeQuietly(reply.client);
+        }
+        closeQuietly(selector);
+        for (Socket filler : fillers) {
+            closeQuietly(filler);
+        }
+        for (ServerSocket server : stalled) {
+            closeQuietly(server);
+        }
+    }
+
+    /**
+     * A banner waiting for its injected delay
+     */
+    private static class Reply {
+        final SocketChannel client;
+        final byte[] banner;
+        final long due;
+
+        Reply(SocketChannel client, byte[] banner, long due) {
+            this.client = client;
+            this.banner = banner;
+            this.due = due;
+        }
+    }
+}
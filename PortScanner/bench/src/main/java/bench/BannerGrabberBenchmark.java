@@ -0,0 +1,73 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BannerGrabber.grabBanner against loopback servers that greet on accept.
+ *
+ * ssh  - a single line greeting
+ * smtp - a multi-line greeting, stopped after MAX_BANNER_LINES
+ * http - a large response, stopped at MAX_BANNER_BYTES
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BannerGrabberBenchmark {
+
+    @Param({"ssh", "smtp", "http"})
+    String service;
+
+    private StubServer server;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        server = new StubServer(greeting(service));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public String grabBanner() {
+        return Scanner.grabBanner(StubServer.HOST, server.port(), 1000);
+    }
+
+    private static String greeting(String service) {
+        switch (service) {
+            case "ssh":
+                return "SSH-2.0-OpenSSH_9.6p1 Ubuntu-3ubuntu13\r\n";
+            case "smtp":
+                return "220-mail.example.com ESMTP Postfix\r\n"
+                     + "220-No unsolicited mail\r\n"
+                     + "220-Service ready\r\n"
+                     + "220 Go ahead\r\n";
+            default:
+                StringBuilder response = new StringBuilder("HTTP/1.1 200 OK\r\n"
+                    + "Server: nginx/1.24.0\r\nContent-Type: text/html\r\n\r\n");
+                while (response.length() < 4096) {
+                    response.append("<p>benchmark payload</p>\n");
+                }
+                return response.toString();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ResultExporter.exportToJSON and exportToCSV on large synthetic result
+ * lists, spread over a few hundred hosts with a mix of empty, short and
+ * quote-laden banners; exportAll writes all five text formats in one
+ * pass, plain and gzipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultExporterBenchmark {
+
+    private static final String[] BANNERS = {
+        "",
+        "SSH-2.0-OpenSSH_9.6p1 Ubuntu-3ubuntu13",
+        "220 mail.example.com ESMTP Postfix",
+        "HTTP/1.1 200 OK Server: \"nginx\"\\1.24.0",
+    };
+
+    @Param({"10000", "100000"})
+    int results;
+
+    private List<Object> list;
+    private Path directory;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        list = new ArrayList<>(results);
+        int hosts = 256;
+        int perHost = (results + hosts - 1) / hosts;
+        for (int i = 0; i < results; i++) {
+            String host = "10.0." + (i / perHost) + ".1";
+            int port = 1 + (i % perHost) * 37 % 65535;
+            list.add(Scanner.newResult(host, port, BANNERS[random.nextInt(BANNERS.length)],
+                                       Scanner.getServiceName(port)));
+        }
+        directory = Files.createTempDirectory("exporter-bench");
+
+        // The exporter reports every file it writes; keep that out of the results
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void exportToJSON() {
+        Scanner.exportToJSON(list, "10.0.0.0/16", 1000, directory.resolve("scan.json").toString());
+    }
+
+    @Benchmark
+    public void exportToCSV() {
+        Scanner.exportToCSV(list, "10.0.0.0/16", 1000, directory.resolve("scan.csv").toString());
+    }
+
+    @Benchmark
+    public void exportAll() {
+        exportAll(false);
+    }
+
+    @Benchmark
+    public void exportAllGzip() {
+        exportAll(true);
+    }
+
+    private void exportAll(boolean gzip) {
+        Map<String, String> files = new LinkedHashMap<>();
+        for (String format : new String[] {"txt", "csv", "json", "ndjson", "xml"}) {
+            files.put(format, directory.resolve("all." + format + (gzip ? ".gz" : "")).toString());
+        }
+        Scanner.export(list, "10.0.0.0/16", 1000, files, gzip);
+    }
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one blocking ScanEngine scanPort on loopback.
+ *
+ * open   - a listener that accepts and closes, optionally with a banner
+ * closed - nothing listening, the connect is refused with an RST
+ *
+ * Loopback has no network latency, so this measures the scanner's own
+ * per-probe overhead (socket setup, connect, banner read, result object),
+ * which is what the thread count and timeout trade against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanPortBenchmark {
+
+    @Param({"200", "1000"})
+    int timeoutMs;
+
+    @Param({"false", "true"})
+    boolean bannerGrab;
+
+    private StubServer server;
+    private int closedPort;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        server = new StubServer("SSH-2.0-OpenSSH_9.6\r\n");
+        closedPort = StubServer.closedPort();
+        Scanner.setBannerGrab(bannerGrab);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        Scanner.setBannerGrab(false);
+        server.close();
+    }
+
+    @Benchmark
+    public Object open() {
+        return Scanner.scanPort(StubServer.HOST, server.port(), timeoutMs);
+    }
+
+    @Benchmark
+    public Object closed() {
+        return Scanner.scanPort(StubServer.HOST, closedPort, timeoutMs);
+    }
+}
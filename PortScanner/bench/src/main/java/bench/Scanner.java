@@ -0,0 +1,166 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry points into the scanner for the benchmarks.
+ *
+ * JMH refuses benchmarks in the default package, and Java cannot import
+ * classes from it, so the scanner is reached through method handles.
+ * They are resolved once into static finals, which the JIT treats as
+ * constants and inlines like a direct call.
+ */
+final class Scanner {
+
+    private static final MethodHandle SCAN_PORT;
+    private static final MethodHandle SCAN_PORT_WITH_BANNER;
+    private static final MethodHandle GRAB_BANNER;
+    private static final MethodHandle SERVICE_NAME;
+    private static final MethodHandle EXPORT_JSON;
+    private static final MethodHandle EXPORT_CSV;
+    private static final MethodHandle EXPORT;
+    private static final MethodHandle NEW_RESULT;
+    private static boolean bannerGrab;
+
+    static {
+        try {
+            ClassLoader loader = Scanner.class.getClassLoader();
+            Class<?> scanEngine = Class.forName("ScanEngine", true, loader);
+            Class<?> scanRequest = Class.forName("ScanRequest", true, loader);
+            Class<?> bannerGrabber = Class.forName("BannerGrabber", true, loader);
+            Class<?> serviceMapper = Class.forName("ServiceMapper", true, loader);
+            Class<?> exporter = Class.forName("ResultExporter", true, loader);
+            Class<?> portResult = Class.forName("PortResult", true, loader);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            // scanPort belongs to a prepared (package-private) scan, which
+            // holds the request's options; one scan per banner setting
+            Object engine = scanEngine.getDeclaredConstructor().newInstance();
+            Method prepare = scanEngine.getDeclaredMethod("prepare", scanRequest);
+            prepare.setAccessible(true);
+            Method bannerGrab = scanRequest.getMethod("bannerGrab", boolean.class);
+            Constructor<?> newRequest = scanRequest.getConstructor(String.class);
+            Object plain = prepare.invoke(engine, newRequest.newInstance("127.0.0.1"));
+            Object banner = prepare.invoke(engine, bannerGrab.invoke(
+                newRequest.newInstance("127.0.0.1"), true));
+
+            Method scanPort = plain.getClass().getDeclaredMethod("scanPort",
+                                                                 String.class, int.class, int.class);
+            scanPort.setAccessible(true);
+            MethodType type = MethodType.methodType(Object.class, String.class, int.class, int.class);
+            SCAN_PORT = lookup.unreflect(scanPort).bindTo(plain).asType(type);
+            SCAN_PORT_WITH_BANNER = lookup.unreflect(scanPort).bindTo(banner).asType(type);
+
+            GRAB_BANNER = lookup.findStatic(bannerGrabber, "grabBanner",
+                MethodType.methodType(String.class, String.class, int.class, int.class));
+            SERVICE_NAME = lookup.findStatic(serviceMapper, "getServiceName",
+                MethodType.methodType(String.class, int.class));
+
+            MethodType export = MethodType.methodType(void.class, List.class, String.class,
+                                                      long.class, String.class);
+            EXPORT_JSON = lookup.findStatic(exporter, "exportToJSON", export);
+            EXPORT_CSV = lookup.findStatic(exporter, "exportToCSV", export);
+            EXPORT = lookup.findStatic(exporter, "export",
+                MethodType.methodType(void.class, List.class, String.class, long.class,
+                                      Map.class, boolean.class));
+
+            NEW_RESULT = lookup.findConstructor(portResult,
+                MethodType.methodType(void.class, String.class, int.class, String.class,
+                                      String.class))
+                .asType(MethodType.methodType(Object.class, String.class, int.class,
+                                              String.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Scanner() {
+    }
+
+    /**
+     * ScanEngine's scanPort: a PortResult, open, closed or filtered
+     */
+    static Object scanPort(String host, int port, int timeoutMs) {
+        try {
+            return bannerGrab ? (Object) SCAN_PORT_WITH_BANNER.invokeExact(host, port, timeoutMs)
+                              : (Object) SCAN_PORT.invokeExact(host, port, timeoutMs);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String grabBanner(String host, int port, int timeoutMs) {
+        try {
+            return (String) GRAB_BANNER.invokeExact(host, port, timeoutMs);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String getServiceName(int port) {
+        try {
+            return (String) SERVICE_NAME.invokeExact(port);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void exportToJSON(List<?> results, String host, long durationMs, String filename) {
+        try {
+            EXPORT_JSON.invokeExact(results, host, durationMs, filename);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void exportToCSV(List<?> results, String host, long durationMs, String filename) {
+        try {
+            EXPORT_CSV.invokeExact(results, host, durationMs, filename);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * ResultExporter.export: every format of files (format to file name) in one pass
+     */
+    static void export(List<?> results, String host, long durationMs, Map<String, String> files,
+                       boolean gzip) {
+        try {
+            EXPORT.invokeExact(results, host, durationMs, files, gzip);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newResult(String host, int port, String banner, String service) {
+        try {
+            return (Object) NEW_RESULT.invokeExact(host, port, banner, service);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Toggle the -b flag that scanPort consults
+     */
+    static void setBannerGrab(boolean enabled) {
+        bannerGrab = enabled;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ServiceMapper.getServiceName for known ports, unknown ports and a
+ * sweep of the whole port range as a full scan would do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceMapperBenchmark {
+
+    int knownPort = 443;
+    int unknownPort = 31337;
+
+    @Benchmark
+    public String known() {
+        return Scanner.getServiceName(knownPort);
+    }
+
+    @Benchmark
+    public String unknown() {
+        return Scanner.getServiceName(unknownPort);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void allPorts(Blackhole blackhole) {
+        for (int port = 1; port <= 65535; port++) {
+            blackhole.consume(Scanner.getServiceName(port));
+        }
+    }
+}
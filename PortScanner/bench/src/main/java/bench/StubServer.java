@@ -0,0 +1,66 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loopback listener for the benchmarks. Every accepted connection is sent
+ * the configured greeting (if any) and closed.
+ */
+final class StubServer implements AutoCloseable {
+
+    static final String HOST = "127.0.0.1";
+
+    private final ServerSocket server;
+    private final byte[] greeting;
+    private final Thread acceptor;
+
+    /**
+     * @param greeting text sent on accept, or null to close silently
+     */
+    StubServer(String greeting) throws IOException {
+        this.greeting = greeting == null ? null : greeting.getBytes(StandardCharsets.ISO_8859_1);
+        this.server = new ServerSocket();
+        server.bind(new InetSocketAddress(InetAddress.getByName(HOST), 0), 1024);
+        this.acceptor = new Thread(this::acceptLoop, "stub-server-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                if (greeting != null) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(greeting);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Closed, or the client went away first
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * A loopback port nothing is listening on, so connects are refused
+     */
+    static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(HOST))) {
+            return socket.getLocalPort();
+        }
+    }
+}
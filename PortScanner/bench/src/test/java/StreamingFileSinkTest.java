@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Banners are read as ISO-8859-1, so any byte can end up in them; the
+ * streamed JSON formats must escape every control character.
+ */
+class StreamingFileSinkTest {
+
+    private static final String MYSQL_BANNER = "J\0\05.7.1\0\tabc\1";
+    private static final String ESCAPED = "J\\u0000\\u0005.7.1\\u0000\\tabc\\u0001";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void jsonEscapesControlBytes() throws Exception {
+        String text = stream("json");
+
+        assertTrue(text.contains("\"banner\": \"" + ESCAPED + "\""), text);
+        assertNoControlCharacters(text);
+        assertTrue(text.endsWith("\n  ]\n}\n"), text);
+    }
+
+    @Test
+    void ndjsonEscapesControlBytes() throws Exception {
+        String text = stream("ndjson");
+
+        String[] lines = text.split("\n");
+        assertEquals(3, lines.length, text);
+        assertTrue(lines[1].contains("\"banner\": \"" + ESCAPED + "\""), text);
+        assertNoControlCharacters(text);
+    }
+
+    private String stream(String format) throws Exception {
+        Path file = dir.resolve("scan." + format);
+        StreamingFileSink sink = new StreamingFileSink(format, "127.0.0.1", file.toString());
+        sink.accept(new PortResult("127.0.0.1", 3306, MYSQL_BANNER, "MySQL"));
+        sink.accept(new PortResult("127.0.0.1", 22, "SSH-2.0-OpenSSH_9.6\r\n", "SSH"));
+        sink.close();
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Raw control characters are not allowed inside JSON strings, and the
+     * formats only put newlines between values
+     */
+    private static void assertNoControlCharacters(String text) {
+        for (char c : text.toCharArray()) {
+            assertTrue(c >= 0x20 || c == '\n', "raw control character " + (int) c + " in " + text);
+        }
+    }
+}
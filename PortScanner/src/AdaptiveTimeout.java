@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host connect timeouts learned from observed round-trip times.
+ *
+ * Each answered probe (an accepted connect or an RST) is an RTT sample.
+ * Samples feed a smoothed RTT and variance in the style of RFC 6298, and
+ * the probe timeout is srtt + 4 * rttvar, clamped to [floor, ceiling].
+ * Until a host has answered anything, the configured timeout is used.
+ */
+public class AdaptiveTimeout {
+
+    private final int initialMs;
+    private final int floorMs;
+    private final int ceilingMs;
+    private final Map<String, RttEstimator> hosts = new ConcurrentHashMap<>();
+
+    public AdaptiveTimeout(int initialMs, int floorMs, int ceilingMs) {
+        this.initialMs = initialMs;
+        this.floorMs = floorMs;
+        this.ceilingMs = Math.max(floorMs, ceilingMs);
+    }
+
+    /**
+     * Timeout to use for the next probe against this host
+     */
+    public int timeoutFor(String host) {
+        RttEstimator estimator = hosts.get(host);
+        if (estimator == null) {
+            return initialMs;
+        }
+        return estimator.timeoutMs();
+    }
+
+    /**
+     * Record how long the host took to answer a probe
+     */
+    public void record(String host, long rttNanos) {
+        hosts.computeIfAbsent(host, h -> new RttEstimator(h, floorMs, ceilingMs))
+             .update(rttNanos);
+    }
+
+    /**
+     * Stats for every host that answered at least once, sorted by host
+     */
+    public List<RttEstimator> getStats() {
+        List<RttEstimator> stats = new ArrayList<>(hosts.values());
+        Collections.sort(stats, (a, b) -> PortResult.compareHosts(a.getHost(), b.getHost()));
+        return stats;
+    }
+
+    public int getFloorMs() {
+        return floorMs;
+    }
+
+    public int getCeilingMs() {
+        return ceilingMs;
+    }
+
+    /**
+     * Smoothed RTT and variance for a single host
+     */
+    public static class RttEstimator {
+        private final String host;
+        private final int floorMs;
+        private final int ceilingMs;
+        private double srttMs;
+        private double rttvarMs;
+        private long samples;
+
+        RttEstimator(String host, int floorMs, int ceilingMs) {
+            this.host = host;
+            this.floorMs = floorMs;
+            this.ceilingMs = ceilingMs;
+        }
+
+        synchronized void update(long rttNanos) {
+            double rttMs = rttNanos / 1_000_000.0;
+            if (samples == 0) {
+                srttMs = rttMs;
+                rttvarMs = rttMs / 2;
+            } else {
+                rttvarMs = 0.75 * rttvarMs + 0.25 * Math.abs(srttMs - rttMs);
+                srttMs = 0.875 * srttMs + 0.125 * rttMs;
+            }
+            samples++;
+        }
+
+        public synchronized int timeoutMs() {
+            long timeout = (long) Math.ceil(srttMs + 4 * rttvarMs);
+            return (int) Math.max(floorMs, Math.min(ceilingMs, timeout));
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public synchronized double getSrttMs() {
+            return srttMs;
+        }
+
+        public synchronized double getRttvarMs() {
+            return rttvarMs;
+        }
+
+        public synchronized long getSamples() {
+            return samples;
+        }
+    }
+}
@@ -1,44 +1,99 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 
 
  // Utility class for grabbing service banners from open ports
 
 public class BannerGrabber {
-    
-   
+
+    static final int MAX_BANNER_BYTES = 1024;
+    static final int MAX_BANNER_LINES = 3;
+
+
     public static String grabBanner(String host, int port, int timeoutMs) {
         try (Socket socket = new Socket()) {
-            socket.connect(new InetSocketAddress(host, port), timeoutMs);
-            socket.setSoTimeout(timeoutMs);
-            
-            // Try to read banner (some services send it immediately)
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(socket.getInputStream())
-            );
-            
-            // Check if data is available
-            if (reader.ready()) {
-                StringBuilder banner = new StringBuilder();
-                String line;
-                int lines = 0;
-                while (reader.ready() && lines < 3) {
-                    line = reader.readLine();
-                    if (line != null) {
-                        banner.append(line.trim()).append(" ");
-                        lines++;
-                    }
+            socket.connect(new InetSocketAddress(HostResolver.resolve(host), port), timeoutMs);
+            return grabBanner(socket, timeoutMs);
+        } catch (IOException e) {
+            // Connection failed
+        }
+        return "";
+    }
+
+    /**
+     * Read a banner from an already connected socket.
+     * Waits up to deadlineMs for the service to speak, so greetings sent
+     * shortly after accept are not missed.
+     */
+    public static String grabBanner(Socket socket, int deadlineMs) {
+        byte[] buffer = new byte[MAX_BANNER_BYTES];
+        int length = 0;
+        long deadline = System.nanoTime() + deadlineMs * 1_000_000L;
+
+        try {
+            InputStream in = socket.getInputStream();
+            while (length < buffer.length) {
+                long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0) {
+                    break;
+                }
+                socket.setSoTimeout((int) remainingMs);
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+                // Stop once a complete greeting has arrived and nothing more is queued
+                if (isComplete(buffer, length) && in.available() == 0) {
+                    break;
                 }
-                return banner.toString().trim();
             }
-            
+        } catch (SocketTimeoutException e) {
+            // Deadline reached, keep whatever arrived
         } catch (IOException e) {
-            // Banner not available or connection failed
+            // Connection reset while reading
         }
-        return "";
+        return formatBanner(buffer, length);
+    }
+
+    /**
+     * True once the data ends on a line break or holds enough lines.
+     */
+    static boolean isComplete(byte[] data, int length) {
+        if (length == 0) {
+            return false;
+        }
+        int lines = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines >= MAX_BANNER_LINES || data[length - 1] == '\n';
+    }
+
+    /**
+     * Join the first few non-empty lines into a single trimmed banner.
+     */
+    static String formatBanner(byte[] data, int length) {
+        String text = new String(data, 0, length, StandardCharsets.ISO_8859_1);
+        StringBuilder banner = new StringBuilder();
+        int lines = 0;
+        for (String line : text.split("\r?\n")) {
+            if (lines >= MAX_BANNER_LINES) {
+                break;
+            }
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty()) {
+                banner.append(trimmed).append(" ");
+                lines++;
+            }
+        }
+        return banner.toString().trim();
     }
 
 }
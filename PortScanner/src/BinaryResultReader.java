@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a file written by BinaryResultWriter through a memory mapping.
+ *
+ * Only the footer is read up front. Host lookups go straight to that
+ * host's runs, port queries walk the varints of each run without decoding
+ * a single banner, and strings are decoded on first use. Files up to 2 GB
+ * are supported.
+ *
+ * Usage: java PortScanner --query <file> [--port N] [--host H] [--convert txt|csv|json|ndjson|xml]
+ */
+public class BinaryResultReader implements AutoCloseable {
+
+    private final String filename;
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+
+    private final long durationMs;
+    private final long resultCount;
+    private final int targetId;
+    private final long[] stringOffsets;
+    private final String[] strings;
+    private final int[] hostIds;
+    private final long[][] hostRuns;
+    private Map<String, Integer> hostIndex;
+
+    public BinaryResultReader(String filename) throws IOException {
+        this.filename = filename;
+        this.channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException(filename + " is larger than 2 GB");
+        }
+        this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+        int trailer = (int) size - 12;
+        if (size < BinaryResultWriter.MAGIC.length + 12
+                || !hasMagic(0, BinaryResultWriter.MAGIC)
+                || !hasMagic(trailer + 8, BinaryResultWriter.END_MAGIC)) {
+            channel.close();
+            throw new IOException(filename + " is not a complete binary result file");
+        }
+
+        ByteBuffer footer = data.duplicate();
+        footer.position((int) data.getLong(trailer));
+        durationMs = footer.getLong();
+        resultCount = footer.getLong();
+        targetId = footer.getInt();
+        stringOffsets = new long[footer.getInt()];
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = footer.getLong();
+        }
+        strings = new String[stringOffsets.length];
+        hostIds = new int[footer.getInt()];
+        hostRuns = new long[hostIds.length][];
+        for (int h = 0; h < hostIds.length; h++) {
+            hostIds[h] = footer.getInt();
+            hostRuns[h] = new long[footer.getInt()];
+            for (int r = 0; r < hostRuns[h].length; r++) {
+                hostRuns[h][r] = footer.getLong();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("✗ Usage: --query <file> [--port N] [--host H] [--convert txt|csv|json|ndjson|xml]");
+            return;
+        }
+        try (BinaryResultReader reader = new BinaryResultReader(args[1])) {
+            boolean queried = false;
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                queried = true;
+                switch (args[i]) {
+                    case "--port":
+                        int port = Integer.parseInt(args[i + 1]);
+                        List<String> hosts = reader.hostsWithPort(port);
+                        System.out.println(hosts.size() + " host(s) with port " + port + " open:");
+                        for (String host : hosts) {
+                            System.out.println("  " + host);
+                        }
+                        break;
+                    case "--host":
+                        List<PortResult> ports = reader.getResults(args[i + 1]);
+                        System.out.println(ports.size() + " port(s) on " + args[i + 1] + ":");
+                        for (PortResult result : ports) {
+                            System.out.println("  " + result);
+                        }
+                        break;
+                    case "--convert":
+                        reader.convert(args[i + 1].toLowerCase());
+                        break;
+                    default:
+                        System.err.println("✗ Unknown query option " + args[i]);
+                }
+            }
+            if (!queried) {
+                System.out.println(reader.getTarget() + ": " + reader.getResultCount()
+                                   + " open port(s) on " + reader.getHostCount() + " host(s), "
+                                   + reader.getDurationMs() + " ms");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("✗ Failed to query " + args[1] + ": " + e.getMessage());
+        }
+    }
+
+    public String getTarget() {
+        return string(targetId);
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public long getResultCount() {
+        return resultCount;
+    }
+
+    public int getHostCount() {
+        return hostIds.length;
+    }
+
+    public List<String> getHosts() {
+        List<String> hosts = new ArrayList<>(hostIds.length);
+        for (int id : hostIds) {
+            hosts.add(string(id));
+        }
+        return hosts;
+    }
+
+    /**
+     * Open ports of one host, in the order they were written
+     */
+    public List<PortResult> getResults(String host) {
+        Integer h = hostIndex().get(host);
+        List<PortResult> results = new ArrayList<>();
+        if (h != null) {
+            readRuns(h, results);
+        }
+        return results;
+    }
+
+    /**
+     * Hosts on which the port is open. Reads only the varints of each
+     * run, no strings besides the matching host names.
+     */
+    public List<String> hostsWithPort(int port) {
+        List<String> hosts = new ArrayList<>();
+        ByteBuffer in = data.duplicate();
+        for (int h = 0; h < hostIds.length; h++) {
+            if (runsContain(in, hostRuns[h], port)) {
+                hosts.add(string(hostIds[h]));
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Every result, host by host
+     */
+    public List<PortResult> readAll() {
+        List<PortResult> results = new ArrayList<>((int) Math.min(resultCount, Integer.MAX_VALUE));
+        for (int h = 0; h < hostIds.length; h++) {
+            readRuns(h, results);
+        }
+        return results;
+    }
+
+    /**
+     * Write the results next to the binary file in text formats, several
+     * comma separated ones in one pass (e.g. "json,xml")
+     */
+    public void convert(String formats) {
+        String base = filename.endsWith(".bin") ? filename.substring(0, filename.length() - 4)
+                                                : filename;
+        Map<String, String> files = new LinkedHashMap<>();
+        for (String format : formats.split(",")) {
+            if (format.equals("bin") || !ResultExporter.FORMATS.contains(format)) {
+                System.err.println("✗ Unknown format " + format + " (txt, csv, json, ndjson or xml)");
+                return;
+            }
+            files.put(format, base + "." + format);
+        }
+        ResultExporter.export(readAll(), getTarget(), durationMs, files, false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readRuns(int h, List<PortResult> results) {
+        ByteBuffer in = data.duplicate();
+        String host = string(hostIds[h]);
+        for (long offset : hostRuns[h]) {
+            in.position((int) offset);
+            int type = in.get();
+            readVarint(in); // host
+            int kind = type == BinaryResultWriter.KIND_RUN ? readVarint(in) : 0;
+            String protocol = (kind & 1) == 0 ? PortResult.TCP : PortResult.UDP;
+            String state = (kind & 8) == 0
+                ? ((kind & 2) == 0 ? PortResult.OPEN : PortResult.OPEN_FILTERED)
+                : ((kind & 2) == 0 ? PortResult.CLOSED : PortResult.FILTERED);
+            int count = readVarint(in);
+            int port = 0;
+            for (int i = 0; i < count; i++) {
+                port += zigzag(readVarint(in));
+                String service = string(readVarint(in));
+                String banner = string(readVarint(in));
+                TlsInfo tls = (kind & 4) == 0 ? null
+                    : new TlsInfo(string(readVarint(in)), string(readVarint(in)),
+                                  string(readVarint(in)), string(readVarint(in)),
+                                  string(readVarint(in)));
+                results.add(new PortResult(host, port, banner, service, protocol, state, tls));
+            }
+        }
+    }
+
+    private static boolean runsContain(ByteBuffer in, long[] runs, int wanted) {
+        for (long offset : runs) {
+            in.position((int) offset);
+            int type = in.get();
+            skipVarint(in); // host
+            int kind = type == BinaryResultWriter.KIND_RUN ? readVarint(in) : 0;
+            int strings = (kind & 4) != 0 ? 2 + BinaryResultWriter.TLS_STRINGS : 2;
+            int count = readVarint(in);
+            int port = 0;
+            for (int i = 0; i < count; i++) {
+                port += zigzag(readVarint(in));
+                for (int j = 0; j < strings; j++) {
+                    skipVarint(in);
+                }
+                if (port == wanted && (kind & 8) == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Map<String, Integer> hostIndex() {
+        if (hostIndex == null) {
+            Map<String, Integer> index = new HashMap<>();
+            for (int h = 0; h < hostIds.length; h++) {
+                index.put(string(hostIds[h]), h);
+            }
+            hostIndex = index;
+        }
+        return hostIndex;
+    }
+
+    private String string(int id) {
+        String text = strings[id];
+        if (text == null) {
+            ByteBuffer in = data.duplicate();
+            in.position((int) stringOffsets[id] + 1);
+            int length = readVarint(in);
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+            strings[id] = text;
+        }
+        return text;
+    }
+
+    private boolean hasMagic(int offset, byte[] magic) {
+        byte[] found = new byte[magic.length];
+        data.get(offset, found);
+        return Arrays.equals(found, magic);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static void skipVarint(ByteBuffer in) {
+        while (in.get() < 0) {
+            // continuation bytes
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming encoder for the compact binary result format (-o bin).
+ *
+ * Layout, integers big-endian:
+ *
+ *   "PSR1"
+ *   records, in any order:
+ *     1 len bytes              a string (host, service or banner), numbered
+ *                              0, 1, 2, ... as they appear
+ *     2 host count entries     a run of results for one host; each entry is
+ *                              the zigzag delta from the previous port, then
+ *                              the service and banner string numbers
+ *     3 host kind count entries
+ *                              a run of results that are not plain open TCP
+ *                              ports: kind is protocol (0 tcp, 1 udp)
+ *                              + 2 * state (0 open, 1 open|filtered)
+ *                              + 4 if each entry is followed by five TLS
+ *                              string numbers (protocol, cipher, subject,
+ *                              expiry, fingerprint)
+ *                              + 8 for closed (state 0) or filtered (state 1)
+ *   footer:
+ *     long duration, long results (not counting closed or filtered ports),
+ *     int target string
+ *     int strings, long offset of each string record
+ *     int hosts, then per host: int host string, int runs, long offset of each run
+ *   long footer offset, "PSRE"
+ *
+ * Record fields are varints, so a result usually takes three or four bytes;
+ * every distinct service and banner is stored once. The footer is fixed
+ * width so BinaryResultReader can find any string or host without reading
+ * the records before it. Results are written as they arrive, only the
+ * current run (at most MAX_RUN results) is held in memory.
+ */
+public class BinaryResultWriter implements ResultSink {
+    static final byte[] MAGIC = {'P', 'S', 'R', '1'};
+    static final byte[] END_MAGIC = {'P', 'S', 'R', 'E'};
+    static final int STRING = 1;
+    static final int RUN = 2;
+    static final int KIND_RUN = 3;
+    static final int TLS_STRINGS = 5;
+    private static final int ENTRY_INTS = 3 + TLS_STRINGS;
+    private static final int MAX_RUN = 4096;
+
+    private final String filename;
+    private final DataOutputStream out;
+    private long position;
+
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private long[] stringOffsets = new long[64];
+    private final Map<Integer, long[]> hostRuns = new LinkedHashMap<>(); // [count, offsets...]
+    private final int targetId;
+
+    private int runHost = -1;
+    private int runKind;
+    private int runSize;
+    private int[] runEntries = new int[ENTRY_INTS * 64]; // port, service, banner, tls strings
+    private long resultCount;
+    private long durationMs;
+    private boolean closed;
+
+    public BinaryResultWriter(String filename, String target) throws IOException {
+        this.filename = filename;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+        out.write(MAGIC);
+        position = MAGIC.length;
+        targetId = intern(target);
+    }
+
+    /**
+     * Scan duration to record in the footer
+     */
+    public void setDuration(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    @Override
+    public void accept(PortResult result) {
+        try {
+            int host = intern(result.getHost() == null ? "" : result.getHost());
+            int kind = kind(result);
+            if (host != runHost || kind != runKind || runSize == MAX_RUN) {
+                flushRun();
+                runHost = host;
+                runKind = kind;
+            }
+            if (ENTRY_INTS * runSize == runEntries.length) {
+                runEntries = Arrays.copyOf(runEntries, runEntries.length * 2);
+            }
+            int entry = ENTRY_INTS * runSize;
+            runEntries[entry] = result.getPort();
+            runEntries[entry + 1] = intern(result.getServiceName());
+            runEntries[entry + 2] = intern(result.getBanner());
+            TlsInfo tls = result.getTls();
+            if (tls != null) {
+                runEntries[entry + 3] = intern(tls.getProtocol());
+                runEntries[entry + 4] = intern(tls.getCipher());
+                runEntries[entry + 5] = intern(tls.getSubject());
+                runEntries[entry + 6] = intern(tls.getNotAfter());
+                runEntries[entry + 7] = intern(tls.getSha256());
+            }
+            runSize++;
+            if (!result.isClosedOrFiltered()) {
+                resultCount++;
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Failed to write result to " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the last run and the footer. The file is only readable after this.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (out) {
+            flushRun();
+            long footer = position;
+            out.writeLong(durationMs);
+            out.writeLong(resultCount);
+            out.writeInt(targetId);
+            out.writeInt(stringIds.size());
+            for (int i = 0; i < stringIds.size(); i++) {
+                out.writeLong(stringOffsets[i]);
+            }
+            out.writeInt(hostRuns.size());
+            for (Map.Entry<Integer, long[]> host : hostRuns.entrySet()) {
+                long[] runs = host.getValue();
+                int count = (int) runs[0];
+                out.writeInt(host.getKey());
+                out.writeInt(count);
+                for (int i = 1; i <= count; i++) {
+                    out.writeLong(runs[i]);
+                }
+            }
+            out.writeLong(footer);
+            out.write(END_MAGIC);
+        } catch (IOException e) {
+            System.err.println("✗ Failed to close " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Number of a string, writing its record the first time it is seen
+     */
+    private int intern(String text) throws IOException {
+        Integer id = stringIds.get(text);
+        if (id != null) {
+            return id;
+        }
+        id = stringIds.size();
+        stringIds.put(text, id);
+        if (id == stringOffsets.length) {
+            stringOffsets = Arrays.copyOf(stringOffsets, id * 2);
+        }
+        stringOffsets[id] = position;
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write(STRING);
+        writeVarint(bytes.length);
+        out.write(bytes);
+        position += 1 + bytes.length;
+        return id;
+    }
+
+    private void flushRun() throws IOException {
+        if (runSize == 0) {
+            return;
+        }
+        long[] runs = hostRuns.computeIfAbsent(runHost, h -> new long[4]);
+        int count = (int) runs[0];
+        if (count + 1 == runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+            hostRuns.put(runHost, runs);
+        }
+        runs[count + 1] = position;
+        runs[0] = count + 1;
+
+        out.write(runKind == 0 ? RUN : KIND_RUN);
+        position++;
+        writeVarint(runHost);
+        if (runKind != 0) {
+            writeVarint(runKind);
+        }
+        writeVarint(runSize);
+        int strings = (runKind & 4) != 0 ? 2 + TLS_STRINGS : 2;
+        int previous = 0;
+        for (int i = 0; i < runSize; i++) {
+            int entry = ENTRY_INTS * i;
+            int port = runEntries[entry];
+            int delta = port - previous;
+            writeVarint((delta << 1) ^ (delta >> 31));
+            for (int j = 1; j <= strings; j++) {
+                writeVarint(runEntries[entry + j]);
+            }
+            previous = port;
+        }
+        runSize = 0;
+    }
+
+    static int kind(PortResult result) {
+        String state = result.getState();
+        boolean shut = result.isClosedOrFiltered();
+        return (result.isTcp() ? 0 : 1)
+             + (PortResult.OPEN.equals(state) || PortResult.CLOSED.equals(state) ? 0 : 2)
+             + (result.getTls() != null ? 4 : 0) + (shut ? 8 : 0);
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            position++;
+        }
+        out.write(value);
+        position++;
+    }
+}
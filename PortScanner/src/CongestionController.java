@@ -0,0 +1,167 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD window on the number of probes in flight, modelled on TCP
+ * congestion control.
+ *
+ * Completions are grouped into epochs of about one window each, the scan
+ * equivalent of a round trip. In slow start every answered probe (accept
+ * or RST) grows the window by one; afterwards each clean epoch adds one.
+ * If the timeout ratio of an epoch spikes above both the loss threshold
+ * and the running baseline, the window is halved instead. The baseline
+ * tracks the usual timeout ratio, so targets with many silently filtered
+ * ports are treated as normal rather than as permanent congestion.
+ * The window never exceeds the engine's concurrency.
+ */
+public class CongestionController {
+
+    private static final double LOSS_THRESHOLD = 0.10;
+    private static final double SPIKE_FACTOR = 1.5;
+    private static final int MIN_EPOCH = 8;
+
+    private final int ceiling;
+    private final boolean verbose;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition windowOpen = lock.newCondition();
+
+    private double window;
+    private double slowStartThreshold;
+    private double baselineRatio;
+    private int inFlight;
+    private int epochAnswered;
+    private int epochTimeouts;
+    private long decreases;
+
+    public CongestionController(int ceiling, boolean verbose) {
+        this.ceiling = Math.max(1, ceiling);
+        this.verbose = verbose;
+        this.window = Math.min(this.ceiling, 16);
+        this.slowStartThreshold = this.ceiling;
+    }
+
+    /**
+     * Wait until the window has room for one more probe
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) window) {
+                windowOpen.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a slot if the window has room, without waiting
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) window) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give back a slot taken with acquire or tryAcquire
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            windowOpen.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The target answered (connection accepted or refused)
+     */
+    public void onResponse() {
+        lock.lock();
+        try {
+            if (window < slowStartThreshold) {
+                window = Math.min(ceiling, window + 1);
+            }
+            epochAnswered++;
+            endEpochIfDue();
+            windowOpen.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The probe got no answer before its timeout
+     */
+    public void onTimeout() {
+        lock.lock();
+        try {
+            epochTimeouts++;
+            endEpochIfDue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWindow() {
+        lock.lock();
+        try {
+            return (int) window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDecreases() {
+        lock.lock();
+        try {
+            return decreases;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void endEpochIfDue() {
+        int completed = epochAnswered + epochTimeouts;
+        if (completed < Math.max(MIN_EPOCH, (int) window)) {
+            return;
+        }
+
+        double ratio = (double) epochTimeouts / completed;
+        if (ratio > LOSS_THRESHOLD && ratio > baselineRatio * SPIKE_FACTOR) {
+            int before = (int) window;
+            slowStartThreshold = Math.max(1, window / 2);
+            window = slowStartThreshold;
+            decreases++;
+            if (verbose) {
+                System.out.printf("%n[AIMD] %.0f%% timeouts in last %d probes (baseline %.0f%%), "
+                                  + "window %d -> %d%n", ratio * 100, completed,
+                                  baselineRatio * 100, before, (int) window);
+            }
+        } else {
+            if (window >= slowStartThreshold) {
+                window = Math.min(ceiling, window + 1);
+            }
+            if (verbose) {
+                System.out.printf("%n[AIMD] %.0f%% timeouts in last %d probes, window %d%n",
+                                  ratio * 100, completed, (int) window);
+            }
+            windowOpen.signalAll();
+        }
+
+        baselineRatio = 0.8 * baselineRatio + 0.2 * ratio;
+        epochAnswered = 0;
+        epochTimeouts = 0;
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Liveness pass run before a sweep, so dead addresses do not cost a
+ * timeout for every port.
+ *
+ * A host is alive as soon as any of a few commonly reachable ports answers
+ * a connect, with a SYN-ACK or a RST alike: either way something is there.
+ * The connects for all targets run on one Selector, one port at a time
+ * across all hosts, so hosts already found alive get no further probes.
+ * With ping, hosts that stayed silent also get InetAddress.isReachable
+ * (ICMP echo when the process may send it, a TCP echo connect otherwise),
+ * which blocks and so runs on a small pool.
+ */
+public class HostDiscovery {
+
+    /**
+     * Ports tried on every host, most often reachable first
+     */
+    static final int[] DISCOVERY_PORTS = {80, 443, 22, 445, 3389};
+
+    private static final int PING_THREADS = 64;
+
+    private final int timeoutMs;
+    private final int maxInFlight;
+    private final boolean ping;
+    private final boolean verbose;
+
+    /**
+     * @param timeoutMs   how long each connect (and isReachable) may take
+     * @param maxInFlight connects in flight at once
+     * @param ping        also try isReachable on hosts no connect got an answer from
+     */
+    public HostDiscovery(int timeoutMs, int maxInFlight, boolean ping, boolean verbose) {
+        this.timeoutMs = timeoutMs;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.ping = ping;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Indices of the targets that are alive
+     */
+    public BitSet discover(TargetSet targets) throws IOException, InterruptedException {
+        BitSet alive = new BitSet();
+        long hosts = targets.size();
+        if (hosts > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many targets for discovery: " + hosts);
+        }
+        connectPass(targets, (int) hosts, alive);
+        if (ping && alive.cardinality() < hosts) {
+            pingPass(targets, (int) hosts, alive);
+        }
+        return alive;
+    }
+
+    private void connectPass(TargetSet targets, int hosts, BitSet alive) throws IOException {
+        // Every connect has the same timeout, so deadlines expire in order
+        ArrayDeque<Attempt> pending = new ArrayDeque<>();
+        long timeoutNanos = timeoutMs * 1_000_000L;
+        int portIndex = 0;
+        int host = 0;
+        int inFlight = 0;
+        int up = 0;
+
+        try (Selector selector = Selector.open()) {
+            while (true) {
+                // Next connects: one port across every host still silent, then the next port
+                while (inFlight < maxInFlight && portIndex < DISCOVERY_PORTS.length
+                        && up < hosts) {
+                    if (host == hosts) {
+                        host = 0;
+                        portIndex++;
+                        continue;
+                    }
+                    int index = host++;
+                    if (alive.get(index)) {
+                        continue;
+                    }
+                    Attempt attempt = start(selector, targets, index, DISCOVERY_PORTS[portIndex],
+                                            timeoutNanos);
+                    if (attempt.channel == null) {
+                        if (attempt.answered && markAlive(targets, attempt, alive)) {
+                            up++;
+                        }
+                        continue;
+                    }
+                    pending.addLast(attempt);
+                    inFlight++;
+                }
+                if (inFlight == 0) {
+                    break;
+                }
+
+                Attempt oldest = pending.peek();
+                selector.select(Math.max(1, (oldest.deadline - System.nanoTime()) / 1_000_000L));
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        attempt.answered = attempt.channel.finishConnect();
+                    } catch (ConnectException e) {
+                        attempt.answered = true; // RST: closed port, live host
+                    } catch (IOException e) {
+                        // Unreachable: no answer from this port
+                    }
+                    attempt.close();
+                    inFlight--;
+                    if (attempt.answered && markAlive(targets, attempt, alive)) {
+                        up++;
+                    }
+                }
+
+                // Drop finished attempts from the front, then expire the silent ones
+                long now = System.nanoTime();
+                while ((oldest = pending.peek()) != null
+                        && (oldest.channel == null || oldest.deadline - now <= 0)) {
+                    pending.poll();
+                    if (oldest.channel != null) {
+                        oldest.close();
+                        inFlight--;
+                    }
+                }
+
+                // Everything alive: connects still out cannot change the outcome
+                if (up == hosts) {
+                    for (Attempt attempt : pending) {
+                        attempt.close();
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a channel and start connecting. The returned attempt has no
+     * channel if the connect finished (or failed) straight away.
+     */
+    private Attempt start(Selector selector, TargetSet targets, int index, int port,
+                          long timeoutNanos) {
+        Attempt attempt = new Attempt(index, port);
+        InetAddress address = targets.getAddress(index);
+        if (address == null) {
+            return attempt; // name did not resolve: nothing to connect to
+        }
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(new InetSocketAddress(address, port))) {
+                attempt.answered = true;
+                channel.close();
+                return attempt;
+            }
+            attempt.key = channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+            attempt.channel = channel;
+            attempt.deadline = System.nanoTime() + timeoutNanos;
+        } catch (IOException e) {
+            // Refused synchronously (loopback) still means someone is there
+            attempt.answered = e instanceof ConnectException;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return attempt;
+    }
+
+    /**
+     * @return false if the host was already known to be alive
+     */
+    private boolean markAlive(TargetSet targets, Attempt attempt, BitSet alive) {
+        if (alive.get(attempt.index)) {
+            return false;
+        }
+        alive.set(attempt.index);
+        if (verbose) {
+            System.out.println("[UP] " + targets.get(attempt.index) + " (port " + attempt.port + ")");
+        }
+        return true;
+    }
+
+    /**
+     * isReachable for every host still silent, PING_THREADS at a time
+     */
+    private void pingPass(TargetSet targets, int hosts, BitSet alive) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(PING_THREADS);
+        BitSet silent = (BitSet) alive.clone();
+        silent.flip(0, hosts);
+        for (int i = silent.nextSetBit(0); i >= 0; i = silent.nextSetBit(i + 1)) {
+            final int index = i;
+            pool.execute(() -> {
+                InetAddress address = targets.getAddress(index);
+                try {
+                    if (address != null && address.isReachable(timeoutMs)) {
+                        synchronized (alive) {
+                            alive.set(index);
+                        }
+                        if (verbose) {
+                            System.out.println("[UP] " + targets.get(index) + " (reachable)");
+                        }
+                    }
+                } catch (IOException e) {
+                    // Counts as down
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.MINUTES);
+    }
+
+    /**
+     * One connect to one port of one host
+     */
+    private static class Attempt {
+        final int index;
+        final int port;
+        SocketChannel channel;
+        SelectionKey key;
+        long deadline;
+        boolean answered;
+
+        Attempt(int index, int port) {
+            this.index = index;
+            this.port = port;
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Resolves target names to addresses before a scan, so no probe ever
+ * waits on a name-service lookup.
+ *
+ * Names are resolved in bulk on a bounded number of threads and kept in
+ * a process-wide cache for TTL_MS, which also serves later scans in the
+ * same JVM (daemon jobs, worker shards). Expired entries are dropped when
+ * met, and the whole cache is swept once it holds MAX_CACHED names, so a
+ * long-running process does not grow it without bound. IPv4 literals are
+ * converted directly and never cached. Failed lookups are not cached.
+ */
+public class HostResolver {
+    static final int DEFAULT_PARALLELISM = 32;
+    private static final long TTL_MS = 300_000;
+    private static final int MAX_CACHED = 100_000;
+    private static final int MAX_REPORTED_FAILURES = 5;
+
+    private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+
+    private HostResolver() {
+    }
+
+    /**
+     * Address of one host, from the cache when possible
+     */
+    public static InetAddress resolve(String host) throws UnknownHostException {
+        long ipv4 = TargetSet.parseIPv4(host);
+        if (ipv4 >= 0) {
+            return fromIPv4(ipv4);
+        }
+        InetAddress cached = lookup(host);
+        if (cached != null) {
+            return cached;
+        }
+        InetAddress address = InetAddress.getByName(host);
+        if (CACHE.size() >= MAX_CACHED) {
+            evict();
+        }
+        CACHE.put(host, new Entry(address, System.nanoTime() + TTL_MS * 1_000_000L));
+        return address;
+    }
+
+    /**
+     * Address of a host without any lookup: IPv4 literals and names still
+     * in the cache, null otherwise
+     */
+    static InetAddress cached(String host) {
+        long ipv4 = TargetSet.parseIPv4(host);
+        if (ipv4 >= 0) {
+            return fromIPv4(ipv4);
+        }
+        return lookup(host);
+    }
+
+    /**
+     * Cached address of a name, dropping the entry if it has expired
+     */
+    private static InetAddress lookup(String name) {
+        Entry entry = CACHE.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires - System.nanoTime() > 0) {
+            return entry.address;
+        }
+        CACHE.remove(name, entry);
+        return null;
+    }
+
+    /**
+     * Make room in a full cache: drop expired entries, and if that is not
+     * enough, whatever the iteration order gives up first
+     */
+    private static void evict() {
+        long now = System.nanoTime();
+        CACHE.values().removeIf(entry -> entry.expires - now <= 0);
+        Iterator<String> names = CACHE.keySet().iterator();
+        while (CACHE.size() >= MAX_CACHED && names.hasNext()) {
+            names.next();
+            names.remove();
+        }
+    }
+
+    /**
+     * Resolve many names at once, at most parallelism lookups at a time.
+     * Names that do not resolve are left out of the returned map.
+     */
+    public static Map<String, InetAddress> resolveAll(List<String> names, int parallelism)
+            throws InterruptedException {
+        Map<String, InetAddress> addresses = new ConcurrentHashMap<>();
+        List<String> pending = new ArrayList<>();
+        for (String name : new LinkedHashSet<>(names)) {
+            InetAddress cached = lookup(name);
+            if (cached != null) {
+                addresses.put(name, cached);
+            } else {
+                pending.add(name);
+            }
+        }
+        if (pending.isEmpty()) {
+            return addresses;
+        }
+
+        int threads = Math.max(1, Math.min(parallelism, pending.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<InetAddress>> lookups = new ArrayList<>(pending.size());
+            for (String name : pending) {
+                lookups.add(pool.submit(() -> resolve(name)));
+            }
+            for (int i = 0; i < lookups.size(); i++) {
+                try {
+                    addresses.put(pending.get(i), lookups.get(i).get());
+                } catch (ExecutionException e) {
+                    // Unresolved: left out
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return addresses;
+    }
+
+    /**
+     * e.g. "3 hosts did not resolve: a, b, c" for an error message
+     */
+    static String describeFailures(List<String> failed) {
+        String shown = String.join(", ", failed.subList(0, Math.min(MAX_REPORTED_FAILURES,
+                                                                     failed.size())));
+        return (failed.size() == 1 ? "Host did not resolve: " + shown
+                                   : failed.size() + " hosts did not resolve: " + shown)
+               + (failed.size() > MAX_REPORTED_FAILURES ? ", ..." : "");
+    }
+
+    static InetAddress fromIPv4(long value) {
+        byte[] bytes = {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // only thrown for a wrong length
+        }
+    }
+
+    private static class Entry {
+        final InetAddress address;
+        final long expires;
+
+        Entry(InetAddress address, long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+}
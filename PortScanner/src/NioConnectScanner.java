@@ -0,0 +1,562 @@
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking connect scanner built on a single Selector.
+ *
+ * Every probe is a SocketChannel in non-blocking mode, so the number of
+ * connects in flight is limited by file descriptors rather than threads.
+ * Pending connects are kept in a deadline-ordered heap, since with adaptive
+ * timeouts each host can have a different timeout.
+ * With banner grabbing enabled, an open channel stays registered for
+ * reading on the same connection. All banner reads share one timeout, so
+ * their deadlines expire in order and a plain FIFO queue is enough.
+ *
+ * Connects are started at most CONNECTS_PER_ROUND at a time between
+ * selector passes, and every ready key is handled before anything is
+ * expired, so a large window cannot starve answers into false timeouts.
+ * Running out of sockets (EMFILE, no free local port) lowers the window
+ * to what is in flight instead of reporting ports as filtered.
+ */
+public class NioConnectScanner {
+
+    static final int CONNECTS_PER_ROUND = 256;
+
+    private final int timeoutMs;
+    private final int bannerTimeoutMs;
+    private final int maxInFlight;
+    private final boolean verbose;
+    private final AdaptiveTimeout adaptiveTimeout;
+    private final CongestionController congestion;
+    private Consumer<PortResult> resultListener;
+    private Consumer<String> statusListener;
+    private ScanMetrics metrics;
+    private ProbeEngine probeEngine;
+
+    // Shared read buffer, only touched from the selector thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BannerGrabber.MAX_BANNER_BYTES);
+
+    /**
+     * @param bannerTimeoutMs how long to wait for a banner on open ports, 0 to skip banners
+     * @param adaptiveTimeout per-host timeouts, or null to use timeoutMs for every probe
+     * @param congestion AIMD window below maxInFlight, or null for a fixed window
+     */
+    public NioConnectScanner(int timeoutMs, int bannerTimeoutMs, int maxInFlight,
+                             boolean verbose, AdaptiveTimeout adaptiveTimeout,
+                             CongestionController congestion) {
+        this.timeoutMs = timeoutMs;
+        this.bannerTimeoutMs = bannerTimeoutMs;
+        this.maxInFlight = maxInFlight;
+        this.verbose = verbose;
+        this.adaptiveTimeout = adaptiveTimeout;
+        this.congestion = congestion;
+    }
+
+    /**
+     * Called for every open port as soon as it is known, on the selector thread
+     * or, for ports that needed protocol probes, on the probe engine thread
+     */
+    public void setResultListener(Consumer<PortResult> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    public void setStatusListener(Consumer<String> statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    public void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Engine that sends protocol probes to open ports without a banner, or null
+     */
+    public void setProbeEngine(ProbeEngine probeEngine) {
+        this.probeEngine = probeEngine;
+    }
+
+    /**
+     * Probe every work item from the scheduler and return the open ports.
+     */
+    public List<PortResult> scan(ScanScheduler scheduler, AtomicLong scanned)
+            throws IOException, InterruptedException {
+
+        // Probed ports are added from the probe engine's thread
+        List<PortResult> openPorts = Collections.synchronizedList(new ArrayList<>());
+        PriorityQueue<Probe> connecting = new PriorityQueue<>(
+            (a, b) -> Long.compare(a.deadline - b.deadline, 0));
+        ArrayDeque<Probe> reading = new ArrayDeque<>();
+        long bannerNanos = bannerTimeoutMs * 1_000_000L;
+        int inFlight = 0;
+        int window = maxInFlight;
+        ScanScheduler.WorkItem retry = null; // item a local socket error held back
+
+        try (Selector selector = Selector.open()) {
+            while (retry != null || scheduler.hasMore() || inFlight > 0) {
+
+                // Top up the window of outstanding connects, a bounded number
+                // per round. poll() returns null while every active host is
+                // at its own limit; with nothing in flight only protocol
+                // probes can be holding them, so wait for those instead of
+                // spinning.
+                int started = 0;
+                while (inFlight < window && started < CONNECTS_PER_ROUND && windowOpen()) {
+                    ScanScheduler.WorkItem item = retry != null ? retry
+                                                : inFlight == 0 ? scheduler.next()
+                                                : scheduler.poll();
+                    retry = null;
+                    if (item == null) {
+                        connectDone(null);
+                        break;
+                    }
+                    Probe probe;
+                    try {
+                        probe = startConnect(selector, item, inFlight > 0);
+                    } catch (IOException e) {
+                        // Out of sockets: hold the item, shrink the window to
+                        // what is in flight and retry once some of it is freed
+                        connectDone(null);
+                        retry = item;
+                        if (inFlight == 0) {
+                            throw new IOException("Cannot open a socket with nothing in flight: "
+                                                  + e.getMessage(), e);
+                        }
+                        if (window == maxInFlight && statusListener != null) {
+                            statusListener.accept("✗ " + e.getMessage() + ": in-flight window lowered to "
+                                                  + inFlight + " (raise ulimit -n or lower --max-inflight)");
+                        }
+                        window = Math.min(window, inFlight);
+                        break;
+                    }
+                    started++;
+                    if (probe.channel == null) {
+                        // Refused or failed synchronously (e.g. loopback RST)
+                        connectDone(true);
+                        report(probe, false, openPorts, scanned, scheduler);
+                        continue;
+                    }
+                    if (probe.connected) {
+                        connectDone(true);
+                    }
+                    if (probe.connected && !startBanner(probe, selector, bannerNanos)) {
+                        report(probe, true, openPorts, scanned, scheduler);
+                        continue;
+                    }
+                    if (probe.connected) {
+                        reading.addLast(probe);
+                    } else {
+                        connecting.add(probe);
+                    }
+                    inFlight++;
+                }
+
+                if (inFlight == 0) {
+                    continue;
+                }
+                // With connects still to start, only take what is ready now
+                boolean more = retry == null && started == CONNECTS_PER_ROUND;
+                if (more) {
+                    selector.selectNow();
+                } else {
+                    selector.select(Math.min(waitFor(connecting, false), waitFor(reading, true)));
+                }
+
+                // Every ready key, including ones that became ready meanwhile,
+                // is handled before anything can be expired as a timeout
+                inFlight -= handleReady(selector, reading, bannerNanos, openPorts, scanned, scheduler);
+                while (selector.selectNow() > 0) {
+                    inFlight -= handleReady(selector, reading, bannerNanos, openPorts, scanned,
+                                            scheduler);
+                }
+
+                // Expired connects and banner reads, both queues are ordered
+                // by deadline so stop at the first live one
+                long now = System.nanoTime();
+                inFlight -= expire(connecting, now, false, openPorts, scanned, scheduler);
+                inFlight -= expire(reading, now, true, openPorts, scanned, scheduler);
+            }
+        }
+
+        if (probeEngine != null) {
+            probeEngine.awaitIdle();
+        }
+        return openPorts;
+    }
+
+    /**
+     * Finish the probes whose keys are selected.
+     * @return how many probes are done and no longer in flight
+     */
+    private int handleReady(Selector selector, ArrayDeque<Probe> reading, long bannerNanos,
+                            List<PortResult> openPorts, AtomicLong scanned,
+                            ScanScheduler scheduler) {
+        int finished = 0;
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Probe probe = (Probe) key.attachment();
+
+            if (!probe.connected) {
+                // Completed connect
+                boolean open;
+                try {
+                    open = probe.channel.finishConnect();
+                    if (open && selfConnected(probe.channel)) {
+                        open = false;
+                        probe.refused = true;
+                    }
+                    recordRtt(probe);
+                    connectOutcome(probe, open ? ScanMetrics.OPEN
+                                        : probe.refused ? ScanMetrics.REFUSED : ScanMetrics.ERROR);
+                } catch (ConnectException e) {
+                    // RST: closed, but still a round-trip sample
+                    open = false;
+                    probe.refused = true;
+                    recordRtt(probe);
+                    connectOutcome(probe, ScanMetrics.REFUSED);
+                } catch (IOException e) {
+                    open = false;
+                    connectOutcome(probe, ScanMetrics.ERROR);
+                }
+                connectDone(true);
+                if (open && startBanner(probe, selector, bannerNanos)) {
+                    reading.addLast(probe);
+                    continue;
+                }
+                probe.done = true;
+                probe.close();
+                finished++;
+                report(probe, open, openPorts, scanned, scheduler);
+            } else if (readBanner(probe)) {
+                // Banner complete or peer closed
+                probe.done = true;
+                probe.close();
+                finished++;
+                report(probe, true, openPorts, scanned, scheduler);
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * A connect to a local port that was free can land on the socket
+     * itself (TCP simultaneous open): the kernel picked the target port as
+     * our source port. That is the scanner talking to itself, not an open port.
+     */
+    private static boolean selfConnected(SocketChannel channel) {
+        try {
+            return channel.getLocalAddress().equals(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open a channel and start connecting. The returned probe has no
+     * channel if the attempt failed straight away. The connect deadline
+     * starts once the connect has been issued.
+     *
+     * @param othersInFlight whether other connects hold sockets that will be freed
+     * @throws IOException when no socket could be had locally: out of file
+     *                     descriptors, or (with others in flight) of local ports
+     */
+    private Probe startConnect(Selector selector, ScanScheduler.WorkItem item,
+                               boolean othersInFlight) throws IOException {
+        int timeout = adaptiveTimeout != null ? adaptiveTimeout.timeoutFor(item.host) : timeoutMs;
+        long started = System.nanoTime();
+        SocketChannel channel = SocketChannel.open();
+        if (metrics != null) {
+            metrics.probeStarted();
+        }
+        try {
+            channel.configureBlocking(false);
+            // Avoid lingering TIME_WAIT sockets piling up on wide sweeps
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            boolean connected = channel.connect(
+                item.address != null ? new InetSocketAddress(item.address, item.port)
+                                     : new InetSocketAddress(item.host, item.port));
+            Probe probe = new Probe(item, channel, started, System.nanoTime() + timeout * 1_000_000L);
+            if (connected && selfConnected(channel)) {
+                probe.close();
+                Probe refused = new Probe(item, null, started, 0);
+                refused.refused = true;
+                connectOutcome(refused, ScanMetrics.REFUSED);
+                return refused;
+            }
+            if (connected) {
+                probe.connected = true;
+                connectOutcome(probe, ScanMetrics.OPEN);
+                return probe;
+            }
+            probe.key = channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            return probe;
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            if (e instanceof BindException && othersInFlight) {
+                // No local port left; the probe is retried, so it was never started
+                if (metrics != null) {
+                    metrics.probeFinished();
+                }
+                throw e;
+            }
+            if (metrics != null) {
+                metrics.connectFinished(e instanceof ConnectException ? ScanMetrics.REFUSED
+                                                                      : ScanMetrics.ERROR,
+                                        System.nanoTime() - started);
+            }
+            Probe failed = new Probe(item, null, started, 0);
+            failed.refused = e instanceof ConnectException;
+            return failed;
+        }
+    }
+
+    /**
+     * Switch a connected probe over to reading its banner.
+     * @return false when banners are disabled or the channel cannot be read
+     */
+    private boolean startBanner(Probe probe, Selector selector, long bannerNanos) {
+        probe.connected = true;
+        if (bannerNanos <= 0) {
+            probe.close();
+            return false;
+        }
+        try {
+            if (probe.key != null) {
+                probe.key.interestOps(SelectionKey.OP_READ);
+            } else {
+                probe.key = probe.channel.register(selector, SelectionKey.OP_READ, probe);
+            }
+        } catch (IOException | RuntimeException e) {
+            probe.close();
+            return false;
+        }
+        probe.readDeadline = System.nanoTime() + bannerNanos;
+        probe.banner = new byte[BannerGrabber.MAX_BANNER_BYTES];
+        return true;
+    }
+
+    /**
+     * Drain what is available into the probe's banner.
+     * @return true once the banner is complete
+     */
+    private boolean readBanner(Probe probe) {
+        try {
+            readBuffer.clear();
+            readBuffer.limit(probe.banner.length - probe.bannerLength);
+            int read = probe.channel.read(readBuffer);
+            if (read < 0) {
+                return true;
+            }
+            readBuffer.flip();
+            readBuffer.get(probe.banner, probe.bannerLength, read);
+            probe.bannerLength += read;
+            return probe.bannerLength == probe.banner.length
+                || BannerGrabber.isComplete(probe.banner, probe.bannerLength);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Close probes past their deadline. A timed-out connect counts as filtered,
+     * a timed-out banner read is still an open port.
+     */
+    private int expire(Queue<Probe> queue, long now, boolean reading,
+                       List<PortResult> openPorts, AtomicLong scanned,
+                       ScanScheduler scheduler) {
+        int expired = 0;
+        while (!queue.isEmpty()) {
+            Probe head = queue.peek();
+            // Entries that finished, or moved on to the banner queue, are dropped lazily
+            if (head.done || (!reading && head.connected)) {
+                queue.poll();
+                continue;
+            }
+            if (head.deadline(reading) - now > 0) {
+                break;
+            }
+            queue.poll();
+            head.done = true;
+            if (reading && head.bannerLength == 0 && probeEngine != null) {
+                // Silent port: its connection goes to the probe engine (see report)
+                head.detach();
+            } else {
+                head.close();
+            }
+            expired++;
+            if (!reading) {
+                connectDone(false);
+                connectOutcome(head, ScanMetrics.TIMEOUT);
+            }
+            report(head, reading, openPorts, scanned, scheduler);
+        }
+        return expired;
+    }
+
+    private static long waitFor(Queue<Probe> queue, boolean reading) {
+        Probe oldest = queue.peek();
+        if (oldest == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, (oldest.deadline(reading) - System.nanoTime()) / 1_000_000L);
+    }
+
+    /**
+     * Take a congestion window slot for the next connect, if AIMD is on.
+     * The slot is given back once the connect completes or times out.
+     */
+    private boolean windowOpen() {
+        return congestion == null || congestion.tryAcquire();
+    }
+
+    /**
+     * End of a connect attempt: feed the outcome to AIMD and free its slot.
+     * @param answered true for accept/RST, false for timeout, null if unused
+     */
+    private void connectDone(Boolean answered) {
+        if (congestion == null) {
+            return;
+        }
+        if (answered != null) {
+            if (answered) {
+                congestion.onResponse();
+            } else {
+                congestion.onTimeout();
+            }
+        }
+        congestion.release();
+    }
+
+    private void connectOutcome(Probe probe, int outcome) {
+        if (metrics != null) {
+            metrics.connectFinished(outcome, System.nanoTime() - probe.started);
+        }
+    }
+
+    private void recordRtt(Probe probe) {
+        if (adaptiveTimeout != null) {
+            adaptiveTimeout.record(probe.item.host, System.nanoTime() - probe.started);
+        }
+    }
+
+    private void report(Probe probe, boolean open, List<PortResult> openPorts,
+                        AtomicLong scanned, ScanScheduler scheduler) {
+        String host = probe.item.host;
+        int port = probe.item.port;
+        // Refused is closed; a timeout or an unreachable error is filtered
+        String state = open ? PortResult.OPEN
+                     : probe.refused ? PortResult.CLOSED : PortResult.FILTERED;
+        if (verbose) {
+            System.out.println("[" + state.toUpperCase() + "] " + host + ":" + port);
+        }
+        if (metrics != null) {
+            if (probe.banner != null) {
+                long readStarted = probe.readDeadline - bannerTimeoutMs * 1_000_000L;
+                metrics.bannerRead(System.nanoTime() - readStarted);
+            }
+            metrics.probeFinished();
+        }
+        if (!open) {
+            scheduler.complete(probe.item, state);
+            scanned.incrementAndGet();
+            return;
+        }
+
+        String banner = probe.banner == null ? ""
+                      : BannerGrabber.formatBanner(probe.banner, probe.bannerLength);
+        PortResult result = new PortResult(host, port, banner, ServiceMapper.getServiceName(port));
+        if (probeEngine != null && banner.isEmpty()) {
+            // Silent port: finished by the probe engine on its own thread, with
+            // the first probe on this connection if it is still open
+            SocketChannel connection = probe.channel != null && probe.channel.isOpen()
+                                     ? probe.channel : null;
+            probeEngine.probe(result, probe.item.address, connection).thenAccept(
+                probed -> finishOpen(probed, probe.item, openPorts, scanned, scheduler));
+        } else {
+            finishOpen(result, probe.item, openPorts, scanned, scheduler);
+        }
+    }
+
+    private void finishOpen(PortResult result, ScanScheduler.WorkItem item,
+                            List<PortResult> openPorts, AtomicLong scanned,
+                            ScanScheduler scheduler) {
+        try {
+            openPorts.add(result);
+            if (resultListener != null) {
+                resultListener.accept(result);
+            }
+        } finally {
+            scheduler.complete(item, PortResult.OPEN);
+            scanned.incrementAndGet();
+        }
+    }
+
+    /**
+     * One outstanding connect attempt, followed by an optional banner read
+     */
+    private static class Probe {
+        final ScanScheduler.WorkItem item;
+        final SocketChannel channel;
+        final long started;
+        // Connect deadline is the heap key and must not change once queued
+        final long deadline;
+        long readDeadline;
+        SelectionKey key;
+        boolean connected;
+        boolean refused;
+        boolean done;
+        byte[] banner;
+        int bannerLength;
+
+        Probe(ScanScheduler.WorkItem item, SocketChannel channel, long started, long deadline) {
+            this.item = item;
+            this.channel = channel;
+            this.started = started;
+            this.deadline = deadline;
+        }
+
+        long deadline(boolean reading) {
+            return reading ? readDeadline : deadline;
+        }
+
+        /**
+         * Leave the selector but keep the connection open
+         */
+        void detach() {
+            if (key != null) {
+                key.cancel();
+                key = null;
+            }
+        }
+
+        void close() {
+            detach();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -2,43 +2,145 @@
  * Data class to store port scan results with optional banner information
  */
 public class PortResult implements Comparable<PortResult> {
+    public static final String TCP = "tcp";
+    public static final String UDP = "udp";
+
+    /** Answered the probe */
+    public static final String OPEN = "open";
+    /** UDP port that never answered: open, or its replies are dropped */
+    public static final String OPEN_FILTERED = "open|filtered";
+    /** TCP port that refused the connection */
+    public static final String CLOSED = "closed";
+    /** TCP port that never answered: a firewall drops the probes */
+    public static final String FILTERED = "filtered";
+
+    private final String host;
     private final int port;
     private final String banner;
     private final String serviceName;
-    
+    private final String protocol;
+    private final String state;
+    private final TlsInfo tls;
+
     public PortResult(int port, String banner, String serviceName) {
+        this(null, port, banner, serviceName);
+    }
+
+    public PortResult(String host, int port, String banner, String serviceName) {
+        this(host, port, banner, serviceName, TCP, OPEN);
+    }
+
+    public PortResult(String host, int port, String banner, String serviceName,
+                      String protocol, String state) {
+        this(host, port, banner, serviceName, protocol, state, null);
+    }
+
+    public PortResult(String host, int port, String banner, String serviceName,
+                      String protocol, String state, TlsInfo tls) {
+        this.host = host;
         this.port = port;
         this.banner = banner;
         this.serviceName = serviceName;
+        this.protocol = protocol;
+        this.state = state;
+        this.tls = tls;
     }
-    
+
+    public String getHost() {
+        return host;
+    }
+
     public int getPort() {
         return port;
     }
-    
+
     public String getBanner() {
         return banner;
     }
-    
+
     public String getServiceName() {
         return serviceName;
     }
-    
+
+    /**
+     * "tcp" or "udp"
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * What a TLS handshake revealed, null if there was none (see --tls)
+     */
+    public TlsInfo getTls() {
+        return tls;
+    }
+
+    public boolean isTcp() {
+        return TCP.equals(protocol);
+    }
+
+    public boolean isOpen() {
+        return OPEN.equals(state);
+    }
+
+    /**
+     * A port that answered with a refusal or not at all; only listed by
+     * --all-ports exports
+     */
+    public boolean isClosedOrFiltered() {
+        return CLOSED.equals(state) || FILTERED.equals(state);
+    }
+
+    /**
+     * Orders by host (IPv4 addresses numerically, before names), then by
+     * port, TCP first
+     */
     @Override
     public int compareTo(PortResult other) {
-        return Integer.compare(this.port, other.port);
+        int byHost = compareHosts(this.host, other.host);
+        if (byHost != 0) {
+            return byHost;
+        }
+        int byPort = Integer.compare(this.port, other.port);
+        return byPort != 0 ? byPort : this.protocol.compareTo(other.protocol);
+    }
+
+    static int compareHosts(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        long ipA = TargetSet.parseIPv4(a);
+        long ipB = TargetSet.parseIPv4(b);
+        if ((ipA >= 0) != (ipB >= 0)) {
+            return ipA >= 0 ? -1 : 1; // all addresses sort before all names
+        }
+        return ipA >= 0 ? Long.compare(ipA, ipB) : a.compareTo(b);
     }
-    
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Port ").append(port);
+        if (!isTcp()) {
+            sb.append('/').append(protocol);
+        }
         if (serviceName != null && !serviceName.isEmpty()) {
             sb.append(" (").append(serviceName).append(")");
         }
+        if (!OPEN.equals(state)) {
+            sb.append(" [").append(state).append(']');
+        }
         if (banner != null && !banner.isEmpty()) {
             sb.append(" - Banner: ").append(banner);
         }
+        if (tls != null) {
+            sb.append(" - TLS: ").append(tls);
+        }
         return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -1,58 +1,94 @@
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Command line client of ScanEngine: turns the arguments into a
+ * ScanRequest, runs it and prints the report
+ */
 public class PortScanner {
     
-    // Default configuration
-    private static final int DEFAULT_TIMEOUT_MS = 200;
-    private static final int DEFAULT_THREADS = 100;
+    // Limits of the command line options
     private static final int MAX_THREADS = 500;
     private static final int MIN_TIMEOUT = 50;
     private static final int MAX_TIMEOUT = 5000;
+    private static final int MAX_INFLIGHT = 60000;
+    private static final int MAX_RETRIES = 10;
+    private static final int DEFAULT_TOP_PORTS = 100;
+    private static final int DEFAULT_SHARDS = 16;
     
-    // Feature flags
-    private static boolean enableBannerGrab = false;
-    private static boolean showProgress = true;
-    private static boolean verbose = false;
-    private static String exportFormat = null; // txt, csv, json
+    // Options that only concern the process running them; not passed on to workers
+    private static final Set<String> LOCAL_OPTIONS = Set.of(
+        "-o", "--output", "--stream", "--checkpoint", "--resume", "--baseline", "--stats",
+        "--metrics-port", "--coordinator", "--shards", "--shard", "--seed", "--randomize",
+        "-q", "--quiet", "--gzip");
+    
+    // Options of the command line run itself, not of the scan
+    private boolean verbose = false;
+    private int metricsPort = -1;
+    private InetSocketAddress coordinatorAddress = null; // set with --coordinator
+    private int distributedShards = DEFAULT_SHARDS;
+    private List<String> workerArgs = null; // the command line minus local-only options
     
     
      //Main entry point 
     
     public static void main(String[] args) {
+        if (args.length >= 1 && args[0].equals("--daemon")) {
+            ScanDaemon.main(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--worker")) {
+            ScanWorker.main(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--query")) {
+            BinaryResultReader.main(args);
+            return;
+        }
+        new PortScanner().run(args);
+    }
+    
+    private void run(String[] args) {
+        ScanMetrics metrics = null;
         try {
-            ScanConfig config = parseArguments(args);
+            ScanRequest request = parseArguments(args);
             
-            if (config == null) {
+            if (request == null) {
                 showUsage();
                 return;
             }
+            request.validate();
+            request.statusListener(System.out::println);
+            metrics = request.getMetrics();
             
             // Display scan configuration
-            displayBanner(config);
-            
-            // Validate target host
-            validateHost(config.host);
+            displayBanner(request);
+            if (metricsPort >= 0) {
+                metrics.serve(metricsPort);
+            }
             
-            // Execute port scan
-            List<PortResult> results = executeScan(config);
+            // Execute port scan (against the baseline first, if given, or on workers)
+            ScanReport report = coordinatorAddress != null ? executeDistributedScan(request)
+                                                           : new ScanEngine().scan(request, null);
             
-            // Display results
-            displayResults(results, config);
+            // Display results, or only what changed since the baseline
+            if (report.getDiff() != null) {
+                displayDiff(report);
+            } else {
+                displayResults(report);
+            }
             
             // Export if requested
-            if (exportFormat != null) {
-                exportResults(results, config);
+            report.export();
+            
+            if (metrics != null) {
+                metrics.print();
             }
             
         } catch (Exception e) {
@@ -60,9 +96,18 @@ public class PortScanner {
             if (verbose) {
                 e.printStackTrace();
             }
+        } finally {
+            if (metrics != null) {
+                metrics.stop();
+            }
         }
     }
-    private static ScanConfig parseArguments(String[] args) {
+    
+    /**
+     * Turn a command line into a request, or null (after printing why, for
+     * bad values) if it does not describe a scan
+     */
+    ScanRequest parseArguments(String[] args) throws IOException {
         if (args.length < 1) {
             return null;
         }
@@ -72,29 +117,76 @@ public class PortScanner {
             return null;
         }
         
+        String targetSpec;
+        int startPort = 1;
+        int endPort = 65535;
+        int topCount = 0;
+        int firstOption;
+        
         if (args[0].equals("--top-ports")) {
+            // Most frequently open ports: --top-ports targets [N] [options]
             if (args.length < 2) {
                 System.err.println("Error: --top-ports requires a host");
                 return null;
             }
-            return new ScanConfig(args[1], ServiceMapper.getTopPorts(), 
-                                DEFAULT_TIMEOUT_MS, DEFAULT_THREADS);
+            targetSpec = args[1];
+            topCount = DEFAULT_TOP_PORTS;
+            firstOption = 2;
+            if (args.length > 2 && args[2].matches("\\d+")) {
+                topCount = Math.max(1, Math.min(65535, Integer.parseInt(args[2])));
+                firstOption = 3;
+            }
+        } else {
+            // Standard scan: host startPort endPort [options]
+            if (args.length < 3) {
+                return null;
+            }
+            targetSpec = args[0];
+            startPort = parsePort(args[1], 1);
+            endPort = parsePort(args[2], 65535);
+            firstOption = 3;
         }
         
-        // Standard scan: host startPort endPort [options]
-        if (args.length < 3) {
-            return null;
-        }
+        int timeout = ScanRequest.DEFAULT_TIMEOUT_MS;
+        int threads = ScanRequest.DEFAULT_THREADS;
+        String scanEngine = "thread";
+        int maxInFlight = ScanRequest.defaultMaxInFlight();
+        boolean adaptive = false;
+        int timeoutFloor = MIN_TIMEOUT;
+        int timeoutCeiling = ScanRequest.DEFAULT_TIMEOUT_CEILING_MS;
+        boolean enableAimd = false;
+        boolean udp = false;
+        int retries = UdpScanner.DEFAULT_RETRIES;
+        boolean enableBannerGrab = false;
+        boolean enableProbes = true;
+        boolean enableTls = false;
+        int bannerTimeout = ScanRequest.DEFAULT_BANNER_TIMEOUT_MS;
+        int hostGroup = ScanRequest.DEFAULT_HOST_GROUP;
+        boolean discover = false;
+        boolean ping = false;
+        boolean earlyStop = false;
+        boolean allPorts = false;
+        int resolverThreads = HostResolver.DEFAULT_PARALLELISM;
+        boolean showProgress = true;
+        boolean streamResults = false;
+        List<String> exportFormats = new ArrayList<>();
+        boolean gzip = false;
+        String checkpointDir = null;
+        boolean resumeScan = false;
+        String baselineFile = null;
+        double sampleRate = 1.0;
+        boolean showStats = false;
+        boolean randomOrder = false;
+        Long seed = null;
+        int shard = 0;
+        int shards = 1;
         
-        String host = args[0];
-        int startPort = parsePort(args[1], 1);
-        int endPort = parsePort(args[2], 65535);
-        int timeout = DEFAULT_TIMEOUT_MS;
-        int threads = DEFAULT_THREADS;
+        List<String> forwarded = new ArrayList<>(Arrays.asList(args).subList(0, firstOption));
         
         // Parse optional arguments
-        for (int i = 3; i < args.length; i++) {
+        for (int i = firstOption; i < args.length; i++) {
             String arg = args[i];
+            int optionStart = i;
             
             switch (arg) {
                 case "-t":
@@ -113,11 +205,183 @@ public class PortScanner {
                     }
                     break;
                     
+                case "-e":
+                case "--engine":
+                    if (i + 1 < args.length) {
+                        String engine = args[++i].toLowerCase();
+                        if (engine.equals("thread") || engine.equals("virtual") 
+                                || engine.equals("nio")) {
+                            scanEngine = engine;
+                        }
+                    }
+                    break;
+                    
+                case "--max-inflight":
+                    if (i + 1 < args.length) {
+                        maxInFlight = Math.max(1, 
+                                      Math.min(MAX_INFLIGHT, Integer.parseInt(args[++i])));
+                    }
+                    break;
+                    
+                case "-sU":
+                case "--udp":
+                    udp = true;
+                    break;
+                    
+                case "--retries":
+                    if (i + 1 < args.length) {
+                        retries = Math.max(0, Math.min(MAX_RETRIES, Integer.parseInt(args[++i])));
+                    }
+                    break;
+                    
+                case "--adaptive":
+                    adaptive = true;
+                    break;
+                    
+                case "--timeout-floor":
+                    if (i + 1 < args.length) {
+                        timeoutFloor = Math.max(1, 
+                                       Math.min(MAX_TIMEOUT, Integer.parseInt(args[++i])));
+                    }
+                    break;
+                    
+                case "--timeout-ceiling":
+                    if (i + 1 < args.length) {
+                        timeoutCeiling = Math.max(1, 
+                                         Math.min(MAX_TIMEOUT, Integer.parseInt(args[++i])));
+                    }
+                    break;
+                    
+                case "--aimd":
+                    enableAimd = true;
+                    break;
+                    
+                case "--stream":
+                    streamResults = true;
+                    break;
+                    
+                case "--checkpoint":
+                case "--resume":
+                    if (i + 1 < args.length) {
+                        resumeScan = arg.equals("--resume");
+                        checkpointDir = args[++i];
+                    }
+                    break;
+                    
+                case "--baseline":
+                    if (i + 1 < args.length) {
+                        baselineFile = args[++i];
+                    }
+                    break;
+                    
+                case "--sample":
+                    if (i + 1 < args.length) {
+                        sampleRate = Math.max(0.0, Math.min(1.0, Double.parseDouble(args[++i])));
+                    }
+                    break;
+                    
+                case "--randomize":
+                    randomOrder = true;
+                    break;
+                    
+                case "--seed":
+                    if (i + 1 < args.length) {
+                        seed = Long.parseLong(args[++i]);
+                        randomOrder = true;
+                    }
+                    break;
+                    
+                case "--shard":
+                    if (i + 1 < args.length) {
+                        String[] parts = args[++i].split("/");
+                        shards = parts.length == 2 ? Integer.parseInt(parts[1]) : 0;
+                        shard = parts.length == 2 ? Integer.parseInt(parts[0]) - 1 : -1;
+                        if (shards < 1 || shard < 0 || shard >= shards) {
+                            System.err.println("Error: --shard expects i/n with 1 <= i <= n");
+                            return null;
+                        }
+                        randomOrder = true;
+                    }
+                    break;
+                    
+                case "--resolvers":
+                    if (i + 1 < args.length) {
+                        resolverThreads = Math.max(1, Integer.parseInt(args[++i]));
+                    }
+                    break;
+                    
+                case "--host-group":
+                    if (i + 1 < args.length) {
+                        hostGroup = Math.max(1, Integer.parseInt(args[++i]));
+                    }
+                    break;
+                    
+                case "--discover":
+                    discover = true;
+                    break;
+                    
+                case "--ping":
+                    discover = true;
+                    ping = true;
+                    break;
+                    
+                case "--early-stop":
+                    earlyStop = true;
+                    break;
+                    
+                case "--all-ports":
+                    allPorts = true;
+                    break;
+                    
+                case "--stats":
+                    showStats = true;
+                    break;
+                    
+                case "--coordinator":
+                    if (i + 1 < args.length) {
+                        String address = args[++i];
+                        int colon = address.lastIndexOf(':');
+                        coordinatorAddress = colon < 0 
+                            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), 
+                                                    Integer.parseInt(address))
+                            : new InetSocketAddress(address.substring(0, colon), 
+                                                    Integer.parseInt(address.substring(colon + 1)));
+                        randomOrder = true;
+                    }
+                    break;
+                    
+                case "--shards":
+                    if (i + 1 < args.length) {
+                        distributedShards = Math.max(1, Integer.parseInt(args[++i]));
+                    }
+                    break;
+                    
+                case "--metrics-port":
+                    if (i + 1 < args.length) {
+                        metricsPort = Math.max(0, Math.min(65535, Integer.parseInt(args[++i])));
+                    }
+                    break;
+                    
                 case "-b":
                 case "--banner":
                     enableBannerGrab = true;
                     break;
                     
+                case "--no-probes":
+                    enableProbes = false;
+                    break;
+                    
+                case "--tls":
+                    enableTls = true;
+                    break;
+                    
+                case "--banner-timeout":
+                    if (i + 1 < args.length) {
+                        bannerTimeout = Math.max(MIN_TIMEOUT, 
+                                        Math.min(MAX_TIMEOUT, Integer.parseInt(args[++i])));
+                    }
+                    break;
+                    
                 case "-v":
                 case "--verbose":
                     verbose = true;
@@ -131,15 +395,25 @@ public class PortScanner {
                 case "-o":
                 case "--output":
                     if (i + 1 < args.length) {
-                        String format = args[++i].toLowerCase();
-                        if (format.equals("txt") || format.equals("csv") || format.equals("json")) {
-                            exportFormat = format;
+                        // One or more formats, e.g. -o json,xml; all written in one pass
+                        for (String format : args[++i].toLowerCase().split(",")) {
+                            if (ResultExporter.FORMATS.contains(format)) {
+                                exportFormats.add(format);
+                            }
                         }
                     }
                     break;
+                    
+                case "--gzip":
+                    gzip = true;
+                    break;
+            }
+            if (!LOCAL_OPTIONS.contains(arg)) {
+                forwarded.addAll(Arrays.asList(args).subList(optionStart, i + 1));
             }
         }
         
+        
         // Validate port range
         if (startPort < 1) startPort = 1;
         if (endPort > 65535) endPort = 65535;
@@ -148,144 +422,158 @@ public class PortScanner {
             return null;
         }
         
-        return new ScanConfig(host, startPort, endPort, timeout, threads);
-    }
-    
-    private static List<PortResult> executeScan(ScanConfig config) 
-            throws InterruptedException {
-        
-        Instant startTime = Instant.now();
-        
-        // Create thread pool
-        ExecutorService executor = Executors.newFixedThreadPool(config.threads);
-        List<Future<PortResult>> futures = new ArrayList<>();
-        
-        // Progress tracking
-        AtomicInteger scanned = new AtomicInteger(0);
-        int totalPorts = config.getPortCount();
-        
-        // Start progress monitor if enabled
-        ScheduledExecutorService progressMonitor = null;
-        if (showProgress) {
-            progressMonitor = Executors.newScheduledThreadPool(1);
-            progressMonitor.scheduleAtFixedRate(() -> {
-                int done = scanned.get();
-                double percentage = (done * 100.0) / totalPorts;
-                System.out.printf("\r[Progress] %d/%d ports (%.1f%%)  ", 
-                                done, totalPorts, percentage);
-            }, 0, 500, TimeUnit.MILLISECONDS);
+        if (coordinatorAddress != null) {
+            if (baselineFile != null || checkpointDir != null || shards > 1) {
+                System.err.println("Error: --coordinator cannot be combined with --baseline, --checkpoint, --resume or --shard");
+                return null;
+            }
+            workerArgs = forwarded;
         }
         
-        // Submit scanning tasks
-        if (config.isRangeScan()) {
-            for (int port = config.startPort; port <= config.endPort; port++) {
-                final int p = port;
-                futures.add(executor.submit(() -> {
-                    PortResult result = scanPort(config.host, p, config.timeout);
-                    scanned.incrementAndGet();
-                    return result;
-                }));
-            }
+        ScanRequest request = new ScanRequest(TargetSet.parse(targetSpec));
+        if (topCount > 0) {
+            // Ranked by how often each port is open for the protocol scanned
+            request.ports(ServiceMapper.getTopPorts(topCount, udp ? PortResult.UDP : PortResult.TCP));
         } else {
-            for (int port : config.specificPorts) {
-                final int p = port;
-                futures.add(executor.submit(() -> {
-                    PortResult result = scanPort(config.host, p, config.timeout);
-                    scanned.incrementAndGet();
-                    return result;
-                }));
-            }
+            request.ports(startPort, endPort);
         }
-        
-        // Shutdown executor and wait
-        executor.shutdown();
-        executor.awaitTermination(30, TimeUnit.MINUTES);
-        
-        // Stop progress monitor
-        if (progressMonitor != null) {
-            progressMonitor.shutdown();
-            System.out.println(); // New line after progress
+        request.timeout(timeout)
+               .threads(threads)
+               .engine(scanEngine)
+               .udp(udp)
+               .retries(retries)
+               .maxInFlight(maxInFlight)
+               .aimd(enableAimd)
+               .bannerGrab(enableBannerGrab)
+               .probes(enableProbes)
+               .tls(enableTls)
+               .bannerTimeout(bannerTimeout)
+               .hostGroup(hostGroup)
+               .discover(discover)
+               .ping(ping)
+               .earlyStop(earlyStop)
+               .allPorts(allPorts)
+               .resolverThreads(resolverThreads)
+               .verbose(verbose)
+               .showProgress(showProgress)
+               .streamResults(streamResults)
+               .exportFormats(exportFormats)
+               .gzip(gzip)
+               .sampleRate(sampleRate);
+        if (adaptive) {
+            request.adaptiveTimeout(timeoutFloor, timeoutCeiling);
         }
-        
-        // Collect results
-        List<PortResult> openPorts = new ArrayList<>();
-        for (Future<PortResult> future : futures) {
-            try {
-                PortResult result = future.get();
-                if (result != null) {
-                    openPorts.add(result);
-                }
-            } catch (ExecutionException e) {
-                if (verbose) {
-                    System.err.println("Scan error: " + e.getMessage());
-                }
-            }
+        if (checkpointDir != null) {
+            request.checkpoint(checkpointDir, resumeScan);
         }
-        
-        // Sort results by port number
-        Collections.sort(openPorts);
-        
-        // Store duration
-        Instant endTime = Instant.now();
-        config.duration = Duration.between(startTime, endTime).toMillis();
-        
-        return openPorts;
+        if (baselineFile != null) {
+            request.baseline(baselineFile);
+        }
+        if (randomOrder) {
+            request.randomOrder(seed).shard(shard, shards);
+        }
+        if (showStats || metricsPort >= 0) {
+            request.metrics(new ScanMetrics());
+        }
+        return request;
     }
     
-     // Scan a single port
-     //@return PortResult if open, null if closed/filtered
-     
-    private static PortResult scanPort(String host, int port, int timeoutMs) {
-        try (Socket socket = new Socket()) {
-            // Attempt TCP connection
-            socket.connect(new InetSocketAddress(host, port), timeoutMs);
-            
-            if (verbose) {
-                System.out.println("[OPEN] Port " + port);
-            }
-            
-            // Get service name
-            String serviceName = ServiceMapper.getServiceName(port);
-            
-            // Grab banner if enabled
-            String banner = "";
-            if (enableBannerGrab) {
-                banner = BannerGrabber.grabBanner(host, port, timeoutMs);
-            }
-            
-            return new PortResult(port, banner, serviceName);
-            
-        } catch (IOException e) {
-            // Port is closed or filtered
-            if (verbose) {
-                System.out.println("[CLOSED] Port " + port);
+    /**
+     * Hand the scan to --worker processes in shards and collect what they find
+     */
+    private ScanReport executeDistributedScan(ScanRequest request) 
+            throws InterruptedException, IOException {
+        
+        // Workers resolve names themselves; this only warns early about a typo
+        List<String> unresolved = request.getTargets().resolve(request.getResolverThreads());
+        if (!unresolved.isEmpty()) {
+            System.err.println("✗ " + HostResolver.describeFailures(unresolved) + ", skipped");
+        }
+        long start = System.nanoTime();
+        ResultStream stream = ScanEngine.openResultStream(request);
+        ScanCoordinator coordinator = new ScanCoordinator(coordinatorAddress, workerArgs, 
+                                                          request.getSeed(), distributedShards, 
+                                                          request.isShowProgress());
+        List<PortResult> results;
+        try {
+            results = ScanEngine.mergeResults(
+                coordinator.run(stream != null ? stream::publish : null));
+        } finally {
+            if (stream != null) {
+                stream.close();
             }
-            return null;
         }
+        return new ScanReport(request, results, (System.nanoTime() - start) / 1_000_000, 
+                              null, null, null, null);
     }
     
-     // Validate that the target host is reachable
-    
-    private static void validateHost(String host) throws UnknownHostException {
-        InetAddress.getByName(host);
-    }
-    
-    private static void displayBanner(ScanConfig config) {
+    private void displayBanner(ScanRequest request) {
+        TargetSet targets = request.getTargets();
         System.out.println("═══════════════════════════════════════════════");
         System.out.println("        MULTI-THREADED PORT SCANNER");
         System.out.println("═══════════════════════════════════════════════");
         System.out.println();
-        System.out.println("Target: " + config.host);
+        System.out.println("Target: " + targets.getSpec());
+        if (targets.size() > 1) {
+            System.out.println("Hosts: " + targets.size() 
+                               + " (" + Math.min(request.getHostGroup(), targets.size()) 
+                               + " in parallel)");
+        }
+        
+        if (request.isDiscover()) {
+            System.out.println("Discovery: connects to ports " 
+                               + Arrays.toString(HostDiscovery.DISCOVERY_PORTS)
+                               + (request.isPing() ? ", then isReachable" : "") 
+                               + "; only live hosts are scanned");
+        }
         
-        if (config.isRangeScan()) {
-            System.out.println("Ports: " + config.startPort + " - " + config.endPort);
+        if (request.isRangeScan()) {
+            System.out.println("Ports: " + request.getStartPort() + " - " + request.getEndPort());
         } else {
-            System.out.println("Scanning top " + config.specificPorts.length + " common ports");
+            System.out.println("Scanning top " + request.getSpecificPorts().length + " common ports");
         }
         
-        System.out.println("Timeout: " + config.timeout + " ms");
-        System.out.println("Threads: " + config.threads);
-        System.out.println("Banner Grabbing: " + (enableBannerGrab ? "Enabled" : "Disabled"));
+        if (request.isRandomOrder()) {
+            System.out.println("Order: random (seed " + request.getSeed() + ")" 
+                               + (request.getShards() > 1 ? ", shard " + (request.getShard() + 1) 
+                                                            + "/" + request.getShards() : ""));
+        }
+        
+        if (coordinatorAddress != null) {
+            System.out.println("Distributed: " + distributedShards + " shards over worker processes");
+        }
+        
+        if (request.isAdaptive()) {
+            System.out.println("Timeout: adaptive, initial " + request.getTimeout() + " ms, range " 
+                               + request.getTimeoutFloor() + "-" 
+                               + request.getTimeoutCeiling() + " ms");
+        } else {
+            System.out.println("Timeout: " + request.getTimeout() + " ms");
+        }
+        String engine = request.getEngine();
+        if (request.isUdp()) {
+            System.out.println("Protocol: UDP (" + request.getRetries() + " retries)");
+        }
+        if (request.isAimd()) {
+            System.out.println("Congestion Control: AIMD (ceiling " 
+                               + (engine.equals("thread") && !request.isUdp() ? request.getThreads() 
+                                                          : request.getMaxInFlight()) + ")");
+        }
+        if (engine.equals("nio") || request.isUdp()) {
+            System.out.println("Engine: NIO (max in-flight: " + request.getMaxInFlight() + ")");
+        } else if (engine.equals("virtual")) {
+            System.out.println("Engine: virtual threads (max in-flight: " 
+                               + request.getMaxInFlight() + ")");
+        } else {
+            System.out.println("Threads: " + request.getThreads());
+        }
+        System.out.println("Banner Grabbing: " + (request.isBannerGrab() 
+                           ? "Enabled (wait " + request.getBannerTimeout() + " ms)" : "Disabled"));
+        if (request.isTls()) {
+            System.out.println("TLS: handshakes with TLS ports" 
+                               + (request.isBannerGrab() && request.isProbes() 
+                                  ? " and ports no probe identified" : ""));
+        }
         System.out.println();
         System.out.println("Starting scan...");
         System.out.println("───────────────────────────────────────────────");
@@ -294,7 +582,9 @@ public class PortScanner {
     /**
      * Display scan results
      */
-    private static void displayResults(List<PortResult> results, ScanConfig config) {
+    private void displayResults(ScanReport report) {
+        List<PortResult> results = report.getResults();
+        PortStates states = report.getPortStates();
         System.out.println();
         System.out.println("═══════════════════════════════════════════════");
         System.out.println("           SCAN RESULTS");
@@ -302,42 +592,97 @@ public class PortScanner {
         System.out.println();
         
         if (results.isEmpty()) {
-            System.out.println("No open TCP ports found in the specified range.");
+            System.out.println("No open " + report.getRequest().getProtocol().toUpperCase()
+                               + " ports found in the specified range.");
         } else {
-            System.out.println("Open Ports: " + results.size());
-            System.out.println();
+            Map<String, List<PortResult>> byHost = ResultExporter.groupByHost(results);
+            System.out.println("Open Ports: " + results.size() 
+                               + " on " + byHost.size() + " host(s)");
             
-            for (PortResult result : results) {
-                System.out.println("  " + result.toString());
+            for (List<PortResult> ports : byHost.values()) {
+                System.out.println();
+                System.out.println("Host " + ports.get(0).getHost() + ":");
+                for (PortResult result : ports) {
+                    System.out.println("  " + result.toString());
+                }
+                PortStates.Counts counts = states != null ? states.get(ports.get(0).getHost()) : null;
+                if (counts != null && !counts.toString().isEmpty()) {
+                    System.out.println("  Not shown: " + counts);
+                }
             }
         }
         
+        if (states != null && states.getFilteredHosts() > 0) {
+            System.out.println();
+            System.out.println("Filtered: " + states.getFilteredHosts() 
+                               + " host(s) answered no probe at all");
+        }
+        
+        if (report.getRttStats() != null) {
+            displayRttStats(report.getRttStats());
+        }
+        
+        CongestionController congestion = report.getCongestion();
+        if (congestion != null) {
+            System.out.println();
+            System.out.println("AIMD: final window " + congestion.getWindow() + ", " 
+                               + congestion.getDecreases() + " decrease(s)");
+        }
+        
         System.out.println();
         System.out.println("───────────────────────────────────────────────");
-        System.out.println("Scan completed in " + config.duration + " ms");
+        System.out.println("Scan completed in " + report.getDurationMs() + " ms");
         System.out.println("═══════════════════════════════════════════════");
     }
     
     /**
-     * Export results to file
+     * Display only what changed since the baseline
      */
-    private static void exportResults(List<PortResult> results, ScanConfig config) {
-        String timestamp = String.valueOf(System.currentTimeMillis());
-        String filename = "scan_" + config.host.replace(".", "_") + "_" + timestamp;
+    private void displayDiff(ScanReport report) {
+        ScanDiff diff = report.getDiff();
+        System.out.println();
+        System.out.println("═══════════════════════════════════════════════");
+        System.out.println("           CHANGES SINCE BASELINE");
+        System.out.println("═══════════════════════════════════════════════");
+        System.out.println();
         
-        switch (exportFormat) {
-            case "txt":
-                ResultExporter.exportToText(results, config.host, 
-                                          config.duration, filename + ".txt");
-                break;
-            case "csv":
-                ResultExporter.exportToCSV(results, config.host, 
-                                         config.duration, filename + ".csv");
-                break;
-            case "json":
-                ResultExporter.exportToJSON(results, config.host, 
-                                          config.duration, filename + ".json");
+        if (diff.isEmpty()) {
+            System.out.println("No changes. " + report.getResults().size() + " port(s) still open.");
+        } else {
+            System.out.println("Newly open: " + diff.getOpened().size() 
+                               + ", closed: " + diff.getClosed().size() 
+                               + ", banner changed: " + diff.getChanged().size());
+            System.out.println();
+            diff.print();
+        }
+        double sampleRate = report.getRequest().getSampleRate();
+        if (sampleRate < 1.0) {
+            System.out.printf("%nNew ports were looked for in a %.0f%% sample of the targets%n",
+                              sampleRate * 100);
+        }
+        
+        System.out.println();
+        System.out.println("───────────────────────────────────────────────");
+        System.out.println("Scan completed in " + report.getDurationMs() + " ms");
+        System.out.println("═══════════════════════════════════════════════");
+    }
+    
+    /**
+     * Display the round-trip times learned for each host
+     */
+    private void displayRttStats(List<AdaptiveTimeout.RttEstimator> stats) {
+        System.out.println();
+        System.out.println("RTT per host (" + stats.size() + " answered):");
+        
+        int shown = 0;
+        for (AdaptiveTimeout.RttEstimator rtt : stats) {
+            if (shown++ == 20) {
+                System.out.println("  ... and " + (stats.size() - 20) + " more");
                 break;
+            }
+            System.out.printf("  %-18s srtt %.2f ms, rttvar %.2f ms, %d samples, timeout %d ms%n",
+                              rtt.getHost(), rtt.getSrttMs(), rtt.getRttvarMs(), 
+                              rtt.getSamples(), rtt.timeoutMs());
         }
     }
     
@@ -350,21 +695,64 @@ public class PortScanner {
         System.out.println("╚═══════════════════════════════════════════════════════════╝");
         System.out.println();
         System.out.println("USAGE:");
-        System.out.println("  java PortScanner <host> <startPort> <endPort> [options]");
-        System.out.println("  java PortScanner --top-ports <host> [options]");
+        System.out.println("  java PortScanner <targets> <startPort> <endPort> [options]");
+        System.out.println("  java PortScanner --top-ports <targets> [count] [options]");
+        System.out.println("  java PortScanner --daemon [port] [-c workers]   (scan jobs over HTTP)");
+        System.out.println("  java PortScanner --worker <host:port>           (worker for --coordinator)");
+        System.out.println("  java PortScanner --query <file.bin> [--port N] [--host H] [--convert <format>]");
+        System.out.println();
+        System.out.println("TARGETS (comma separated):");
+        System.out.println("  192.168.1.1, host.example.com, 10.0.0.0/22,");
+        System.out.println("  10.0.0.1-10.0.0.50 (or 10.0.0.1-50), @hosts.txt");
         System.out.println();
         System.out.println("EXAMPLES:");
         System.out.println("  java PortScanner 192.168.1.1 1 1024");
         System.out.println("  java PortScanner scanme.nmap.org 80 443 -b -o json");
+        System.out.println("  java PortScanner 10.0.0.0/16 1 1024 -e nio -o ndjson,xml --gzip");
         System.out.println("  java PortScanner --top-ports localhost -b");
+        System.out.println("  java PortScanner --top-ports 10.0.0.0/24 1000 -e nio");
+        System.out.println("  java PortScanner --top-ports 10.0.0.0/24 100 -sU -b");
+        System.out.println("  java PortScanner 10.0.0.0/24,@extra_hosts.txt 1 1024 -e nio");
+        System.out.println("  curl -H 'Content-Type: text/x-scan-args' -d '10.0.0.0/24 1 1024 -b' \\");
+        System.out.println("       http://127.0.0.1:8765/scans");
         System.out.println();
         System.out.println("OPTIONS:");
         System.out.println("  -t, --timeout <ms>    Connection timeout (default: 200ms)");
         System.out.println("  -c, --threads <num>   Number of threads (default: 100)");
+        System.out.println("  -e, --engine <name>   Scan engine: thread|virtual|nio (default: thread)");
+        System.out.println("  --max-inflight <num>  Concurrent probes for virtual/nio engines (default: 10000 or ulimit -n)");
+        System.out.println("  --adaptive            Learn per-host timeouts from round-trip times");
+        System.out.println("  --timeout-floor <ms>  Lowest adaptive timeout (default: 50ms)");
+        System.out.println("  --timeout-ceiling <ms> Highest adaptive timeout (default: 2000ms)");
+        System.out.println("  --aimd                Adapt in-flight probes to timeouts (-c is the ceiling)");
+        System.out.println("  -sU, --udp            Scan UDP ports (open, open|filtered; closed not listed)");
+        System.out.println("  --retries <num>       UDP probes resent to silent ports (default: 2)");
+        System.out.println("  --host-group <num>    Hosts scanned side by side (default: 64)");
+        System.out.println("  --discover            Find live hosts first (connects to 80,443,22,445,3389)");
+        System.out.println("  --ping                With --discover, also try ICMP/echo on silent hosts");
+        System.out.println("  --early-stop          Probe only 1 port in 32 of hosts that stop answering");
+        System.out.println("  --all-ports           Export every closed and filtered port, not just counts");
+        System.out.println("  --resolvers <num>     Parallel DNS lookups for host names (default: 32)");
+        System.out.println("  --randomize           Probe hosts and ports in a seeded random order");
+        System.out.println("  --seed <num>          Seed for --randomize (default: derived from the scan)");
+        System.out.println("  --shard <i/n>         Scan only slice i of n of the random order");
+        System.out.println("  --coordinator <[host:]port> Split the scan into shards for --worker processes");
+        System.out.println("  --shards <num>        Shards for --coordinator (default: 16)");
+        System.out.println("  --stream              Report and export open ports as they are found");
+        System.out.println("  --checkpoint <dir>    Record progress so the scan can be resumed");
+        System.out.println("  --resume <dir>        Resume a checkpointed scan (same targets and ports)");
+        System.out.println("  --baseline <file>     Re-scan against an earlier JSON export, report changes");
+        System.out.println("  --sample <fraction>   Probe only this fraction of targets (0-1, default: 1)");
         System.out.println("  -b, --banner          Enable banner grabbing");
+        System.out.println("  --banner-timeout <ms> How long to wait for a banner (default: 1000ms)");
+        System.out.println("  --no-probes           With -b, only read greetings, send no protocol probes");
+        System.out.println("  --tls                 TLS handshake with TLS ports: protocol, cipher, certificate");
+        System.out.println("  --stats               Print latency and rate metrics after the scan");
+        System.out.println("  --metrics-port <port> Serve live metrics on http://127.0.0.1:<port>/metrics");
         System.out.println("  -v, --verbose         Verbose output");
         System.out.println("  -q, --quiet           Disable progress display");
-        System.out.println("  -o, --output <format> Export results (txt|csv|json)");
+        System.out.println("  -o, --output <formats> Export results, comma separated (txt|csv|json|ndjson|xml|bin)");
+        System.out.println("  --gzip                Compress the text exports (.gz)");
         System.out.println("  -h, --help            Show this help message");
         System.out.println();
         System.out.println("NOTE: Only scan systems you own or have permission to test!");
@@ -381,43 +769,5 @@ public class PortScanner {
             return defaultValue;
         }
     }
-    
-    /**
-     * Configuration class for scan parameters
-     */
-    private static class ScanConfig {
-        String host;
-        int startPort;
-        int endPort;
-        int[] specificPorts;
-        int timeout;
-        int threads;
-        long duration;
-        
-        // Range scan constructor
-        ScanConfig(String host, int startPort, int endPort, int timeout, int threads) {
-            this.host = host;
-            this.startPort = startPort;
-            this.endPort = endPort;
-            this.timeout = timeout;
-            this.threads = threads;
-        }
-        
-        // Specific ports scan constructor
-        ScanConfig(String host, int[] ports, int timeout, int threads) {
-            this.host = host;
-            this.specificPorts = ports;
-            this.timeout = timeout;
-            this.threads = threads;
-        }
-        
-        boolean isRangeScan() {
-            return specificPorts == null;
-        }
-        
-        int getPortCount() {
-            return isRangeScan() ? (endPort - startPort + 1) : specificPorts.length;
-        }
-    }
 }
 
@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a TCP scan found on the ports that were not open: refused
+ * (closed), silent (filtered), or never probed because the host had gone
+ * silent (see ScanScheduler). Counts are kept per host for hosts with an
+ * open port, so reports can say what the rest of their ports were; hosts
+ * with nothing open are only counted, which keeps a wide sweep small.
+ * With recordPorts each closed and filtered port is kept as well, for
+ * exports that list every port.
+ */
+public class PortStates {
+    private final Map<String, Counts> hosts = new HashMap<>();
+    private final List<PortResult> ports;
+    private long filteredHosts;
+    private long closedHosts;
+
+    public PortStates() {
+        this(false);
+    }
+
+    public PortStates(boolean recordPorts) {
+        this.ports = recordPorts ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Keep a closed or filtered TCP port, if ports are recorded
+     */
+    synchronized void addPort(String host, int port, String state) {
+        if (ports != null) {
+            ports.add(new PortResult(host, port, "", ServiceMapper.getServiceName(port),
+                                     PortResult.TCP, state));
+        }
+    }
+
+    public boolean isRecordingPorts() {
+        return ports != null;
+    }
+
+    /**
+     * Every closed and filtered port recorded, in completion order
+     */
+    public synchronized List<PortResult> getPorts() {
+        return ports != null ? new ArrayList<>(ports) : List.of();
+    }
+
+    /**
+     * Record a host once all of its probes have finished
+     */
+    synchronized void addHost(String host, long open, long closed, long filtered, long skipped) {
+        if (open + closed + filtered + skipped == 0) {
+            return; // nothing probed in this run (resumed)
+        }
+        if (open > 0) {
+            hosts.put(host, new Counts(closed, filtered, skipped));
+        } else if (closed > 0) {
+            closedHosts++;
+        } else {
+            filteredHosts++;
+        }
+    }
+
+    /**
+     * Ports not open on a host with open ports, null for other hosts
+     */
+    public synchronized Counts get(String host) {
+        return hosts.get(host);
+    }
+
+    /**
+     * Hosts that answered no probe at all
+     */
+    public synchronized long getFilteredHosts() {
+        return filteredHosts;
+    }
+
+    /**
+     * Hosts that refused every probe: up, but nothing open
+     */
+    public synchronized long getClosedHosts() {
+        return closedHosts;
+    }
+
+    /**
+     * Not-open ports of one host
+     */
+    public static class Counts {
+        private final long closed;
+        private final long filtered;
+        private final long skipped;
+
+        Counts(long closed, long filtered, long skipped) {
+            this.closed = closed;
+            this.filtered = filtered;
+            this.skipped = skipped;
+        }
+
+        public long getClosed() {
+            return closed;
+        }
+
+        public long getFiltered() {
+            return filtered;
+        }
+
+        /**
+         * Ports left out once the host looked filtered; most likely filtered too
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * e.g. "1021 closed, 3 filtered" for a "Not shown:" line
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (closed > 0) {
+                sb.append(closed).append(" closed");
+            }
+            if (filtered > 0) {
+                sb.append(sb.length() > 0 ? ", " : "").append(filtered).append(" filtered");
+            }
+            if (skipped > 0) {
+                sb.append(sb.length() > 0 ? ", " : "").append(skipped)
+                  .append(" not probed (host looked filtered)");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends protocol probes to open ports that stayed silent, so HTTP, Redis,
+ * MongoDB and similar services still get a banner.
+ *
+ * Every exchange runs on one Selector thread: connect, write the probe
+ * payload, read the reply. A scan that already holds a connection to the
+ * silent port can hand it over, and the first probe is written on it
+ * instead of a new one. If the reply is empty the next probe from
+ * ServiceProbe.forPort is tried on a fresh connection, so a service that
+ * hung up on the wrong protocol does not spoil the next attempt.
+ *
+ * Each running exchange holds one pooled read buffer of MAX_BANNER_BYTES.
+ * At most maxExchanges run at once and the rest wait their turn, so
+ * memory stays bounded however many ports turn out to be open.
+ *
+ * With a TlsEngine, known TLS ports get a TLS handshake before any
+ * probe, and ports that answered no probe get one after them.
+ */
+public class ProbeEngine implements AutoCloseable {
+
+    private final long timeoutNanos;
+    private final int maxExchanges;
+    private final boolean protocolProbes;
+    private final TlsEngine tls;
+    private final Selector selector;
+    private final Thread thread;
+
+    // Handed over from scanning threads; everything else is selector thread only
+    private final Queue<Exchange> submitted = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Exchange> waiting = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    private final ArrayDeque<Exchange> deadlines = new ArrayDeque<>();
+    private int buffersAllocated;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param timeoutMs    how long each probe waits for its reply
+     * @param maxExchanges exchanges (and read buffers) in use at once
+     */
+    public ProbeEngine(int timeoutMs, int maxExchanges) throws IOException {
+        this(timeoutMs, maxExchanges, true, null);
+    }
+
+    /**
+     * @param protocolProbes send protocol probes (false for TLS handshakes only)
+     * @param tls            engine for TLS handshakes, or null; closed with this one
+     */
+    public ProbeEngine(int timeoutMs, int maxExchanges, boolean protocolProbes, TlsEngine tls)
+            throws IOException {
+        this.timeoutNanos = timeoutMs * 1_000_000L;
+        this.maxExchanges = Math.max(1, maxExchanges);
+        this.protocolProbes = protocolProbes;
+        this.tls = tls;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "probe-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Probe a silent open port. The future completes with a result
+     * carrying the reply as banner (and the TLS details, with a TlsEngine),
+     * or with the original result if nothing answered. Results that
+     * already have a banner are returned as they are.
+     *
+     * @param address the host's address as resolved for the scan; the
+     *                engine thread never looks names up itself
+     */
+    public CompletableFuture<PortResult> probe(PortResult result, InetAddress address) {
+        return probe(result, address, null);
+    }
+
+    /**
+     * Probe a silent open port, writing the first probe on a connection
+     * the scan already has to it
+     *
+     * @param connection connected non-blocking channel to the port, or
+     *                   null; the engine takes it over and closes it
+     */
+    public CompletableFuture<PortResult> probe(PortResult result, InetAddress address,
+                                               SocketChannel connection) {
+        if (closed || !result.getBanner().isEmpty() || address == null
+                || !protocolProbes && !(tls != null && TlsEngine.isTlsPort(result.getPort()))) {
+            close(connection);
+            return CompletableFuture.completedFuture(result);
+        }
+        CompletableFuture<PortResult> stages;
+        if (tls != null && TlsEngine.isTlsPort(result.getPort())) {
+            // The handshake needs a connection of its own
+            close(connection);
+            stages = tls.handshake(result, address).thenCompose(
+                handshaken -> handshaken.getTls() != null ? CompletableFuture.completedFuture(handshaken)
+                                                          : exchange(handshaken, address, null));
+        } else {
+            stages = exchange(result, address, connection).thenCompose(
+                probed -> tls != null && probed.getBanner().isEmpty() ? tls.handshake(probed, address)
+                                                                      : CompletableFuture.completedFuture(probed));
+        }
+
+        // Counted until the caller's callbacks on the last stage have run
+        CompletableFuture<PortResult> done = new CompletableFuture<>();
+        pending.incrementAndGet();
+        stages.whenComplete((finished, error) -> {
+            done.complete(finished != null ? finished : result);
+            if (pending.decrementAndGet() == 0) {
+                synchronized (pending) {
+                    pending.notifyAll();
+                }
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Probe a silent open port of a host that is in the resolver cache (or
+     * an IPv4 literal); other results are returned as they are
+     */
+    public CompletableFuture<PortResult> probe(PortResult result) {
+        return probe(result, HostResolver.cached(result.getHost()));
+    }
+
+    /**
+     * The protocol probes of ServiceProbe.forPort, one connection each;
+     * the first on connection if there is one
+     */
+    private CompletableFuture<PortResult> exchange(PortResult result, InetAddress address,
+                                                   SocketChannel connection) {
+        if (!protocolProbes || closed) {
+            close(connection);
+            return CompletableFuture.completedFuture(result);
+        }
+        Exchange exchange = new Exchange(result, address, ServiceProbe.forPort(result.getPort()));
+        exchange.connection = connection;
+        submitted.add(exchange);
+        selector.wakeup();
+        return exchange.future;
+    }
+
+    /**
+     * Wait until every submitted exchange has completed
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                pending.wait();
+            }
+        }
+    }
+
+    /**
+     * Stop the engine. Exchanges still running complete with their
+     * original result. An interrupt while waiting for the engine thread
+     * is kept on the calling thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (tls != null) {
+            tls.close();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                Exchange exchange;
+                while ((exchange = submitted.poll()) != null) {
+                    waiting.addLast(exchange);
+                }
+                while (!waiting.isEmpty() && takeBuffer(waiting.peek())) {
+                    startProbe(waiting.poll());
+                }
+
+                Exchange oldest = nextDeadline();
+                long waitMs = oldest == null ? 0
+                            : Math.max(1, (oldest.deadline - System.nanoTime()) / 1_000_000L);
+                selector.select(waitMs);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid()) {
+                        handle((Exchange) key.attachment(), key);
+                    }
+                }
+
+                // Every probe has the same timeout, so deadlines expire in order
+                long now = System.nanoTime();
+                while ((oldest = nextDeadline()) != null && oldest.deadline - now <= 0) {
+                    deadlines.poll();
+                    finishProbe(oldest);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Probe engine failed: " + e.getMessage());
+        } finally {
+            closed = true; // later exchanges complete straight away
+            for (SelectionKey key : selector.keys()) {
+                ((Exchange) key.attachment()).closeChannel();
+            }
+            for (Exchange exchange : deadlines) {
+                exchange.future.complete(exchange.result);
+            }
+            for (Exchange exchange : waiting) {
+                exchange.closeChannel();
+                exchange.future.complete(exchange.result);
+            }
+            for (Exchange exchange : submitted) {
+                exchange.closeChannel();
+                exchange.future.complete(exchange.result);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void handle(Exchange exchange, SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                if (exchange.channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } else if (key.isWritable()) {
+                exchange.channel.write(exchange.payload);
+                if (!exchange.payload.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                ByteBuffer buffer = exchange.buffer;
+                int read = exchange.channel.read(buffer);
+                ServiceProbe probe = exchange.probes.get(exchange.next - 1);
+                if (read < 0 || !buffer.hasRemaining()
+                        || probe.isComplete(buffer.array(), buffer.position())) {
+                    finishProbe(exchange);
+                }
+            }
+        } catch (IOException e) {
+            // Refused or reset: this probe is over, keep whatever arrived
+            finishProbe(exchange);
+        }
+    }
+
+    /**
+     * Connect for the exchange's next probe, or complete the exchange when
+     * none are left
+     */
+    private void startProbe(Exchange exchange) {
+        while (exchange.next < exchange.probes.size()) {
+            ServiceProbe probe = exchange.probes.get(exchange.next++);
+            exchange.payload = probe.payload();
+            exchange.buffer.clear();
+            try {
+                boolean connected;
+                if (exchange.connection != null) {
+                    exchange.channel = exchange.connection;
+                    exchange.connection = null;
+                    connected = true;
+                } else {
+                    exchange.channel = SocketChannel.open();
+                    exchange.channel.configureBlocking(false);
+                    connected = exchange.channel.connect(
+                        new InetSocketAddress(exchange.address, exchange.result.getPort()));
+                }
+                exchange.channel.register(selector, connected ? SelectionKey.OP_WRITE
+                                                              : SelectionKey.OP_CONNECT, exchange);
+                exchange.deadline = System.nanoTime() + timeoutNanos;
+                deadlines.addLast(exchange);
+                return;
+            } catch (IOException e) {
+                // The port no longer accepts connections, no point trying more probes
+                exchange.closeChannel();
+                break;
+            }
+        }
+        complete(exchange, exchange.result);
+    }
+
+    /**
+     * End the current probe: use its reply if there was one, otherwise
+     * move on to the next probe
+     */
+    private void finishProbe(Exchange exchange) {
+        if (exchange.channel == null) {
+            return;
+        }
+        exchange.closeChannel();
+        deadlines.remove(exchange);
+
+        ByteBuffer buffer = exchange.buffer;
+        if (buffer.position() == 0) {
+            startProbe(exchange);
+            return;
+        }
+        ServiceProbe probe = exchange.probes.get(exchange.next - 1);
+        byte[] data = buffer.array();
+        int length = buffer.position();
+        PortResult original = exchange.result;
+        String service = original.getServiceName();
+        if ("Unknown".equals(service) && probe.getService() != null && probe.matches(data, length)) {
+            service = probe.getService();
+        }
+        complete(exchange, new PortResult(original.getHost(), original.getPort(),
+                                          probe.describe(data, length), service,
+                                          original.getProtocol(), original.getState(),
+                                          original.getTls()));
+    }
+
+    private void complete(Exchange exchange, PortResult result) {
+        bufferPool.push(exchange.buffer);
+        exchange.buffer = null;
+        exchange.future.complete(result);
+    }
+
+    private boolean takeBuffer(Exchange exchange) {
+        if (bufferPool.isEmpty()) {
+            if (buffersAllocated == maxExchanges) {
+                return false;
+            }
+            bufferPool.push(ByteBuffer.allocate(BannerGrabber.MAX_BANNER_BYTES));
+            buffersAllocated++;
+        }
+        exchange.buffer = bufferPool.pop();
+        return true;
+    }
+
+    private Exchange nextDeadline() {
+        return deadlines.peek();
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * One open port being probed, possibly across several connections
+     */
+    private static class Exchange {
+        final PortResult result;
+        final InetAddress address;
+        final List<ServiceProbe> probes;
+        final CompletableFuture<PortResult> future = new CompletableFuture<>();
+        int next;
+        SocketChannel connection; // handed over by the scan, for the first probe
+        SocketChannel channel;
+        ByteBuffer payload;
+        ByteBuffer buffer;
+        long deadline;
+
+        Exchange(PortResult result, InetAddress address, List<ServiceProbe> probes) {
+            this.result = result;
+            this.address = address;
+            this.probes = probes;
+        }
+
+        void closeChannel() {
+            close(channel);
+            close(connection);
+            channel = null;
+            connection = null;
+        }
+    }
+}
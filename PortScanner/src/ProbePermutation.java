@@ -0,0 +1,73 @@
+/**
+ * Pseudo-random permutation of 0 .. size-1 in constant memory.
+ *
+ * A four round Feistel network is a bijection on the smallest even-bit
+ * power of two holding size; values that land outside the range are
+ * encrypted again (cycle walking) until they fall inside, which keeps it
+ * a bijection on 0 .. size-1. The domain is less than four times size, so
+ * on average fewer than four rounds of walking are needed.
+ *
+ * The order depends only on size and seed, so any run with the same seed
+ * visits the same sequence, and disjoint position ranges of it (shards)
+ * never share an element.
+ */
+public class ProbePermutation {
+
+    private static final int ROUNDS = 4;
+
+    private final long size;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[ROUNDS];
+
+    public ProbePermutation(long size, long seed) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Permutation size must be positive");
+        }
+        this.size = size;
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(size - 1));
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+        long state = seed;
+        for (int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = mix(state);
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Element at the given position of the permutation
+     */
+    public long get(long position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+        }
+        long value = position;
+        do {
+            value = encrypt(value);
+        } while (value >= size);
+        return value;
+    }
+
+    private long encrypt(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for (long key : roundKeys) {
+            long next = left ^ (mix(right ^ key) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
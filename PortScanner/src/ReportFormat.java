@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Locale;
+
+/**
+ * Encoder for one text export format. ResultExporter drives every format
+ * of an export through the same calls in one pass over the results:
+ *
+ *   begin, then per host: beginHost, port for each open port, endHost; end
+ *
+ * An instance keeps the state of one file (separators, counts), so each
+ * export creates its own through forName.
+ */
+abstract class ReportFormat {
+
+    PortStates portStates; // closed and filtered ports of the scan, may be null
+
+    /**
+     * Encoder for a format name, null if there is none
+     */
+    static ReportFormat forName(String name) {
+        switch (name) {
+            case "txt":    return new Text();
+            case "csv":    return new Csv();
+            case "json":   return new Json();
+            case "ndjson": return new Ndjson();
+            case "xml":    return new NmapXml();
+            default:       return null;
+        }
+    }
+
+    abstract void begin(ReportWriter out, String target, long durationMs,
+                        int hosts, int results) throws IOException;
+
+    void beginHost(ReportWriter out, String host) throws IOException {
+    }
+
+    abstract void port(ReportWriter out, String host, PortResult result) throws IOException;
+
+    void endHost(ReportWriter out) throws IOException {
+    }
+
+    abstract void end(ReportWriter out) throws IOException;
+
+    /**
+     * Status column of the csv formats: OPEN, or OPEN|FILTERED, and with
+     * --all-ports CLOSED or FILTERED
+     */
+    static String status(PortResult result) {
+        return result.getState().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Not-open ports of a host with open ports that are not listed, null
+     * if unknown
+     */
+    PortStates.Counts notShown(String host) {
+        PortStates.Counts counts = portStates != null ? portStates.get(host) : null;
+        if (counts != null && portStates.isRecordingPorts()) {
+            // Closed and filtered ports are listed one by one
+            counts = new PortStates.Counts(0, 0, counts.getSkipped());
+        }
+        return counts;
+    }
+
+    /**
+     * Host counts for the scan_info objects of the JSON formats
+     */
+    void appendHostStates(ReportWriter out) throws IOException {
+        if (portStates != null) {
+            out.append(", \"filtered_hosts\": ").append(portStates.getFilteredHosts())
+               .append(", \"closed_hosts\": ").append(portStates.getClosedHosts());
+        }
+    }
+
+    /**
+     * A host's not-open ports as a JSON object
+     */
+    static void appendCounts(ReportWriter out, PortStates.Counts counts) throws IOException {
+        out.append("{\"closed\": ").append(counts.getClosed())
+           .append(", \"filtered\": ").append(counts.getFiltered())
+           .append(", \"not_probed\": ").append(counts.getSkipped()).append('}');
+    }
+
+    /**
+     * The TLS details as a JSON object
+     */
+    static void appendTls(ReportWriter out, TlsInfo tls) throws IOException {
+        out.append("{\"protocol\": \"").append(tls.getProtocol())
+           .append("\", \"cipher\": \"").append(tls.getCipher())
+           .append("\", \"subject\": \"").appendJson(tls.getSubject())
+           .append("\", \"not_after\": \"").append(tls.getNotAfter())
+           .append("\", \"sha256\": \"").append(tls.getSha256()).append("\"}");
+    }
+
+    /**
+     * The human readable report
+     */
+    private static class Text extends ReportFormat {
+        private static final String DOUBLE_RULE = "═══════════════════════════════════════════════\n";
+        private static final String RULE = "───────────────────────────────────────────────\n";
+        private String host;
+
+        @Override
+        void begin(ReportWriter out, String target, long durationMs, int hosts, int results)
+                throws IOException {
+            out.append(DOUBLE_RULE).append("           PORT SCAN REPORT\n").append(DOUBLE_RULE)
+               .newLine()
+               .append("Target Host: ").append(target).newLine()
+               .append("Scan Date: ").append(ResultExporter.getCurrentTimestamp()).newLine()
+               .append("Duration: ").append(durationMs).append(" ms\n")
+               .append("Hosts With Open Ports: ").append(hosts).newLine()
+               .append("Total Open Ports: ").append(results).newLine();
+            if (portStates != null && portStates.getFilteredHosts() > 0) {
+                out.append("Hosts Filtered (no answer on any port): ")
+                   .append(portStates.getFilteredHosts()).newLine();
+            }
+        }
+
+        @Override
+        void beginHost(ReportWriter out, String host) throws IOException {
+            this.host = host;
+            boolean all = portStates != null && portStates.isRecordingPorts();
+            out.newLine().append(RULE).append(all ? "PORTS ON " : "OPEN PORTS ON ").append(host)
+               .append(":\n").append(RULE);
+        }
+
+        @Override
+        void endHost(ReportWriter out) throws IOException {
+            PortStates.Counts counts = notShown(host);
+            if (counts != null && counts.getClosed() + counts.getFiltered() + counts.getSkipped() > 0) {
+                out.append("Not shown: ").append(counts.toString()).newLine();
+            }
+        }
+
+        @Override
+        void port(ReportWriter out, String host, PortResult result) throws IOException {
+            // Same as PortResult.toString, without building the string
+            out.append("Port ").append(result.getPort());
+            if (!result.isTcp()) {
+                out.append('/').append(result.getProtocol());
+            }
+            String service = result.getServiceName();
+            if (service != null && !service.isEmpty()) {
+                out.append(" (").append(service).append(')');
+            }
+            if (!PortResult.OPEN.equals(result.getState())) {
+                out.append(" [").append(result.getState()).append(']');
+            }
+            String banner = result.getBanner();
+            if (banner != null && !banner.isEmpty()) {
+                out.append(" - Banner: ").append(banner);
+            }
+            if (result.getTls() != null) {
+                out.append(" - TLS: ").append(result.getTls().toString());
+            }
+            out.newLine();
+        }
+
+        @Override
+        void end(ReportWriter out) throws IOException {
+            out.newLine().append(DOUBLE_RULE).append("End of Report\n").append(DOUBLE_RULE);
+        }
+    }
+
+    private static class Csv extends ReportFormat {
+        @Override
+        void begin(ReportWriter out, String target, long durationMs, int hosts, int results)
+                throws IOException {
+            out.append("Host,Port,Service,Banner,Status,Protocol,")
+               .append("TLS Version,TLS Cipher,Cert Subject,Cert Expires,Cert SHA256\n");
+        }
+
+        @Override
+        void port(ReportWriter out, String host, PortResult result) throws IOException {
+            out.append(host).append(',').append(result.getPort()).append(',')
+               .append(result.getServiceName()).append(",\"").appendCsv(result.getBanner())
+               .append("\",").append(status(result)).append(',').append(result.getProtocol());
+            TlsInfo tls = result.getTls();
+            if (tls != null) {
+                out.append(',').append(tls.getProtocol()).append(',').append(tls.getCipher())
+                   .append(",\"").appendCsv(tls.getSubject()).append("\",")
+                   .append(tls.getNotAfter()).append(',').append(tls.getSha256());
+            } else {
+                out.append(",,,,,");
+            }
+            out.newLine();
+        }
+
+        @Override
+        void end(ReportWriter out) {
+        }
+    }
+
+    /**
+     * One document, ports grouped per host (read back by ScanBaseline)
+     */
+    private static class Json extends ReportFormat {
+        private boolean firstHost = true;
+        private boolean firstPort;
+        private String host;
+
+        @Override
+        void begin(ReportWriter out, String target, long durationMs, int hosts, int results)
+                throws IOException {
+            out.append("{\n  \"scan_info\": {\n    \"target\": \"").appendJson(target)
+               .append("\",\n    \"timestamp\": \"").append(ResultExporter.getCurrentTimestamp())
+               .append("\",\n    \"duration_ms\": ").append(durationMs)
+               .append(",\n    \"total_hosts\": ").append(hosts)
+               .append(",\n    \"total_open_ports\": ").append(results);
+            if (portStates != null) {
+                out.append(",\n    \"filtered_hosts\": ").append(portStates.getFilteredHosts())
+                   .append(",\n    \"closed_hosts\": ").append(portStates.getClosedHosts());
+            }
+            out.append("\n  },\n  \"hosts\": [");
+        }
+
+        @Override
+        void beginHost(ReportWriter out, String host) throws IOException {
+            this.host = host;
+            out.append(firstHost ? "\n" : ",\n")
+               .append("    {\n      \"host\": \"").appendJson(host)
+               .append("\",\n      \"open_ports\": [");
+            firstHost = false;
+            firstPort = true;
+        }
+
+        @Override
+        void port(ReportWriter out, String host, PortResult result) throws IOException {
+            out.append(firstPort ? "\n" : ",\n")
+               .append("        {\n          \"port\": ").append(result.getPort())
+               .append(",\n          \"service\": \"").appendJson(result.getServiceName())
+               .append("\",\n          \"banner\": \"").appendJson(result.getBanner())
+               .append("\",\n          \"protocol\": \"").append(result.getProtocol())
+               .append("\",\n          \"state\": \"").append(result.getState()).append('"');
+            if (result.getTls() != null) {
+                out.append(",\n          \"tls\": ");
+                appendTls(out, result.getTls());
+            }
+            out.append("\n        }");
+            firstPort = false;
+        }
+
+        @Override
+        void endHost(ReportWriter out) throws IOException {
+            out.append("\n      ]");
+            PortStates.Counts counts = notShown(host);
+            if (counts != null) {
+                out.append(",\n      \"not_shown\": ");
+                appendCounts(out, counts);
+            }
+            out.append("\n    }");
+        }
+
+        @Override
+        void end(ReportWriter out) throws IOException {
+            out.append("\n  ]\n}\n");
+        }
+    }
+
+    /**
+     * One JSON object per line: a scan_info line, then one line per open
+     * port, so the file can be processed a line at a time
+     */
+    private static class Ndjson extends ReportFormat {
+        private String host;
+
+        @Override
+        void begin(ReportWriter out, String target, long durationMs, int hosts, int results)
+                throws IOException {
+            out.append("{\"type\": \"scan_info\", \"target\": \"").appendJson(target)
+               .append("\", \"timestamp\": \"").append(ResultExporter.getCurrentTimestamp())
+               .append("\", \"duration_ms\": ").append(durationMs)
+               .append(", \"total_hosts\": ").append(hosts)
+               .append(", \"total_open_ports\": ").append(results);
+            appendHostStates(out);
+            out.append("}\n");
+        }
+
+        @Override
+        void beginHost(ReportWriter out, String host) {
+            this.host = host;
+        }
+
+        @Override
+        void port(ReportWriter out, String host, PortResult result) throws IOException {
+            out.append("{\"type\": \"port\", \"host\": \"").appendJson(host)
+               .append("\", \"port\": ").append(result.getPort())
+               .append(", \"service\": \"").appendJson(result.getServiceName())
+               .append("\", \"banner\": \"").appendJson(result.getBanner())
+               .append("\", \"protocol\": \"").append(result.getProtocol())
+               .append("\", \"state\": \"").append(result.getState()).append('"');
+            if (result.getTls() != null) {
+                out.append(", \"tls\": ");
+                appendTls(out, result.getTls());
+            }
+            out.append("}\n");
+        }
+
+        /**
+         * A host line after the host's ports, with what the rest of them were
+         */
+        @Override
+        void endHost(ReportWriter out) throws IOException {
+            PortStates.Counts counts = notShown(host);
+            if (counts != null) {
+                out.append("{\"type\": \"host\", \"host\": \"").appendJson(host)
+                   .append("\", \"not_shown\": ");
+                appendCounts(out, counts);
+                out.append("}\n");
+            }
+        }
+
+        @Override
+        void end(ReportWriter out) {
+        }
+    }
+
+    /**
+     * nmap's XML output (as written by nmap -oX), so existing nmap tooling
+     * can read the results. Banners become the output of a "banner" script,
+     * as with nmap's banner script.
+     */
+    private static class NmapXml extends ReportFormat {
+        private long startMs;
+        private long durationMs;
+        private int hosts;
+
+        @Override
+        void begin(ReportWriter out, String target, long durationMs, int hosts, int results)
+                throws IOException {
+            this.durationMs = durationMs;
+            this.hosts = hosts;
+            this.startMs = System.currentTimeMillis() - durationMs;
+            out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE nmaprun>\n")
+               .append("<nmaprun scanner=\"portscanner\" args=\"").appendXml(target)
+               .append("\" start=\"").append(startMs / 1000)
+               .append("\" version=\"1.0\" xmloutputversion=\"1.05\">\n");
+        }
+
+        @Override
+        void beginHost(ReportWriter out, String host) throws IOException {
+            out.append("<host><status state=\"up\" reason=\"syn-ack\"/>\n");
+            // Names were resolved for the scan; an export never waits on DNS
+            InetAddress address = HostResolver.cached(host);
+            if (address != null) {
+                out.append("<address addr=\"").append(address.getHostAddress())
+                   .append(address instanceof Inet6Address ? "\" addrtype=\"ipv6\"/>\n"
+                                                           : "\" addrtype=\"ipv4\"/>\n");
+            }
+            if (address == null || !address.getHostAddress().equals(host)) {
+                out.append("<hostnames><hostname name=\"").appendXml(host)
+                   .append("\" type=\"user\"/></hostnames>\n");
+            }
+            out.append("<ports>\n");
+            PortStates.Counts counts = notShown(host);
+            if (counts != null) {
+                // Ports not probed on a host that looked filtered are reported as filtered
+                extraPorts(out, PortResult.CLOSED, counts.getClosed(), "conn-refused");
+                extraPorts(out, PortResult.FILTERED, counts.getFiltered() + counts.getSkipped(),
+                           "no-response");
+            }
+        }
+
+        private static void extraPorts(ReportWriter out, String state, long count, String reason)
+                throws IOException {
+            if (count > 0) {
+                out.append("<extraports state=\"").append(state).append("\" count=\"").append(count)
+                   .append("\"><extrareasons reason=\"").append(reason).append("\" count=\"")
+                   .append(count).append("\"/></extraports>\n");
+            }
+        }
+
+        @Override
+        void port(ReportWriter out, String host, PortResult result) throws IOException {
+            out.append("<port protocol=\"").append(result.getProtocol())
+               .append("\" portid=\"").append(result.getPort())
+               .append("\"><state state=\"").append(result.getState())
+               .append("\" reason=\"").append(reason(result)).append("\" reason_ttl=\"0\"/>")
+               .append("<service name=\"")
+               .appendXml(result.getServiceName().toLowerCase(Locale.ROOT))
+               .append(result.getTls() != null ? "\" tunnel=\"ssl" : "")
+               .append("\" method=\"table\" conf=\"3\"/>");
+            if (!result.getBanner().isEmpty()) {
+                out.append("<script id=\"banner\" output=\"").appendXml(result.getBanner())
+                   .append("\"/>");
+            }
+            TlsInfo tls = result.getTls();
+            if (tls != null) {
+                // As nmap's ssl-cert script prints it
+                out.append("<script id=\"ssl-cert\" output=\"Subject: ").appendXml(tls.getSubject())
+                   .append("&#10;Not valid after: ").append(tls.getNotAfter())
+                   .append("&#10;SHA-256: ").append(tls.getSha256())
+                   .append("&#10;Protocol: ").append(tls.getProtocol())
+                   .append("&#10;Cipher: ").append(tls.getCipher()).append("\"/>");
+            }
+            out.append("</port>\n");
+        }
+
+        private static String reason(PortResult result) {
+            if (PortResult.CLOSED.equals(result.getState())) {
+                return "conn-refused";
+            }
+            return result.isTcp() && result.isOpen() ? "syn-ack"
+                 : PortResult.OPEN.equals(result.getState()) ? "udp-response" : "no-response";
+        }
+
+        @Override
+        void endHost(ReportWriter out) throws IOException {
+            out.append("</ports>\n</host>\n");
+        }
+
+        @Override
+        void end(ReportWriter out) throws IOException {
+            long finished = startMs + durationMs;
+            // Hosts that refused every port were up; hosts that answered nothing count as down
+            long up = hosts + (portStates != null ? portStates.getClosedHosts() : 0);
+            long down = portStates != null ? portStates.getFilteredHosts() : 0;
+            out.append("<runstats><finished time=\"").append(finished / 1000)
+               .append("\" elapsed=\"").append(String.format(Locale.ROOT, "%.2f", durationMs / 1000.0))
+               .append("\" exit=\"success\"/><hosts up=\"").append(up)
+               .append("\" down=\"").append(down).append("\" total=\"").append(up + down)
+               .append("\"/></runstats>\n</nmaprun>\n");
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffered UTF-8 output of one export file, optionally gzip compressed.
+ *
+ * Text is encoded straight into one reusable 64 KB buffer, escaping
+ * included, so writing a result allocates nothing; the buffer goes to the
+ * file channel (or the compressor) only when full. Not thread safe.
+ */
+public class ReportWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final FileChannel channel;
+    private final OutputStream gzip;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+    private final byte[] digits = new byte[20];
+    private int count;
+
+    public ReportWriter(String filename, boolean compress) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        this.gzip = compress ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)
+                             : null;
+    }
+
+    /**
+     * Uncompressed output to an open channel, written at its position
+     */
+    ReportWriter(FileChannel channel) {
+        this.channel = channel;
+        this.gzip = null;
+    }
+
+    public ReportWriter append(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                put(c);
+            } else {
+                i = putUtf8(text, i);
+            }
+        }
+        return this;
+    }
+
+    public ReportWriter append(char c) throws IOException {
+        if (c < 0x80) {
+            put(c);
+        } else {
+            putUtf8(String.valueOf(c), 0);
+        }
+        return this;
+    }
+
+    public ReportWriter append(long value) throws IOException {
+        if (value < 0) {
+            put('-');
+            if (value == Long.MIN_VALUE) {
+                return append("9223372036854775808");
+            }
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            put(digits[--n]);
+        }
+        return this;
+    }
+
+    public ReportWriter newLine() throws IOException {
+        put('\n');
+        return this;
+    }
+
+    /**
+     * The text as the inside of a JSON string
+     */
+    public ReportWriter appendJson(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':  put('\\'); put('"'); break;
+                case '\\': put('\\'); put('\\'); break;
+                case '\n': put('\\'); put('n'); break;
+                case '\r': put('\\'); put('r'); break;
+                case '\t': put('\\'); put('t'); break;
+                default:
+                    if (c < 0x20) {
+                        put('\\'); put('u'); put('0'); put('0');
+                        put(HEX[c >> 4]); put(HEX[c & 0xF]);
+                    } else if (c < 0x80) {
+                        put(c);
+                    } else {
+                        i = putUtf8(text, i);
+                    }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * The text as the inside of a double-quoted CSV field
+     */
+    public ReportWriter appendCsv(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                put('"');
+                put('"');
+            } else if (c < 0x80) {
+                put(c);
+            } else {
+                i = putUtf8(text, i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * The text as an XML attribute value; control characters that XML 1.0
+     * cannot carry become spaces
+     */
+    public ReportWriter appendXml(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':  append("&lt;"); break;
+                case '>':  append("&gt;"); break;
+                case '&':  append("&amp;"); break;
+                case '"':  append("&quot;"); break;
+                case '\n': append("&#10;"); break;
+                case '\r': append("&#13;"); break;
+                case '\t': append("&#9;"); break;
+                default:
+                    if (c < 0x20) {
+                        put(' ');
+                    } else if (c < 0x80) {
+                        put(c);
+                    } else {
+                        i = putUtf8(text, i);
+                    }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write out what is buffered and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (gzip != null) {
+                gzip.close(); // writes the gzip trailer
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (count == BUFFER_SIZE) {
+            flush();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * Encode the non-ASCII character at index (a surrogate pair counts as
+     * one), returning the index of its last char
+     */
+    private int putUtf8(String text, int index) throws IOException {
+        int cp = text.codePointAt(index);
+        if (cp < 0x800) {
+            put(0xC0 | cp >> 6);
+            put(0x80 | cp & 0x3F);
+        } else if (cp < 0x10000) {
+            if (Character.isSurrogate((char) cp)) {
+                put('?'); // unpaired surrogate
+                return index;
+            }
+            put(0xE0 | cp >> 12);
+            put(0x80 | cp >> 6 & 0x3F);
+            put(0x80 | cp & 0x3F);
+        } else {
+            put(0xF0 | cp >> 18);
+            put(0x80 | cp >> 12 & 0x3F);
+            put(0x80 | cp >> 6 & 0x3F);
+            put(0x80 | cp & 0x3F);
+            return index + 1;
+        }
+        return index;
+    }
+
+    /**
+     * Hand what is buffered to the file (or the compressor)
+     */
+    void flush() throws IOException {
+        if (gzip != null) {
+            gzip.write(buffer, 0, count);
+        } else {
+            wrapped.clear().limit(count);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        }
+        count = 0;
+    }
+}
@@ -1,70 +1,136 @@
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-//exports scan results
+/**
+ * Writes scan results to files.
+ *
+ * export() writes any number of formats in a single pass over the
+ * results: every text format gets its own ReportWriter and ReportFormat,
+ * and each result is handed to all of them in turn (and to a
+ * BinaryResultWriter for bin). Text formats can be gzip compressed;
+ * bin never is, so --query can still map it.
+ */
 public class ResultExporter {
     
-     // Export results to plain text file
-     
-    public static void exportToText(List<PortResult> results, String host, 
-                                    long durationMs, String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            writer.println("═══════════════════════════════════════════════");
-            writer.println("           PORT SCAN REPORT");
-            writer.println("═══════════════════════════════════════════════");
-            writer.println();
-            writer.println("Target Host: " + host);
-            writer.println("Scan Date: " + getCurrentTimestamp());
-            writer.println("Duration: " + durationMs + " ms");
-            writer.println("Total Open Ports: " + results.size());
-            writer.println();
-            writer.println("───────────────────────────────────────────────");
-            writer.println("OPEN PORTS:");
-            writer.println("───────────────────────────────────────────────");
-            
-            for (PortResult result : results) {
-                writer.println(result.toString());
+    /**
+     * Export formats, in the order they are listed in messages
+     */
+    static final List<String> FORMATS = List.of("txt", "csv", "json", "ndjson", "xml", "bin");
+    
+    /**
+     * Write results in every format of files (format to file name).
+     * Results are expected sorted by host, as a scan returns them.
+     */
+    public static void export(List<PortResult> results, String target, long durationMs,
+                              Map<String, String> files, boolean gzip) {
+        export(results, null, target, durationMs, files, gzip);
+    }
+    
+    /**
+     * Same, with the scan's closed and filtered ports (may be null), which
+     * the txt, json, ndjson and xml reports summarize per host
+     */
+    public static void export(List<PortResult> results, PortStates portStates, String target,
+                              long durationMs, Map<String, String> files, boolean gzip) {
+        List<PortResult> ordered = groupedByHost(results);
+        int hosts = countHosts(ordered);
+        int open = 0;
+        for (PortResult result : ordered) {
+            if (!result.isClosedOrFiltered()) {
+                open++;
+            }
+        }
+        
+        List<ReportFormat> formats = new ArrayList<>();
+        List<ReportWriter> writers = new ArrayList<>();
+        List<String> written = new ArrayList<>();
+        BinaryResultWriter binary = null;
+        try {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                if (file.getKey().equals("bin")) {
+                    binary = new BinaryResultWriter(file.getValue(), target);
+                    binary.setDuration(durationMs);
+                } else {
+                    ReportFormat format = ReportFormat.forName(file.getKey());
+                    if (format == null) {
+                        throw new IllegalArgumentException("Unknown export format " + file.getKey());
+                    }
+                    ReportWriter writer = new ReportWriter(file.getValue(), gzip);
+                    format.portStates = portStates;
+                    formats.add(format);
+                    writers.add(writer);
+                    format.begin(writer, target, durationMs, hosts, open);
+                }
+                written.add(file.getValue());
             }
             
-            writer.println();
-            writer.println("═══════════════════════════════════════════════");
-            writer.println("End of Report");
-            writer.println("═══════════════════════════════════════════════");
-            
-            System.out.println("✓ Results exported to: " + filename);
-            
-        } catch (IOException e) {
+            String current = null;
+            for (PortResult result : ordered) {
+                String host = hostOf(result, target);
+                if (!host.equals(current)) {
+                    for (int i = 0; i < formats.size(); i++) {
+                        if (current != null) {
+                            formats.get(i).endHost(writers.get(i));
+                        }
+                        formats.get(i).beginHost(writers.get(i), host);
+                    }
+                    current = host;
+                }
+                for (int i = 0; i < formats.size(); i++) {
+                    formats.get(i).port(writers.get(i), host, result);
+                }
+                if (binary != null) {
+                    binary.accept(result);
+                }
+            }
+            for (int i = 0; i < formats.size(); i++) {
+                if (current != null) {
+                    formats.get(i).endHost(writers.get(i));
+                }
+                formats.get(i).end(writers.get(i));
+            }
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println("✗ Failed to export results: " + e.getMessage());
+            written.clear();
+        } finally {
+            for (ReportWriter writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    System.err.println("✗ Failed to export results: " + e.getMessage());
+                    written.clear();
+                }
+            }
+            if (binary != null) {
+                binary.close();
+            }
+        }
+        
+        for (String filename : written) {
+            System.out.println("✓ Results exported to: " + filename);
         }
     }
     
+     // Export results to plain text file
+     
+    public static void exportToText(List<PortResult> results, String host, 
+                                    long durationMs, String filename) {
+        export(results, host, durationMs, Map.of("txt", filename), false);
+    }
+    
     /**
      * Export results to CSV format
      */
     public static void exportToCSV(List<PortResult> results, String host, 
                                    long durationMs, String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            // CSV Header
-            writer.println("Port,Service,Banner,Status");
-            
-            // CSV Data
-            for (PortResult result : results) {
-                writer.printf("%d,%s,\"%s\",OPEN%n",
-                    result.getPort(),
-                    result.getServiceName(),
-                    result.getBanner().replace("\"", "\"\"") // Escape quotes
-                );
-            }
-            
-            System.out.println("✓ Results exported to CSV: " + filename);
-            
-        } catch (IOException e) {
-            System.err.println("✗ Failed to export CSV: " + e.getMessage());
-        }
+        export(results, host, durationMs, Map.of("csv", filename), false);
     }
     
     /**
@@ -72,51 +138,77 @@ public class ResultExporter {
      */
     public static void exportToJSON(List<PortResult> results, String host, 
                                     long durationMs, String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            writer.println("{");
-            writer.println("  \"scan_info\": {");
-            writer.println("    \"target\": \"" + host + "\",");
-            writer.println("    \"timestamp\": \"" + getCurrentTimestamp() + "\",");
-            writer.println("    \"duration_ms\": " + durationMs + ",");
-            writer.println("    \"total_open_ports\": " + results.size());
-            writer.println("  },");
-            writer.println("  \"open_ports\": [");
-            
-            for (int i = 0; i < results.size(); i++) {
-                PortResult result = results.get(i);
-                writer.println("    {");
-                writer.println("      \"port\": " + result.getPort() + ",");
-                writer.println("      \"service\": \"" + result.getServiceName() + "\",");
-                writer.println("      \"banner\": \"" + escapeJson(result.getBanner()) + "\"");
-                writer.print("    }");
-                if (i < results.size() - 1) {
-                    writer.println(",");
-                } else {
-                    writer.println();
+        export(results, host, durationMs, Map.of("json", filename), false);
+    }
+    
+    /**
+     * Export results in the compact binary format, see BinaryResultWriter
+     */
+    public static void exportToBinary(List<PortResult> results, String host, 
+                                      long durationMs, String filename) {
+        export(results, host, durationMs, Map.of("bin", filename), false);
+    }
+    
+    /**
+     * The results with each host's ports together. Sorted results (the
+     * usual case) are returned as they are.
+     */
+    private static List<PortResult> groupedByHost(List<PortResult> results) {
+        Set<String> seen = new HashSet<>();
+        String current = null;
+        for (PortResult result : results) {
+            String host = result.getHost() == null ? "" : result.getHost();
+            if (!host.equals(current)) {
+                if (!seen.add(host)) {
+                    List<PortResult> grouped = new ArrayList<>(results.size());
+                    for (List<PortResult> ports : groupByHost(results).values()) {
+                        grouped.addAll(ports);
+                    }
+                    return grouped;
                 }
+                current = host;
             }
-            
-            writer.println("  ]");
-            writer.println("}");
-            
-            System.out.println("✓ Results exported to JSON: " + filename);
-            
-        } catch (IOException e) {
-            System.err.println("✗ Failed to export JSON: " + e.getMessage());
         }
+        return results;
     }
     
-    private static String getCurrentTimestamp() {
+    /**
+     * Hosts with an open port among grouped results
+     */
+    private static int countHosts(List<PortResult> results) {
+        int hosts = 0;
+        String counted = null;
+        for (PortResult result : results) {
+            String host = result.getHost() == null ? "" : result.getHost();
+            if (!host.equals(counted) && !result.isClosedOrFiltered()) {
+                hosts++;
+                counted = host;
+            }
+        }
+        return hosts;
+    }
+    
+    /**
+     * Split results into per-host lists, keeping the order of the input.
+     * Results are expected to be sorted, so each host forms one run.
+     */
+    static Map<String, List<PortResult>> groupByHost(List<PortResult> results) {
+        Map<String, List<PortResult>> byHost = new LinkedHashMap<>();
+        for (PortResult result : results) {
+            String key = result.getHost() == null ? "" : result.getHost();
+            byHost.computeIfAbsent(key, k -> new ArrayList<>()).add(result);
+        }
+        return byHost;
+    }
+    
+    private static String hostOf(PortResult result, String defaultHost) {
+        return result.getHost() != null ? result.getHost() : defaultHost;
+    }
+    
+    static String getCurrentTimestamp() {
         return LocalDateTime.now().format(
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
         );
     }
-    
-    private static String escapeJson(String str) {
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r");
-    }
 
 }
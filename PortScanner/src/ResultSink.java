@@ -0,0 +1,13 @@
+/**
+ * Receives open ports as soon as a scan finds them
+ */
+public interface ResultSink {
+
+    void accept(PortResult result);
+
+    /**
+     * Called once after the last result. Sinks holding files flush here.
+     */
+    default void close() {
+    }
+}
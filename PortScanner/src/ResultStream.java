@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded queue between the scan engines and the registered sinks.
+ *
+ * Engines publish open ports from any thread; a single dispatcher thread
+ * hands them to every sink in arrival order, so sinks never need to be
+ * thread safe. When the sinks fall behind, the queue fills up and
+ * publish() blocks, which slows the probes down instead of buffering
+ * without limit.
+ */
+public class ResultStream {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final PortResult END = new PortResult(null, -1, "", "");
+
+    private final BlockingQueue<PortResult> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<ResultSink> sinks = new ArrayList<>();
+    private final Thread dispatcher;
+    private Thread shutdownHook;
+    private boolean closed;
+
+    public ResultStream() {
+        dispatcher = new Thread(this::dispatch, "result-stream");
+        dispatcher.setDaemon(true);
+    }
+
+    /**
+     * Register a sink. Must be called before start().
+     */
+    public ResultStream addSink(ResultSink sink) {
+        sinks.add(sink);
+        return this;
+    }
+
+    public ResultStream start() {
+        dispatcher.start();
+        return this;
+    }
+
+    /**
+     * Also close the stream when the JVM exits, so an interrupted scan
+     * still leaves valid partial files. close() removes the hook again.
+     */
+    public ResultStream closeOnExit() {
+        shutdownHook = new Thread(this::close, "result-stream-exit");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        return this;
+    }
+
+    public void publish(PortResult result) {
+        try {
+            queue.put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deliver everything still queued, then close the sinks.
+     * Safe to call more than once, e.g. from a shutdown hook.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down: the hook finds the stream closed
+            }
+        }
+        try {
+            queue.put(END);
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                PortResult result = queue.take();
+                if (result == END) {
+                    break;
+                }
+                for (ResultSink sink : sinks) {
+                    sink.accept(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (ResultSink sink : sinks) {
+                sink.close();
+            }
+        }
+    }
+}
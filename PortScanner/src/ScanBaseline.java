@@ -0,0 +1,288 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Open ports from an earlier scan, loaded from a JSON export.
+ *
+ * Understands every JSON layout this scanner has written: the original
+ * single-host report (scan_info.target + open_ports), the per-host report
+ * (hosts[].open_ports) and the partial streaming file (open_ports entries
+ * carrying their own host).
+ */
+public class ScanBaseline {
+
+    private final Map<String, Map<Integer, PortResult>> byHost = new LinkedHashMap<>();
+
+    public static ScanBaseline load(String filename) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+        Object root = new JsonParser(text).parse();
+        if (!(root instanceof Map)) {
+            throw new IOException("Not a scan result file: " + filename);
+        }
+        Map<?, ?> report = (Map<?, ?>) root;
+
+        String defaultHost = null;
+        if (report.get("scan_info") instanceof Map) {
+            Object target = ((Map<?, ?>) report.get("scan_info")).get("target");
+            defaultHost = target instanceof String ? (String) target : null;
+        }
+
+        ScanBaseline baseline = new ScanBaseline();
+        if (report.get("hosts") instanceof List) {
+            for (Object entry : (List<?>) report.get("hosts")) {
+                Map<?, ?> host = (Map<?, ?>) entry;
+                baseline.addPorts((List<?>) host.get("open_ports"), (String) host.get("host"));
+            }
+        }
+        if (report.get("open_ports") instanceof List) {
+            baseline.addPorts((List<?>) report.get("open_ports"), defaultHost);
+        }
+        return baseline;
+    }
+
+    private void addPorts(List<?> ports, String host) {
+        if (ports == null) {
+            return;
+        }
+        for (Object entry : ports) {
+            Map<?, ?> port = (Map<?, ?>) entry;
+            if (port.get("protocol") instanceof String && !PortResult.TCP.equals(port.get("protocol"))) {
+                continue; // baselines compare TCP scans only
+            }
+            if (PortResult.CLOSED.equals(port.get("state")) || PortResult.FILTERED.equals(port.get("state"))) {
+                continue; // listed by --all-ports
+            }
+            String portHost = port.get("host") instanceof String ? (String) port.get("host") : host;
+            int number = ((Number) port.get("port")).intValue();
+            String service = port.get("service") instanceof String ? (String) port.get("service") : "";
+            String banner = port.get("banner") instanceof String ? (String) port.get("banner") : "";
+            byHost.computeIfAbsent(portHost, h -> new LinkedHashMap<>())
+                  .put(number, new PortResult(portHost, number, banner, service));
+        }
+    }
+
+    public boolean isEmpty() {
+        return byHost.isEmpty();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Integer, PortResult> ports : byHost.values()) {
+            size += ports.size();
+        }
+        return size;
+    }
+
+    /**
+     * Previous result for a host and port, or null if it was not open
+     */
+    public PortResult get(String host, int port) {
+        Map<Integer, PortResult> ports = byHost.get(host);
+        return ports == null ? null : ports.get(port);
+    }
+
+    public List<PortResult> getAll() {
+        List<PortResult> all = new ArrayList<>();
+        for (Map<Integer, PortResult> ports : byHost.values()) {
+            all.addAll(ports.values());
+        }
+        return all;
+    }
+
+    /**
+     * Comma separated target specification covering every baseline host
+     */
+    public String getHostSpec() {
+        return String.join(",", byHost.keySet());
+    }
+
+    /**
+     * Every port that was open on any baseline host, ascending
+     */
+    public int[] getPorts() {
+        TreeSet<Integer> ports = new TreeSet<>();
+        for (Map<Integer, PortResult> hostPorts : byHost.values()) {
+            ports.addAll(hostPorts.keySet());
+        }
+        return ports.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Just enough JSON to read our own exports: objects, arrays, strings,
+     * numbers, booleans and null.
+     */
+    private static class JsonParser {
+        private final String text;
+        private int pos;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        Object parse() throws IOException {
+            Object value = readValue();
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw error("Trailing data");
+            }
+            return value;
+        }
+
+        private Object readValue() throws IOException {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                case 't':
+                    expect("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    expect("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    expect("null");
+                    return null;
+                default:
+                    return readNumber();
+            }
+        }
+
+        private Map<String, Object> readObject() throws IOException {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                if (peek() != ':') {
+                    throw error("Expected ':'");
+                }
+                pos++;
+                object.put(key, readValue());
+                skipWhitespace();
+                char c = peek();
+                pos++;
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> readArray() throws IOException {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                char c = peek();
+                pos++;
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            if (peek() != '"') {
+                throw error("Expected string");
+            }
+            pos++;
+            StringBuilder sb = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(escaped);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Number readNumber() throws IOException {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String number = text.substring(start, pos);
+            try {
+                if (number.contains(".") || number.contains("e") || number.contains("E")) {
+                    return Double.parseDouble(number);
+                }
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number '" + number + "'");
+            }
+        }
+
+        private void expect(String word) throws IOException {
+            if (!text.startsWith(word, pos)) {
+                throw error("Expected " + word);
+            }
+            pos += word.length();
+        }
+
+        private char peek() throws IOException {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException("Invalid JSON at offset " + pos + ": " + message);
+        }
+    }
+}
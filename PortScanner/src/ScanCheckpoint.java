@@ -0,0 +1,244 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-disk progress of a scan so it can be resumed after the JVM dies.
+ *
+ * A checkpoint directory holds:
+ *   scan.meta   the target specification and port list it belongs to
+ *   done.bits   memory-mapped bitmap, one bit per (host, port) probe
+ *   open.log    append-only log of open ports found so far
+ *
+ * Marking a probe done is a single atomic OR on mapped memory; the kernel
+ * writes the pages back, so a crashed JVM loses nothing already marked.
+ * Open ports are logged before their bit is set, so a port can at worst
+ * be probed and logged twice, never lost.
+ */
+public class ScanCheckpoint implements AutoCloseable {
+
+    private static final String META_FILE = "scan.meta";
+    private static final String BITMAP_FILE = "done.bits";
+    private static final String LOG_FILE = "open.log";
+
+    // Each mapping covers 2^30 bytes, i.e. 2^33 probes
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final File directory;
+    private final long totalProbes;
+    private final MappedByteBuffer[] chunks;
+    private final FileOutputStream log;
+
+    private ScanCheckpoint(File directory, long totalProbes) throws IOException {
+        this.directory = directory;
+        this.totalProbes = totalProbes;
+
+        long bytes = ((totalProbes + 63) / 64) * 8;
+        int chunkCount = (int) Math.max(1, (bytes + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        chunks = new MappedByteBuffer[chunkCount];
+        try (FileChannel channel = FileChannel.open(new File(directory, BITMAP_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < chunkCount; i++) {
+                long offset = i * CHUNK_BYTES;
+                long size = Math.min(CHUNK_BYTES, bytes - offset);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, Math.max(8, size));
+            }
+        }
+        log = new FileOutputStream(new File(directory, LOG_FILE), true);
+    }
+
+    /**
+     * Start a fresh checkpoint, discarding any previous one in the directory
+     */
+    public static ScanCheckpoint create(File directory, String scanSignature, long totalProbes)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create checkpoint directory " + directory);
+        }
+        new File(directory, BITMAP_FILE).delete();
+        new File(directory, LOG_FILE).delete();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(new File(directory, META_FILE)))) {
+            writer.println(scanSignature);
+            writer.println(totalProbes);
+        }
+        return new ScanCheckpoint(directory, totalProbes);
+    }
+
+    /**
+     * Reopen an existing checkpoint. The scan must be the same one it was
+     * created for, otherwise the bitmap would mark the wrong probes.
+     */
+    public static ScanCheckpoint resume(File directory, String scanSignature, long totalProbes)
+            throws IOException {
+        File meta = new File(directory, META_FILE);
+        if (!meta.isFile()) {
+            throw new IOException("No checkpoint found in " + directory);
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(meta))) {
+            String signature = reader.readLine();
+            String total = reader.readLine();
+            if (!scanSignature.equals(signature) || !String.valueOf(totalProbes).equals(total)) {
+                throw new IllegalArgumentException("Checkpoint in " + directory
+                    + " belongs to a different scan (" + signature + ")");
+            }
+        }
+        return new ScanCheckpoint(directory, totalProbes);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean isDone(long index) {
+        long word = (long) LONGS.getVolatile(chunk(index), offset(index));
+        return (word & (1L << (index & 63))) != 0;
+    }
+
+    public void markDone(long index) {
+        LONGS.getAndBitwiseOr(chunk(index), offset(index), 1L << (index & 63));
+    }
+
+    /**
+     * Number of probes already marked done
+     */
+    public long getCompleted() {
+        long completed = 0;
+        for (MappedByteBuffer chunk : chunks) {
+            for (int i = 0; i + 8 <= chunk.capacity(); i += 8) {
+                completed += Long.bitCount((long) LONGS.get(chunk, i));
+            }
+        }
+        return Math.min(completed, totalProbes);
+    }
+
+    /**
+     * Append an open port; called before the probe is marked done
+     */
+    public synchronized void logOpen(PortResult result) {
+        String line = result.getHost() + "\t" + result.getPort() + "\t"
+                    + result.getServiceName() + "\t" + escape(result.getBanner())
+                    + extraFields(result) + "\n";
+        try {
+            log.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("✗ Failed to write checkpoint log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Open ports recorded by earlier runs
+     */
+    public List<PortResult> loadOpenPorts() throws IOException {
+        List<PortResult> results = new ArrayList<>();
+        File file = new File(directory, LOG_FILE);
+        if (!file.isFile()) {
+            return results;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // A torn last line from a crash is simply skipped
+                PortResult result = parseFields(line.split("\t", -1), 0);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        log.close();
+    }
+
+    private MappedByteBuffer chunk(long index) {
+        return chunks[(int) ((index >>> 3) >>> CHUNK_SHIFT)];
+    }
+
+    private static int offset(long index) {
+        return (int) (((index >>> 6) << 3) & (CHUNK_BYTES - 1));
+    }
+
+    /**
+     * Tab separated fields to append to "host port service banner": protocol
+     * and state, then the TLS details if there are any. Empty for an open
+     * TCP port without TLS, the only kind older lines record.
+     */
+    static String extraFields(PortResult result) {
+        TlsInfo tls = result.getTls();
+        if (tls == null) {
+            return result.isTcp() && PortResult.OPEN.equals(result.getState()) ? ""
+                 : "\t" + result.getProtocol() + "\t" + result.getState();
+        }
+        return "\t" + result.getProtocol() + "\t" + result.getState()
+             + "\t" + tls.getProtocol() + "\t" + tls.getCipher() + "\t" + escape(tls.getSubject())
+             + "\t" + tls.getNotAfter() + "\t" + tls.getSha256();
+    }
+
+    /**
+     * The result written as host, port, service, escaped banner and
+     * extraFields, starting at fields[from]; null for a torn line
+     */
+    static PortResult parseFields(String[] fields, int from) {
+        int count = fields.length - from;
+        if (count != 4 && count != 6 && count != 11) {
+            return null;
+        }
+        int port;
+        try {
+            port = Integer.parseInt(fields[from + 1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        String host = fields[from];
+        String service = fields[from + 2];
+        String banner = unescape(fields[from + 3]);
+        if (count == 4) {
+            return new PortResult(host, port, banner, service);
+        }
+        TlsInfo tls = count == 6 ? null
+            : new TlsInfo(fields[from + 6], fields[from + 7], unescape(fields[from + 8]),
+                          fields[from + 9], fields[from + 10]);
+        return new PortResult(host, port, banner, service, fields[from + 4], fields[from + 5], tls);
+    }
+
+    static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\t", "\\t")
+                   .replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,248 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Splits one scan into shards and farms them out to ScanWorker processes.
+ *
+ * The shards are slices of the scan's seeded random order (--shard i/n),
+ * so each worker gets an even mix of hosts and ports and together they
+ * cover every probe exactly once. Workers connect over TCP and speak a
+ * line protocol, fields separated by tabs:
+ *
+ *   coordinator: SCAN shard args...     run the scan given by the command line
+ *                BYE                    no shards left, disconnect
+ *   worker:      HELLO
+ *                OPEN shard host port service banner [protocol state [tls...]]
+ *                                       as in the checkpoint log (ScanCheckpoint)
+ *                ALIVE                  heartbeat while a shard runs
+ *                DONE shard
+ *                FAIL shard message
+ *
+ * A worker that disconnects or stays silent for WORKER_TIMEOUT_MS loses
+ * its shard, which goes back to the front of the queue for the next free
+ * worker. Open ports it reported before dying are kept; the final merge
+ * drops the duplicates from the rerun.
+ */
+public class ScanCoordinator {
+    static final int HEARTBEAT_MS = 2000;
+    private static final int WORKER_TIMEOUT_MS = 15000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final InetSocketAddress address;
+    private final List<String> scanArgs;
+    private final long seed;
+    private final int shards;
+    private final boolean showProgress;
+
+    private final LinkedBlockingDeque<Integer> pending = new LinkedBlockingDeque<>();
+    private final int[] attempts;
+    private final CountDownLatch finished;
+    private final List<PortResult> results = Collections.synchronizedList(new ArrayList<>());
+    private Consumer<PortResult> onOpen;
+
+    /**
+     * @param scanArgs the scan's command line without local-only options;
+     *                 the seed, the shard and -q are added per shard
+     */
+    public ScanCoordinator(InetSocketAddress address, List<String> scanArgs, long seed,
+                           int shards, boolean showProgress) {
+        this.address = address;
+        this.scanArgs = scanArgs;
+        this.seed = seed;
+        this.shards = shards;
+        this.showProgress = showProgress;
+        this.attempts = new int[shards];
+        this.finished = new CountDownLatch(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            pending.add(shard);
+        }
+    }
+
+    /**
+     * Serve shards until every one is done (or has failed MAX_ATTEMPTS
+     * times), passing open ports to onOpen as workers report them
+     *
+     * @return every open port reported, possibly with duplicates
+     */
+    public List<PortResult> run(Consumer<PortResult> onOpen) throws IOException, InterruptedException {
+        this.onOpen = onOpen;
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(address);
+            System.out.println("Coordinator: listening on " + address.getHostString() + ":"
+                               + server.getLocalPort() + ", " + shards + " shards");
+            System.out.println("Start workers with: java PortScanner --worker "
+                               + address.getHostString() + ":" + server.getLocalPort());
+
+            Thread acceptor = new Thread(() -> accept(server), "coordinator-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            finished.await();
+        }
+        return results;
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread thread = new Thread(() -> serveWorker(socket), "coordinator-worker");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // Closed once the scan is over
+            }
+        }
+    }
+
+    /**
+     * Hand shards to one worker until none are left or the worker is lost
+     */
+    private void serveWorker(Socket socket) {
+        String worker = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        Integer shard = null;
+        try (socket) {
+            socket.setSoTimeout(WORKER_TIMEOUT_MS);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            if (!"HELLO".equals(in.readLine())) {
+                return;
+            }
+            progress("Worker " + worker + " connected");
+
+            while ((shard = nextShard()) != null) {
+                StringBuilder command = new StringBuilder("SCAN\t").append(shard);
+                for (String arg : shardArgs(shard)) {
+                    command.append('\t').append(ScanCheckpoint.escape(arg));
+                }
+                send(out, command.toString());
+                runShard(shard, worker, in);
+                shard = null;
+            }
+            send(out, "BYE");
+        } catch (SocketTimeoutException e) {
+            lost(shard, worker, "no heartbeat for " + WORKER_TIMEOUT_MS + " ms");
+        } catch (IOException e) {
+            lost(shard, worker, e instanceof SocketException ? "connection lost" : e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lost(shard, worker, "interrupted");
+        }
+    }
+
+    /**
+     * Read the worker's messages for one shard until it is done or failed
+     */
+    private void runShard(int shard, String worker, BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] fields = line.split("\t", -1);
+            switch (fields[0]) {
+                case "OPEN":
+                    PortResult result = ScanCheckpoint.parseFields(fields, 2);
+                    if (result != null) {
+                        results.add(result);
+                        if (onOpen != null) {
+                            onOpen.accept(result);
+                        }
+                    }
+                    break;
+                case "DONE":
+                    finished.countDown();
+                    progress("Shard " + (shard + 1) + "/" + shards + " done by " + worker + " ("
+                             + (shards - finished.getCount()) + "/" + shards + " complete)");
+                    return;
+                case "FAIL":
+                    String message = fields.length > 2 ? ScanCheckpoint.unescape(fields[2]) : "";
+                    System.err.println("✗ Shard " + (shard + 1) + " failed on " + worker
+                                       + ": " + message);
+                    retry(shard);
+                    return;
+                default:
+                    // ALIVE, or something newer than this coordinator
+                    break;
+            }
+        }
+        throw new SocketException("closed");
+    }
+
+    /**
+     * The next shard to run, waiting while others are still running in
+     * case they come back; null once all are finished
+     */
+    private Integer nextShard() throws InterruptedException {
+        while (finished.getCount() > 0) {
+            Integer shard = pending.poll(200, TimeUnit.MILLISECONDS);
+            if (shard != null) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    private List<String> shardArgs(int shard) {
+        List<String> args = new ArrayList<>(scanArgs);
+        args.add("--seed");
+        args.add(String.valueOf(seed));
+        args.add("--shard");
+        args.add((shard + 1) + "/" + shards);
+        args.add("-q");
+        return args;
+    }
+
+    private void lost(Integer shard, String worker, String reason) {
+        if (shard == null) {
+            progress("Worker " + worker + " disconnected");
+            return;
+        }
+        System.err.println("✗ Worker " + worker + " lost (" + reason + "), reassigning shard "
+                           + (shard + 1));
+        retry(shard);
+    }
+
+    /**
+     * Put a shard back at the front of the queue, or give up on it after
+     * MAX_ATTEMPTS so a shard that always fails cannot stall the scan
+     */
+    private void retry(int shard) {
+        boolean giveUp;
+        synchronized (attempts) {
+            giveUp = ++attempts[shard] >= MAX_ATTEMPTS;
+        }
+        if (giveUp) {
+            System.err.println("✗ Giving up on shard " + (shard + 1) + " after "
+                               + MAX_ATTEMPTS + " attempts");
+            finished.countDown();
+        } else {
+            pending.addFirst(shard);
+        }
+    }
+
+    private void progress(String message) {
+        if (showProgress) {
+            System.out.println("[Coordinator] " + message);
+        }
+    }
+
+    static void send(OutputStream out, String line) throws IOException {
+        synchronized (out) {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,430 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long running scanner that takes scan jobs over a local HTTP API.
+ *
+ *   POST /scans            body is a command line, e.g. "10.0.0.0/24 1 1024 -b",
+ *                          sent as Content-Type text/x-scan-args;
+ *                          answers with the job id
+ *   GET  /scans            one line per job
+ *   GET  /scans/{id}       job status and the open ports found so far;
+ *                          ?from=N skips the first N, so a client polling
+ *                          for new results passes the count it already has
+ *
+ * Every job parses its command line into its own ScanRequest and runs as
+ * its own ScanEngine scan, so options never leak between jobs. Probes of all jobs run on one pool of
+ * worker threads started with the daemon (and JIT-compiled by earlier
+ * jobs); the workers take one task from each busy job in turn, so a large
+ * job cannot starve a small one.
+ *
+ * The API only listens on loopback, but any web page the user opens can
+ * reach loopback too. Requests carrying an Origin header or a Host other
+ * than loopback come from a browser and are refused, and a page cannot
+ * send the non-simple content type without a CORS preflight, which gets
+ * no answer. Options that read or write local files (exports, --stream,
+ * checkpoints, --baseline, @file targets) are refused as well; results
+ * are read with GET.
+ */
+public class ScanDaemon {
+    private static final int DEFAULT_PORT = 8765;
+    private static final int DEFAULT_WORKERS = 200;
+    private static final int MAX_WORKERS = 500;
+    private static final int MAX_FINISHED_JOBS = 100;
+    private static final String CONTENT_TYPE = "text/x-scan-args";
+    private static final Set<String> FILE_OPTIONS = Set.of(
+        "-o", "--output", "--stream", "--checkpoint", "--resume", "--baseline");
+
+    private final FairExecutor workers;
+    private final Map<Integer, Job> jobs = new LinkedHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private HttpServer server;
+
+    public ScanDaemon(int workerCount) {
+        this.workers = new FairExecutor(workerCount);
+    }
+
+    /**
+     * java PortScanner --daemon [port] [-c workers]
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int workerCount = DEFAULT_WORKERS;
+        for (int i = 1; i < args.length; i++) {
+            if ((args[i].equals("-c") || args[i].equals("--threads")) && i + 1 < args.length) {
+                workerCount = Math.max(1, Math.min(MAX_WORKERS, Integer.parseInt(args[++i])));
+            } else if (args[i].matches("\\d+")) {
+                port = Math.min(65535, Integer.parseInt(args[i]));
+            }
+        }
+        try {
+            new ScanDaemon(workerCount).serve(port);
+        } catch (IOException e) {
+            System.err.println("✗ Failed to start daemon: " + e.getMessage());
+        }
+    }
+
+    public void serve(int port) throws IOException {
+        // Load the service and probe tables now rather than in the first job
+        ServiceMapper.getServiceName(80);
+        ServiceProbe.forPort(80);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/scans", this::handle);
+        server.start();
+        System.out.println("Daemon: http://127.0.0.1:" + server.getAddress().getPort()
+                           + "/scans (" + workers.size() + " workers)");
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        workers.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!isLocalClient(exchange)) {
+                respond(exchange, 403, "✗ Requests from web pages are not accepted\n");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/scans") || path.equals("/scans/")) {
+                if (method.equals("POST")) {
+                    String type = exchange.getRequestHeaders().getFirst("Content-Type");
+                    if (type == null || !type.toLowerCase().startsWith(CONTENT_TYPE)) {
+                        respond(exchange, 415, "✗ Send the command line as Content-Type: "
+                                               + CONTENT_TYPE + "\n");
+                        return;
+                    }
+                    String line = new String(exchange.getRequestBody().readAllBytes(),
+                                             StandardCharsets.UTF_8).trim();
+                    String[] args = line.isEmpty() ? new String[0] : line.split("\\s+");
+                    String refused = fileArgument(args);
+                    Job job = refused == null ? submit(args) : null;
+                    if (refused != null) {
+                        respond(exchange, 403, "✗ Not available over the API: " + refused + "\n");
+                    } else if (job == null) {
+                        respond(exchange, 400, "✗ Invalid scan arguments: " + line + "\n");
+                    } else {
+                        respond(exchange, 201, job.id + "\n");
+                    }
+                } else if (method.equals("GET")) {
+                    respond(exchange, 200, listJobs());
+                } else {
+                    respond(exchange, 405, "✗ Use GET or POST\n");
+                }
+                return;
+            }
+
+            Job job = null;
+            String id = path.substring("/scans/".length());
+            if (id.matches("\\d{1,9}")) {
+                synchronized (jobs) {
+                    job = jobs.get(Integer.parseInt(id));
+                }
+            }
+            if (job == null) {
+                respond(exchange, 404, "✗ No such job: " + id + "\n");
+            } else if (!method.equals("GET")) {
+                respond(exchange, 405, "✗ Use GET\n");
+            } else {
+                respond(exchange, 200, job.render(parseFrom(exchange.getRequestURI().getQuery())));
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "✗ " + e.getMessage() + "\n");
+        }
+    }
+
+    /**
+     * Browsers send an Origin header with every POST and cross-origin
+     * request, and a page reached through a rebound DNS name sends that
+     * name as Host
+     */
+    private static boolean isLocalClient(HttpExchange exchange) {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            return false;
+        }
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null) {
+            return true;
+        }
+        host = host.replaceFirst(":\\d*$", "");
+        return host.equals("localhost") || host.equals("127.0.0.1") || host.equals("[::1]");
+    }
+
+    /**
+     * The first argument that would make the scan read or write a local
+     * file, null if there is none
+     */
+    private static String fileArgument(String[] args) {
+        for (String arg : args) {
+            if (FILE_OPTIONS.contains(arg)) {
+                return arg;
+            }
+            for (String part : arg.split(",")) {
+                if (part.startsWith("@")) {
+                    return part;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse the command line into a request and start it on the shared
+     * workers, or return null if the arguments are not a valid scan
+     */
+    private Job submit(String[] args) throws IOException {
+        ScanRequest request = new PortScanner().parseArguments(args);
+        if (request == null) {
+            return null;
+        }
+        try {
+            request.showProgress(false).validate();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        Job job = new Job(nextId.getAndIncrement(), String.join(" ", args), request);
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            dropOldJobs();
+        }
+        new ScanEngine(workers.newLane()).submit(request, job::found)
+                                         .whenComplete(job::finished);
+        return job;
+    }
+
+    /**
+     * Forget the oldest finished jobs beyond MAX_FINISHED_JOBS
+     */
+    private void dropOldJobs() {
+        int finished = 0;
+        for (Job job : jobs.values()) {
+            if (job.isFinished()) {
+                finished++;
+            }
+        }
+        Iterator<Job> it = jobs.values().iterator();
+        while (finished > MAX_FINISHED_JOBS && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    private String listJobs() {
+        StringBuilder out = new StringBuilder();
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                out.append(job.id).append(' ').append(job.state)
+                   .append(' ').append(job.foundCount()).append(" open  ")
+                   .append(job.args).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static int parseFrom(String query) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("from=") && param.substring(5).matches("\\d{1,9}")) {
+                    return Integer.parseInt(param.substring(5));
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * One submitted scan and the open ports it has found so far, in the
+     * order they were found
+     */
+    private static class Job {
+        final int id;
+        final String args;
+        final ScanRequest request;
+        private final List<PortResult> results = new ArrayList<>();
+        private final long started = System.currentTimeMillis();
+        private volatile String state = "running";
+        private volatile String error;
+        private volatile long duration = -1;
+
+        Job(int id, String args, ScanRequest request) {
+            this.id = id;
+            this.args = args;
+            this.request = request;
+        }
+
+        /**
+         * Completion of the job's scan: record the outcome
+         */
+        void finished(ScanReport report, Throwable failure) {
+            if (failure == null) {
+                state = "done";
+            } else {
+                error = ScanEngine.cause(failure).getMessage();
+                state = "failed";
+            }
+            duration = System.currentTimeMillis() - started;
+        }
+
+        void found(PortResult result) {
+            synchronized (results) {
+                results.add(result);
+            }
+        }
+
+        int foundCount() {
+            synchronized (results) {
+                return results.size();
+            }
+        }
+
+        boolean isFinished() {
+            return !state.equals("running");
+        }
+
+        /**
+         * Status as "name value" lines, then the results from index from on,
+         * one tab separated line each
+         */
+        String render(int from) {
+            StringBuilder out = new StringBuilder();
+            out.append("id ").append(id).append('\n');
+            out.append("state ").append(state).append('\n');
+            out.append("args ").append(args).append('\n');
+            long elapsed = duration >= 0 ? duration : System.currentTimeMillis() - started;
+            out.append("elapsed_ms ").append(elapsed).append('\n');
+            if (error != null) {
+                out.append("error ").append(error).append('\n');
+            }
+            ScanMetrics metrics = request.getMetrics();
+            if (metrics != null) {
+                out.append(metrics.render());
+            }
+            synchronized (results) {
+                out.append("found ").append(results.size()).append('\n');
+                for (int i = from; i < results.size(); i++) {
+                    PortResult result = results.get(i);
+                    out.append("result ").append(result.getHost()).append('\t')
+                       .append(result.getPort()).append('\t')
+                       .append(result.getServiceName()).append('\t')
+                       .append(result.getBanner().replace('\t', ' ').replace('\n', ' '))
+                       .append(ScanCheckpoint.extraFields(result))
+                       .append('\n');
+                }
+            }
+            return out.toString();
+        }
+    }
+
+    /**
+     * Worker pool shared by all jobs. Each job submits through its own
+     * lane; idle workers serve the lanes with queued tasks round robin,
+     * one task at a time. A job queues at most twice its -c tasks (see
+     * ScanEngine.Scan.executeScan), so lanes stay short.
+     */
+    private static class FairExecutor {
+        private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private boolean shutdown;
+
+        FairExecutor(int size) {
+            for (int i = 0; i < size; i++) {
+                Thread thread = new Thread(this::work, "scan-worker-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+
+        int size() {
+            return threads.size();
+        }
+
+        /**
+         * A new lane, the executor one job submits its tasks through
+         */
+        Executor newLane() {
+            return new Lane();
+        }
+
+        synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+
+        private void work() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    while (ready.isEmpty() && !shutdown) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (shutdown) {
+                        return;
+                    }
+                    Lane lane = ready.poll();
+                    task = lane.tasks.poll();
+                    if (!lane.tasks.isEmpty()) {
+                        ready.add(lane);
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("✗ Scan task failed: " + e.getMessage());
+                }
+            }
+        }
+
+        private class Lane implements Executor {
+            final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+            @Override
+            public void execute(Runnable task) {
+                synchronized (FairExecutor.this) {
+                    if (tasks.isEmpty()) {
+                        ready.add(this);
+                    }
+                    tasks.add(task);
+                    FairExecutor.this.notify();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Differences between a baseline and the ports found by this run
+ */
+public class ScanDiff {
+
+    private final List<PortResult> opened = new ArrayList<>();
+    private final List<PortResult> closed = new ArrayList<>();
+    private final List<PortResult[]> changed = new ArrayList<>();
+
+    /**
+     * Compare baseline ports against what the re-probe found. Every
+     * baseline port is assumed to have been probed again.
+     *
+     * @param compareBanners only report banner changes when banners were grabbed
+     */
+    public static ScanDiff compare(ScanBaseline baseline, List<PortResult> current,
+                                   boolean compareBanners) {
+        ScanDiff diff = new ScanDiff();
+        Set<String> seen = new HashSet<>();
+
+        for (PortResult result : current) {
+            if (!seen.add(result.getHost() + ":" + result.getPort())) {
+                continue;
+            }
+            PortResult before = baseline.get(result.getHost(), result.getPort());
+            if (before == null) {
+                diff.opened.add(result);
+            } else if (compareBanners && !before.getBanner().equals(result.getBanner())) {
+                diff.changed.add(new PortResult[]{before, result});
+            }
+        }
+        for (PortResult before : baseline.getAll()) {
+            if (!seen.contains(before.getHost() + ":" + before.getPort())) {
+                diff.closed.add(before);
+            }
+        }
+
+        Collections.sort(diff.opened);
+        Collections.sort(diff.closed);
+        diff.changed.sort((a, b) -> a[1].compareTo(b[1]));
+        return diff;
+    }
+
+    public List<PortResult> getOpened() {
+        return opened;
+    }
+
+    public List<PortResult> getClosed() {
+        return closed;
+    }
+
+    public List<PortResult[]> getChanged() {
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return opened.isEmpty() && closed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * One line per difference
+     */
+    public List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        for (PortResult result : opened) {
+            lines.add(describeOpened(result));
+        }
+        for (PortResult result : closed) {
+            lines.add("  [-] CLOSED     " + result.getHost() + "  " + result);
+        }
+        for (PortResult[] pair : changed) {
+            lines.add("  [~] CHANGED    " + pair[1].getHost() + "  Port "
+                      + pair[1].getPort() + " banner '" + pair[0].getBanner()
+                      + "' -> '" + pair[1].getBanner() + "'");
+        }
+        return lines;
+    }
+
+    /**
+     * Print one line per difference
+     */
+    public void print() {
+        for (String line : lines()) {
+            System.out.println(line);
+        }
+    }
+
+    static String describeOpened(PortResult result) {
+        return "  [+] NEW OPEN   " + result.getHost() + "  " + result;
+    }
+}
@@ -0,0 +1,744 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs port scans described by ScanRequests. Each scan keeps its state
+ * (timeouts learned, congestion window, ...) to itself, so one engine can
+ * run any number of scans at once.
+ *
+ *   ScanEngine engine = new ScanEngine();
+ *   engine.submit(request, result -> System.out.println(result))
+ *         .thenAccept(report -> report.export());
+ *
+ * The thread engine normally starts a pool per scan. An engine built with
+ * a shared executor runs every scan's probes on it instead (ScanDaemon).
+ */
+public class ScanEngine {
+    private static final int MAX_PROBE_EXCHANGES = 256;
+    private static final int MAX_TLS_HANDSHAKES = 512;
+    // A host missed by discovery is never scanned, so it gets more time than a port
+    private static final int MIN_DISCOVERY_TIMEOUT_MS = 500;
+
+    private final Executor sharedExecutor;
+
+    public ScanEngine() {
+        this(null);
+    }
+
+    /**
+     * @param sharedExecutor runs the probes of thread and virtual engine
+     *                       scans, or null for a pool per scan
+     */
+    public ScanEngine(Executor sharedExecutor) {
+        this.sharedExecutor = sharedExecutor;
+    }
+
+    /**
+     * Start a scan on its own thread
+     *
+     * @param onOpen called with every open port as soon as it is found
+     *               (from scanning threads), may be null
+     * @return completes with the report, or exceptionally if the scan
+     *         could not run (unresolvable host, bad checkpoint, ...)
+     */
+    public CompletableFuture<ScanReport> submit(ScanRequest request, Consumer<PortResult> onOpen) {
+        CompletableFuture<ScanReport> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(scan(request, onOpen));
+            } catch (Exception | Error e) {
+                future.completeExceptionally(e);
+            }
+        }, "scan");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    public CompletableFuture<ScanReport> submit(ScanRequest request) {
+        return submit(request, null);
+    }
+
+    /**
+     * Run a scan on the calling thread
+     */
+    public ScanReport scan(ScanRequest request, Consumer<PortResult> onOpen)
+            throws IOException, InterruptedException {
+        request.validate();
+        Scan scan = new Scan(request, onOpen);
+        try {
+            scan.resolveHosts(request.getTargets());
+            long start = System.nanoTime();
+            if (request.isDiscover()) {
+                scan.discoverHosts();
+            }
+            List<PortResult> results = request.getBaselineFile() != null ? scan.executeDiffScan()
+                                                                        : scan.executeScan(request);
+            return new ScanReport(request, results, (System.nanoTime() - start) / 1_000_000,
+                                  scan.diff, scan.adaptiveTimeout, scan.congestion, scan.portStates);
+        } finally {
+            scan.closeStreams();
+        }
+    }
+
+    /**
+     * Unwrap the cause of a failed submit for error messages
+     */
+    static Throwable cause(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    /**
+     * Probe state of one request without running it, for single probes
+     * through scanPort (benchmarks)
+     */
+    Scan prepare(ScanRequest request) {
+        return new Scan(request, null);
+    }
+
+    /**
+     * Sort results by host and port, dropping duplicates that a resumed
+     * scan may have probed twice
+     */
+    static List<PortResult> mergeResults(List<PortResult> results) {
+        Map<String, PortResult> unique = new LinkedHashMap<>();
+        synchronized (results) {
+            for (PortResult result : results) {
+                unique.put(portKey(result), result);
+            }
+        }
+        List<PortResult> sorted = new ArrayList<>(unique.values());
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * host:port/protocol, what tells results apart
+     */
+    static String portKey(PortResult result) {
+        return result.getHost() + ":" + result.getPort() + "/" + result.getProtocol();
+    }
+
+    /**
+     * With --stream, open ports go to the console and the export file as
+     * soon as they are found. Until it is closed, the stream is also closed
+     * from a shutdown hook, so an interrupted scan still leaves a valid
+     * partial file.
+     */
+    static ResultStream openResultStream(ScanRequest pass) throws IOException {
+        if (!pass.isStreamResults()) {
+            return null;
+        }
+        String target = pass.getTargets().getSpec();
+        ResultStream stream = new ResultStream();
+        stream.addSink(result -> System.out.println("\r[FOUND] " + result.getHost()
+                                                    + ":" + result.getPort() + "  " + result));
+        for (String format : pass.getExportFormats()) {
+            if (format.equals("bin")) {
+                stream.addSink(new BinaryResultWriter(pass.outputFilename(format), target));
+            } else if (!format.equals("xml")) {
+                // nmap XML nests ports in hosts; it is only written at the end
+                stream.addSink(new StreamingFileSink(format, target, pass.outputFilename(format)));
+            }
+        }
+        return stream.start().closeOnExit();
+    }
+
+    /**
+     * One running scan: its request plus everything it learns on the way
+     */
+    class Scan {
+        private final ScanRequest request;
+        private final Consumer<PortResult> resultListener;
+        private final boolean verbose;
+        private final ScanMetrics metrics;
+        private final List<ResultStream> streams = new ArrayList<>();
+        final AdaptiveTimeout adaptiveTimeout;
+        CongestionController congestion; // created per pass with aimd
+        PortStates portStates;           // of the last TCP pass
+        ScanDiff diff;
+        BitSet liveHosts;                // of the request's targets, null without discovery
+
+        Scan(ScanRequest request, Consumer<PortResult> resultListener) {
+            this.request = request;
+            this.resultListener = resultListener;
+            this.verbose = request.isVerbose();
+            this.metrics = request.getMetrics();
+            this.adaptiveTimeout = request.isAdaptive()
+                ? new AdaptiveTimeout(request.getTimeout(), request.getTimeoutFloor(),
+                                      request.getTimeoutCeiling())
+                : null;
+        }
+
+        /**
+         * Send a status line to the request's listener, if it has one
+         */
+        private void status(String line) {
+            Consumer<String> listener = request.getStatusListener();
+            if (listener != null) {
+                listener.accept(line);
+            }
+        }
+
+        /**
+         * The pass's --stream output, closed by closeStreams() should the pass fail
+         */
+        private ResultStream openStream(ScanRequest pass) throws IOException {
+            ResultStream stream = openResultStream(pass);
+            if (stream != null) {
+                streams.add(stream);
+            }
+            return stream;
+        }
+
+        /**
+         * Close every stream a pass opened, also when it ended with an
+         * exception; closing one twice is harmless
+         */
+        void closeStreams() {
+            for (ResultStream stream : streams) {
+                stream.close();
+            }
+            streams.clear();
+        }
+
+        /**
+         * Resolve every named target once, up front; probes use the addresses
+         * and never look a name up again. Names that do not resolve are
+         * reported once and skipped.
+         */
+        void resolveHosts(TargetSet targets) throws InterruptedException {
+            List<String> names = targets.getHostNames();
+            long start = System.nanoTime();
+            List<String> failed = targets.resolve(request.getResolverThreads());
+            if (!failed.isEmpty()) {
+                status("✗ " + HostResolver.describeFailures(failed) + ", skipped");
+            }
+            if (verbose && !names.isEmpty()) {
+                status("Resolved " + names.size() + " host name(s) in "
+                       + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
+
+        /**
+         * Find the request's targets that answer discovery; passes over
+         * those targets then sweep only them. The request is left as it is.
+         */
+        void discoverHosts() throws IOException, InterruptedException {
+            TargetSet targets = request.getTargets();
+            long start = System.nanoTime();
+            HostDiscovery discovery = new HostDiscovery(
+                Math.max(request.getTimeout(), MIN_DISCOVERY_TIMEOUT_MS),
+                request.getMaxInFlight(), request.isPing(), verbose);
+            liveHosts = discovery.discover(targets);
+            status("Discovery: " + liveHosts.cardinality() + "/" + targets.size()
+                   + " host(s) up in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+
+        /**
+         * The hosts discovery found up among the pass's targets, or null to
+         * scan them all (no discovery, or a pass over other targets)
+         */
+        private BitSet liveHostsOf(ScanRequest pass) {
+            return pass.getTargets() == request.getTargets() ? liveHosts : null;
+        }
+
+        List<PortResult> executeScan(ScanRequest pass) throws InterruptedException, IOException {
+
+            BitSet live = liveHostsOf(pass);
+            if (pass.getTargets().size() == 0 || (live != null && live.isEmpty())) {
+                return new ArrayList<>(); // discovery found nobody
+            }
+            if (pass.isUdp()) {
+                return executeUdpScan(pass);
+            }
+            if (pass.getEngine().equals("nio")) {
+                return executeNioScan(pass);
+            }
+
+            // Create thread pool (or one virtual thread per probe, capped by a semaphore).
+            // With a shared executor the scan borrows it and tracks its own tasks instead.
+            boolean virtual = pass.getEngine().equals("virtual") && sharedExecutor == null;
+            int concurrency = virtual ? pass.getMaxInFlight() : pass.getThreads();
+            ExecutorService ownExecutor = sharedExecutor != null ? null
+                                        : virtual ? Executors.newVirtualThreadPerTaskExecutor()
+                                        : Executors.newFixedThreadPool(pass.getThreads());
+            Executor executor = ownExecutor != null ? ownExecutor : sharedExecutor;
+            Phaser tasks = new Phaser(1);
+
+            // Bounded submission: never more queued tasks than twice the concurrency.
+            // With --aimd the congestion window takes over, with -c as its ceiling.
+            Semaphore inFlight = new Semaphore(virtual ? concurrency : concurrency * 2);
+            CongestionController window = pass.isAimd()
+                ? new CongestionController(concurrency, verbose) : null;
+            congestion = window;
+            List<PortResult> openPorts = Collections.synchronizedList(new ArrayList<>());
+
+            ScanCheckpoint checkpoint = openCheckpoint(pass, openPorts);
+            ScanScheduler scheduler = createScheduler(pass, concurrency, checkpoint);
+            ResultStream stream = openStream(pass);
+            Consumer<PortResult> onOpen = openPortListener(stream, checkpoint);
+            ProbeEngine probes = openProbeEngine(pass);
+            AtomicLong scanned = new AtomicLong(checkpoint != null ? checkpoint.getCompleted() : 0);
+            ScheduledExecutorService progressMonitor = startProgressMonitor(pass, scanned, scheduler);
+
+            // Submit scanning tasks, interleaved across hosts
+            ScanScheduler.WorkItem item;
+            while ((item = scheduler.next()) != null) {
+                final ScanScheduler.WorkItem work = item;
+                if (window != null) {
+                    window.acquire();
+                } else {
+                    inFlight.acquire();
+                }
+                tasks.register();
+                executor.execute(() -> {
+                    boolean probing = false;
+                    String state = null;
+                    try {
+                        int timeout = adaptiveTimeout != null ? adaptiveTimeout.timeoutFor(work.host)
+                                                              : pass.getTimeout();
+                        PortResult result = scanPort(work.host, work.address, work.port, timeout);
+                        state = result != null ? result.getState() : null;
+                        boolean open = result != null && result.isOpen();
+                        if (open && probes != null && result.getBanner().isEmpty()) {
+                            // Silent port: the probe engine finishes it, this thread moves on
+                            probing = true;
+                            probes.probe(result, work.address).thenAccept(probed -> {
+                                try {
+                                    recordOpen(probed, openPorts, onOpen);
+                                } finally {
+                                    scheduler.complete(work, PortResult.OPEN);
+                                    scanned.incrementAndGet();
+                                }
+                            });
+                        } else if (open) {
+                            recordOpen(result, openPorts, onOpen);
+                        }
+                    } catch (RuntimeException e) {
+                        if (verbose) {
+                            System.err.println("Scan error: " + e.getMessage());
+                        }
+                    } finally {
+                        if (!probing) {
+                            scheduler.complete(work, state);
+                            scanned.incrementAndGet();
+                        }
+                        if (window != null) {
+                            window.release();
+                        } else {
+                            inFlight.release();
+                        }
+                        tasks.arriveAndDeregister();
+                    }
+                });
+            }
+
+            // Shutdown executor and wait
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+                ownExecutor.awaitTermination(30, TimeUnit.MINUTES);
+            } else {
+                tasks.arriveAndAwaitAdvance();
+            }
+            if (probes != null) {
+                probes.awaitIdle();
+                probes.close();
+            }
+            scheduler.finish();
+
+            stopProgressMonitor(progressMonitor);
+            if (stream != null) {
+                stream.close();
+            }
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+
+            // Sort results by host, then port number
+            return mergeResults(openPorts);
+        }
+
+        /**
+         * Differential re-scan against --baseline. Previously open ports are
+         * probed first so changes on them are reported within seconds; then
+         * the configured targets are swept (or sampled with --sample) for
+         * newly opened ports.
+         */
+        List<PortResult> executeDiffScan() throws InterruptedException, IOException {
+            String baselineFile = request.getBaselineFile();
+            ScanBaseline baseline = ScanBaseline.load(baselineFile);
+            status("Baseline: " + baseline.size() + " open port(s) from " + baselineFile);
+
+            List<PortResult> all = new ArrayList<>();
+            if (!baseline.isEmpty()) {
+                long start = System.nanoTime();
+                ScanRequest recheck = request.copyFor(TargetSet.parse(baseline.getHostSpec()),
+                                                      baseline.getPorts());
+                resolveHosts(recheck.getTargets());
+                List<PortResult> rechecked = executeScan(recheck);
+                all.addAll(rechecked);
+
+                ScanDiff early = ScanDiff.compare(baseline, rechecked, request.isBannerGrab());
+                status("Changes on previously open ports (after "
+                       + (System.nanoTime() - start) / 1_000_000 + " ms):");
+                if (early.isEmpty()) {
+                    status("  none");
+                }
+                early.lines().forEach(this::status);
+            }
+
+            if (request.getSampleRate() > 0) {
+                List<PortResult> swept = executeScan(request);
+                Set<String> known = new HashSet<>();
+                for (PortResult result : all) {
+                    known.add(portKey(result));
+                }
+                for (PortResult result : ScanDiff.compare(baseline, swept, false).getOpened()) {
+                    if (!known.contains(portKey(result))) {
+                        status(ScanDiff.describeOpened(result));
+                    }
+                }
+                all.addAll(swept);
+            }
+
+            List<PortResult> results = mergeResults(all);
+            diff = ScanDiff.compare(baseline, results, request.isBannerGrab());
+            return results;
+        }
+
+        /**
+         * Run the scan on the non-blocking connect engine.
+         * Banners are read on the probe's own connection by the same selector.
+         */
+        private List<PortResult> executeNioScan(ScanRequest pass)
+                throws InterruptedException, IOException {
+
+            int maxInFlight = pass.getMaxInFlight();
+            List<PortResult> previous = new ArrayList<>();
+            ScanCheckpoint checkpoint = openCheckpoint(pass, previous);
+            ScanScheduler scheduler = createScheduler(pass, maxInFlight, checkpoint);
+            ResultStream stream = openStream(pass);
+            Consumer<PortResult> onOpen = openPortListener(stream, checkpoint);
+            congestion = pass.isAimd() ? new CongestionController(maxInFlight, verbose) : null;
+            AtomicLong scanned = new AtomicLong(checkpoint != null ? checkpoint.getCompleted() : 0);
+            ScheduledExecutorService progressMonitor = startProgressMonitor(pass, scanned, scheduler);
+
+            NioConnectScanner scanner = new NioConnectScanner(pass.getTimeout(),
+                                                              pass.isBannerGrab()
+                                                                  ? pass.getBannerTimeout() : 0,
+                                                              maxInFlight, verbose, adaptiveTimeout,
+                                                              congestion);
+            scanner.setResultListener(onOpen);
+            scanner.setStatusListener(this::status);
+            scanner.setMetrics(metrics);
+            ProbeEngine probes = openProbeEngine(pass);
+            scanner.setProbeEngine(probes);
+            List<PortResult> openPorts = scanner.scan(scheduler, scanned);
+            if (probes != null) {
+                probes.close();
+            }
+            scheduler.finish();
+
+            stopProgressMonitor(progressMonitor);
+            if (stream != null) {
+                stream.close();
+            }
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+
+            previous.addAll(openPorts);
+            return mergeResults(previous);
+        }
+
+        /**
+         * Run a UDP scan: one selector sends the probes in batches and
+         * classifies the replies. Replies are described in the banner with -b.
+         */
+        private List<PortResult> executeUdpScan(ScanRequest pass)
+                throws InterruptedException, IOException {
+
+            int maxInFlight = pass.getMaxInFlight();
+            List<PortResult> previous = new ArrayList<>();
+            ScanCheckpoint checkpoint = openCheckpoint(pass, previous);
+            ScanScheduler scheduler = createScheduler(pass, maxInFlight, checkpoint);
+            ResultStream stream = openStream(pass);
+            Consumer<PortResult> onOpen = openPortListener(stream, checkpoint);
+            congestion = pass.isAimd() ? new CongestionController(maxInFlight, verbose) : null;
+            AtomicLong scanned = new AtomicLong(checkpoint != null ? checkpoint.getCompleted() : 0);
+            ScheduledExecutorService progressMonitor = startProgressMonitor(pass, scanned, scheduler);
+
+            UdpScanner scanner = new UdpScanner(pass.getTimeout(), pass.getRetries(), maxInFlight,
+                                                pass.isBannerGrab(), verbose, adaptiveTimeout,
+                                                congestion);
+            scanner.setResultListener(onOpen);
+            scanner.setStatusListener(this::status);
+            scanner.setMetrics(metrics);
+            List<PortResult> found = scanner.scan(scheduler, scanned);
+
+            stopProgressMonitor(progressMonitor);
+            if (stream != null) {
+                stream.close();
+            }
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+
+            previous.addAll(found);
+            return mergeResults(previous);
+        }
+
+        /**
+         * Scheduler over all targets. With several hosts, each one may hold at
+         * most a quarter of the concurrency so a dead host cannot starve the rest.
+         */
+        private ScanScheduler createScheduler(ScanRequest pass, int concurrency,
+                                              ScanCheckpoint checkpoint) {
+            TargetSet targets = pass.getTargets();
+            BitSet live = liveHostsOf(pass);
+            long hosts = live != null ? live.cardinality() : targets.size();
+            int perHostLimit = hosts > 1 ? Math.max(1, concurrency / 4) : concurrency;
+            ScanScheduler scheduler = new ScanScheduler(targets, pass.portList(),
+                                                        pass.getHostGroup(), perHostLimit,
+                                                        checkpoint);
+            if (live != null) {
+                scheduler.setLiveHosts(live);
+            }
+            scheduler.setSampling(pass.getSampleRate(), targets.getSpec().hashCode());
+            scheduler.setEarlyStop(pass.isEarlyStop());
+            if (!pass.isUdp()) {
+                portStates = new PortStates(pass.isAllPorts());
+                scheduler.setPortStates(portStates);
+            }
+            if (pass.isRandomOrder()) {
+                scheduler.setRandomOrder(pass.getSeed(), pass.getShard(), pass.getShards());
+            }
+            return scheduler;
+        }
+
+        /**
+         * Open the --checkpoint/--resume directory, if any. On resume, open
+         * ports found by earlier runs are added to previous.
+         */
+        private ScanCheckpoint openCheckpoint(ScanRequest pass, List<PortResult> previous)
+                throws IOException {
+            if (pass.getCheckpointDir() == null) {
+                return null;
+            }
+            File directory = new File(pass.getCheckpointDir());
+            // Probe indexes cover every target, up or not, so a resume may
+            // rediscover a different set of live hosts
+            String signature = pass.getTargets().getSpec() + " ports " + pass.describePorts()
+                             + (pass.isUdp() ? " udp" : "");
+            long totalProbes = pass.getTargets().size() * pass.portList().length;
+
+            if (!pass.isResume()) {
+                return ScanCheckpoint.create(directory, signature, totalProbes);
+            }
+            ScanCheckpoint checkpoint = ScanCheckpoint.resume(directory, signature, totalProbes);
+            previous.addAll(checkpoint.loadOpenPorts());
+            status("Resuming: " + checkpoint.getCompleted() + "/" + totalProbes
+                   + " probes done, " + previous.size() + " open port(s) so far");
+            return checkpoint;
+        }
+
+        /**
+         * Callback for each open port as it is found: logged to the checkpoint
+         * first (so it survives a crash), then streamed to the sinks and the
+         * caller's listener
+         */
+        private Consumer<PortResult> openPortListener(ResultStream stream,
+                                                      ScanCheckpoint checkpoint) {
+            if (stream == null && checkpoint == null && resultListener == null) {
+                return null;
+            }
+            return result -> {
+                if (checkpoint != null) {
+                    checkpoint.logOpen(result);
+                }
+                if (stream != null) {
+                    stream.publish(result);
+                }
+                if (resultListener != null) {
+                    resultListener.accept(result);
+                }
+            };
+        }
+
+        private void recordOpen(PortResult result, List<PortResult> openPorts,
+                                Consumer<PortResult> onOpen) {
+            openPorts.add(result);
+            if (onOpen != null) {
+                onOpen.accept(result);
+            }
+        }
+
+        /**
+         * With -b, silent open ports get protocol probes (HTTP, Redis, ...)
+         * unless --no-probes is given; with --tls, TLS ports get a handshake
+         */
+        private ProbeEngine openProbeEngine(ScanRequest pass) throws IOException {
+            boolean protocolProbes = pass.isBannerGrab() && pass.isProbes();
+            if (!protocolProbes && !pass.isTls()) {
+                return null;
+            }
+            TlsEngine tls = pass.isTls() ? new TlsEngine(pass.getBannerTimeout(), MAX_TLS_HANDSHAKES)
+                                         : null;
+            return new ProbeEngine(pass.getBannerTimeout(), MAX_PROBE_EXCHANGES, protocolProbes, tls);
+        }
+
+        /**
+         * Progress line every half second; probes passed over on filtered
+         * hosts count as done
+         */
+        private ScheduledExecutorService startProgressMonitor(ScanRequest pass, AtomicLong scanned,
+                                                              ScanScheduler scheduler) {
+            if (!pass.isShowProgress()) {
+                return null;
+            }
+            long total = scheduler.getTotalProbes();
+            // Daemon, so a scan that fails part way does not leave it printing
+            ScheduledExecutorService progressMonitor = Executors.newScheduledThreadPool(1, r -> {
+                Thread thread = new Thread(r, "scan-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progressMonitor.scheduleAtFixedRate(() -> {
+                long done = scanned.get() + scheduler.getSkipped();
+                double percentage = (done * 100.0) / total;
+                System.out.printf("\r[Progress] %d/%d probes (%.1f%%)  ",
+                                done, total, percentage);
+            }, 0, 500, TimeUnit.MILLISECONDS);
+            return progressMonitor;
+        }
+
+        /**
+         * Stop the progress line (if any) and end it with an empty status line
+         */
+        private void stopProgressMonitor(ScheduledExecutorService progressMonitor) {
+            if (progressMonitor != null) {
+                progressMonitor.shutdown();
+                status("");
+            }
+        }
+
+         // Scan a single port, looking the host up (through the resolver cache)
+         //@return PortResult open, closed or filtered; null if the host does not resolve
+
+        PortResult scanPort(String host, int port, int timeoutMs) {
+            InetAddress address;
+            try {
+                address = HostResolver.resolve(host);
+            } catch (UnknownHostException e) {
+                return null;
+            }
+            return scanPort(host, address, port, timeoutMs);
+        }
+
+         // Scan a single port of an already resolved host
+         //@return PortResult open, closed (refused) or filtered (no answer)
+
+        PortResult scanPort(String host, InetAddress resolved, int port, int timeoutMs) {
+            InetSocketAddress address = resolved != null ? new InetSocketAddress(resolved, port)
+                                                         : new InetSocketAddress(host, port);
+            if (metrics != null) {
+                metrics.probeStarted();
+            }
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                // Attempt TCP connection
+                socket.connect(address, timeoutMs);
+                if (socket.getLocalSocketAddress().equals(socket.getRemoteSocketAddress())) {
+                    // Loopback port in the ephemeral range connected to itself: nothing listens
+                    throw new ConnectException("Connected to itself");
+                }
+                long connectNanos = System.nanoTime() - start;
+                if (adaptiveTimeout != null) {
+                    adaptiveTimeout.record(host, connectNanos);
+                }
+                if (congestion != null) {
+                    congestion.onResponse();
+                }
+                if (metrics != null) {
+                    metrics.connectFinished(ScanMetrics.OPEN, connectNanos);
+                }
+
+                if (verbose) {
+                    System.out.println("[OPEN] " + host + ":" + port);
+                }
+
+                // Get service name
+                String serviceName = ServiceMapper.getServiceName(port);
+
+                // Grab banner on the same connection if enabled
+                String banner = "";
+                if (request.isBannerGrab()) {
+                    long bannerStart = System.nanoTime();
+                    banner = BannerGrabber.grabBanner(socket, request.getBannerTimeout());
+                    if (metrics != null) {
+                        metrics.bannerRead(System.nanoTime() - bannerStart);
+                    }
+                }
+
+                return new PortResult(host, port, banner, serviceName);
+
+            } catch (IOException e) {
+                // Port is closed (RST, still a round-trip sample) or filtered
+                // (timeout, or an unreachable error from a firewall or router)
+                boolean refused = e instanceof ConnectException;
+                long elapsed = System.nanoTime() - start;
+                if (adaptiveTimeout != null && refused) {
+                    adaptiveTimeout.record(host, elapsed);
+                }
+                if (congestion != null) {
+                    if (e instanceof SocketTimeoutException) {
+                        congestion.onTimeout();
+                    } else {
+                        congestion.onResponse();
+                    }
+                }
+                if (metrics != null) {
+                    metrics.connectFinished(refused ? ScanMetrics.REFUSED
+                                            : e instanceof SocketTimeoutException ? ScanMetrics.TIMEOUT
+                                            : ScanMetrics.ERROR, elapsed);
+                }
+                if (verbose) {
+                    System.out.println((refused ? "[CLOSED] " : "[FILTERED] ") + host + ":" + port);
+                }
+                return new PortResult(host, port, "", ServiceMapper.getServiceName(port),
+                                      PortResult.TCP,
+                                      refused ? PortResult.CLOSED : PortResult.FILTERED);
+            } finally {
+                if (metrics != null) {
+                    metrics.probeFinished();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters and latency histograms for a scan.
+ *
+ * Everything is recorded with LongAdders, so probe threads never contend
+ * on a lock or a single hot counter. Readers (the summary, the HTTP
+ * endpoint) sum the adders while the scan runs; the numbers are not an
+ * atomic snapshot, but each one is exact once the scan has finished.
+ *
+ * With --metrics-port the current values are served as plain text from
+ * http://127.0.0.1:port/metrics.
+ */
+public class ScanMetrics {
+
+    public static final int OPEN = 0;
+    public static final int REFUSED = 1;
+    public static final int TIMEOUT = 2;
+    public static final int ERROR = 3;
+
+    private static final String[] OUTCOMES = {"open", "refused", "timeout", "error"};
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final Histogram[] connect = new Histogram[OUTCOMES.length];
+    private final Histogram banner = new Histogram();
+    private final LongAdder exportNanos = new LongAdder();
+    private HttpServer server;
+
+    public ScanMetrics() {
+        for (int i = 0; i < connect.length; i++) {
+            connect[i] = new Histogram();
+        }
+    }
+
+    /**
+     * A probe was handed to the network
+     */
+    public void probeStarted() {
+        started.increment();
+    }
+
+    /**
+     * A connect attempt ended with the given outcome after elapsedNanos
+     */
+    public void connectFinished(int outcome, long elapsedNanos) {
+        connect[outcome].record(elapsedNanos);
+    }
+
+    /**
+     * A probe is finished, including any banner read
+     */
+    public void probeFinished() {
+        completed.increment();
+    }
+
+    public void bannerRead(long elapsedNanos) {
+        banner.record(elapsedNanos);
+    }
+
+    public void exportFinished(long elapsedNanos) {
+        exportNanos.add(elapsedNanos);
+    }
+
+    public long getInFlight() {
+        return Math.max(0, started.sum() - completed.sum());
+    }
+
+    public double getProbesPerSecond() {
+        double seconds = elapsedSeconds();
+        return seconds > 0 ? completed.sum() / seconds : 0;
+    }
+
+    /**
+     * Connect latency percentile over every outcome, in ms
+     */
+    public double getConnectPercentileMs(double percentile) {
+        return Histogram.percentileMs(connect, percentile);
+    }
+
+    /**
+     * Serve the current metrics on the loopback interface
+     */
+    public void serve(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        System.out.println("Metrics: http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * One "name value" line per metric
+     */
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        line(sb, "elapsed_seconds", elapsedSeconds());
+        line(sb, "probes_started", started.sum());
+        line(sb, "probes_completed", completed.sum());
+        line(sb, "probes_in_flight", getInFlight());
+        line(sb, "probes_per_second", getProbesPerSecond());
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            connect[i].render(sb, "connect_" + OUTCOMES[i]);
+        }
+        banner.render(sb, "banner");
+        line(sb, "export_ms", exportNanos.sum() / 1e6);
+        return sb.toString();
+    }
+
+    /**
+     * Human readable summary for the end of the scan
+     */
+    public void print() {
+        System.out.println();
+        System.out.printf("Metrics: %d probes in %.1f s (%.0f/s)%n",
+                          completed.sum(), elapsedSeconds(), getProbesPerSecond());
+        System.out.printf("  %-8s %7s %9s %9s %9s %9s %9s%n", "", "count", "mean ms",
+                          "p50", "p90", "p99", "max");
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            connect[i].print(OUTCOMES[i]);
+        }
+        banner.print("banner");
+        if (exportNanos.sum() > 0) {
+            System.out.printf("  %-8s %.1f ms%n", "export", exportNanos.sum() / 1e6);
+        }
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    private static void line(StringBuilder sb, String name, double value) {
+        sb.append(name).append(' ')
+          .append(String.format(Locale.ROOT, value == Math.rint(value) ? "%.0f" : "%.3f", value))
+          .append('\n');
+    }
+
+    /**
+     * Log-linear latency histogram in microseconds: four buckets per power
+     * of two, so any percentile is reported to within 25%.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS = 32 * SUB_BUCKETS;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets[bucketFor(micros)].increment();
+            count.increment();
+            totalMicros.add(micros);
+            maxMicros.accumulate(micros);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double meanMs() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalMicros.sum() / 1000.0 / n;
+        }
+
+        double maxMs() {
+            return maxMicros.get() / 1000.0;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, in ms
+         */
+        double percentileMs(double percentile) {
+            return percentileMs(new Histogram[] {this}, percentile);
+        }
+
+        /**
+         * Percentile of several histograms taken together
+         */
+        static double percentileMs(Histogram[] histograms, double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            long max = 0;
+            for (Histogram histogram : histograms) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    long n = histogram.buckets[i].sum();
+                    counts[i] += n;
+                    total += n;
+                }
+                max = Math.max(max, histogram.maxMicros.get());
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max) / 1000.0;
+                }
+            }
+            return max / 1000.0;
+        }
+
+        static int bucketFor(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + sub);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 1;
+            long width = 1L << (exponent - 2);
+            return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+        }
+
+        void render(StringBuilder sb, String name) {
+            line(sb, name + "_count", getCount());
+            line(sb, name + "_mean_ms", meanMs());
+            line(sb, name + "_p50_ms", percentileMs(50));
+            line(sb, name + "_p90_ms", percentileMs(90));
+            line(sb, name + "_p99_ms", percentileMs(99));
+            line(sb, name + "_max_ms", maxMs());
+        }
+
+        void print(String name) {
+            if (getCount() == 0) {
+                return;
+            }
+            System.out.printf("  %-8s %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name,
+                              getCount(), meanMs(), percentileMs(50), percentileMs(90),
+                              percentileMs(99), maxMs());
+        }
+    }
+}
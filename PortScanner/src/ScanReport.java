@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of one ScanEngine scan
+ */
+public class ScanReport {
+    private final ScanRequest request;
+    private final List<PortResult> results;
+    private final long durationMs;
+    private final ScanDiff diff;
+    private final AdaptiveTimeout adaptiveTimeout;
+    private final CongestionController congestion;
+    private final PortStates portStates;
+
+    ScanReport(ScanRequest request, List<PortResult> results, long durationMs, ScanDiff diff,
+               AdaptiveTimeout adaptiveTimeout, CongestionController congestion,
+               PortStates portStates) {
+        this.request = request;
+        this.results = results;
+        this.durationMs = durationMs;
+        this.diff = diff;
+        this.adaptiveTimeout = adaptiveTimeout;
+        this.congestion = congestion;
+        this.portStates = portStates;
+    }
+
+    public ScanRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Open ports, sorted by host and port
+     */
+    public List<PortResult> getResults() {
+        return results;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Changes since the baseline, or null if the request had none
+     */
+    public ScanDiff getDiff() {
+        return diff;
+    }
+
+    /**
+     * Round-trip times learned per host, or null without adaptive timeouts
+     */
+    public List<AdaptiveTimeout.RttEstimator> getRttStats() {
+        return adaptiveTimeout != null ? adaptiveTimeout.getStats() : null;
+    }
+
+    /**
+     * The congestion window of the last pass, or null without aimd
+     */
+    public CongestionController getCongestion() {
+        return congestion;
+    }
+
+    /**
+     * Closed and filtered ports of the TCP scan, null for UDP and
+     * distributed scans
+     */
+    public PortStates getPortStates() {
+        return portStates;
+    }
+
+    /**
+     * Write the results in the request's export formats, if it has any
+     */
+    public void export() {
+        List<String> formats = request.getExportFormats();
+        if (formats.isEmpty()) {
+            return;
+        }
+        Map<String, String> files = new LinkedHashMap<>();
+        for (String format : formats) {
+            files.put(format, request.outputFilename(format));
+        }
+        ScanMetrics metrics = request.getMetrics();
+        long start = System.nanoTime();
+        List<PortResult> exported = results;
+        if (portStates != null && portStates.isRecordingPorts()) {
+            exported = new ArrayList<>(results);
+            exported.addAll(portStates.getPorts());
+            Collections.sort(exported);
+        }
+        ResultExporter.export(exported, portStates, request.getTargets().getSpec(), durationMs,
+                              files, request.isGzip());
+        if (metrics != null) {
+            metrics.exportFinished(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,655 @@
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Everything that describes one scan, for ScanEngine.
+ *
+ *   ScanRequest request = new ScanRequest("10.0.0.0/24").ports(1, 1024)
+ *                                                      .bannerGrab(true);
+ *   engine.submit(request, result -> ...).thenAccept(report -> ...);
+ *
+ * Setters return the request so they can be chained; defaults match the
+ * command line, except that a request prints nothing: progress is off
+ * and status lines are dropped until showProgress and statusListener are
+ * set. A request is owned by one scan at a time: the engine fixes the
+ * export file name and the port order on it.
+ */
+public class ScanRequest {
+    static final int DEFAULT_TIMEOUT_MS = 200;
+    static final int DEFAULT_THREADS = 100;
+    static final int DEFAULT_MAX_INFLIGHT = 10000;
+    // Descriptors left for exports, checkpoints, probes and the JVM itself
+    static final int RESERVED_DESCRIPTORS = 256;
+    static final int DEFAULT_BANNER_TIMEOUT_MS = 1000;
+    static final int DEFAULT_HOST_GROUP = 64;
+    static final int DEFAULT_TIMEOUT_FLOOR_MS = 50;
+    static final int DEFAULT_TIMEOUT_CEILING_MS = 2000;
+
+    private final TargetSet targets;
+    private int startPort = 1;
+    private int endPort = 65535;
+    private int[] specificPorts;
+    private int timeout = DEFAULT_TIMEOUT_MS;
+    private int threads = DEFAULT_THREADS;
+    private String engine = "thread"; // thread, virtual, nio
+    private boolean udp;
+    private int retries = UdpScanner.DEFAULT_RETRIES;
+    private int maxInFlight = defaultMaxInFlight();
+    private boolean bannerGrab;
+    private boolean probes = true; // protocol probes for silent ports, with bannerGrab
+    private int bannerTimeout = DEFAULT_BANNER_TIMEOUT_MS;
+    private boolean tls;
+    private int hostGroup = DEFAULT_HOST_GROUP;
+    private boolean discover;
+    private boolean ping;
+    private boolean earlyStop;
+    private boolean allPorts;
+    private int resolverThreads = HostResolver.DEFAULT_PARALLELISM;
+    private boolean adaptive;
+    private int timeoutFloor = DEFAULT_TIMEOUT_FLOOR_MS;
+    private int timeoutCeiling = DEFAULT_TIMEOUT_CEILING_MS;
+    private boolean aimd;
+    private boolean verbose;
+    private boolean showProgress;
+    private boolean streamResults;
+    private List<String> exportFormats = List.of(); // see ResultExporter.FORMATS
+    private boolean gzip;
+    private String outputBase;
+    private String checkpointDir;
+    private boolean resume;
+    private String baselineFile;
+    private double sampleRate = 1.0;
+    private boolean randomOrder;
+    private Long seed;
+    private int shard;
+    private int shards = 1;
+    private ScanMetrics metrics;
+    private Consumer<String> statusListener;
+    private int[] orderedPorts;
+
+    /**
+     * @param targets target specification, see TargetSet
+     */
+    public ScanRequest(String targets) throws IOException {
+        this(TargetSet.parse(targets));
+    }
+
+    public ScanRequest(TargetSet targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * Scan the port range start to end (the default is every port)
+     */
+    public ScanRequest ports(int start, int end) {
+        if (start < 1 || end > 65535 || start > end) {
+            throw new IllegalArgumentException("Invalid port range " + start + "-" + end);
+        }
+        this.startPort = start;
+        this.endPort = end;
+        this.specificPorts = null;
+        this.orderedPorts = null;
+        return this;
+    }
+
+    /**
+     * Scan exactly these ports
+     */
+    public ScanRequest ports(int[] ports) {
+        this.specificPorts = ports.clone();
+        this.orderedPorts = null;
+        return this;
+    }
+
+    public ScanRequest timeout(int timeoutMs) {
+        this.timeout = timeoutMs;
+        return this;
+    }
+
+    /**
+     * Threads of the thread engine (the concurrency ceiling with aimd)
+     */
+    public ScanRequest threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * thread, virtual or nio
+     */
+    public ScanRequest engine(String engine) {
+        if (!engine.equals("thread") && !engine.equals("virtual") && !engine.equals("nio")) {
+            throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Scan UDP ports instead of TCP ones. UDP scans run on their own
+     * selector, whatever the engine.
+     */
+    public ScanRequest udp(boolean enabled) {
+        this.udp = enabled;
+        this.orderedPorts = null;
+        return this;
+    }
+
+    /**
+     * UDP probes sent again to a silent port, each waiting twice as long
+     */
+    public ScanRequest retries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * DEFAULT_MAX_INFLIGHT, or less when the file descriptor limit
+     * (RLIMIT_NOFILE, ulimit -n) cannot hold a socket for each probe
+     */
+    static int defaultMaxInFlight() {
+        return descriptorBudget(DEFAULT_MAX_INFLIGHT);
+    }
+
+    /**
+     * wanted, or the sockets the file descriptor limit still leaves room
+     * for after RESERVED_DESCRIPTORS if that is fewer (at least 16)
+     */
+    static int descriptorBudget(int wanted) {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof UnixOperatingSystemMXBean)) {
+            return wanted;
+        }
+        UnixOperatingSystemMXBean unix = (UnixOperatingSystemMXBean) os;
+        long free = unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount()
+                  - RESERVED_DESCRIPTORS;
+        return (int) Math.max(Math.min(16, wanted), Math.min(wanted, free));
+    }
+
+    /**
+     * Concurrent probes of the virtual and nio engines (and of UDP scans)
+     */
+    public ScanRequest maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public ScanRequest bannerGrab(boolean enabled) {
+        this.bannerGrab = enabled;
+        return this;
+    }
+
+    /**
+     * Send protocol probes to open ports that stay silent (with bannerGrab)
+     */
+    public ScanRequest probes(boolean enabled) {
+        this.probes = enabled;
+        return this;
+    }
+
+    /**
+     * TLS handshakes with open TLS ports (and, with bannerGrab, with ports
+     * no probe got an answer from), recording protocol, cipher and certificate
+     */
+    public ScanRequest tls(boolean enabled) {
+        this.tls = enabled;
+        return this;
+    }
+
+    public ScanRequest bannerTimeout(int timeoutMs) {
+        this.bannerTimeout = timeoutMs;
+        return this;
+    }
+
+    public ScanRequest hostGroup(int hosts) {
+        this.hostGroup = hosts;
+        return this;
+    }
+
+    /**
+     * Find the live targets first (see HostDiscovery) and sweep only those
+     */
+    public ScanRequest discover(boolean enabled) {
+        this.discover = enabled;
+        return this;
+    }
+
+    /**
+     * During discovery, also try InetAddress.isReachable on hosts no
+     * connect got an answer from
+     */
+    public ScanRequest ping(boolean enabled) {
+        this.ping = enabled;
+        return this;
+    }
+
+    /**
+     * Parallel DNS lookups when resolving host names
+     */
+    public ScanRequest resolverThreads(int threads) {
+        this.resolverThreads = threads;
+        return this;
+    }
+
+    /**
+     * Let hosts that stop answering drop to a sparse confirmation pass (see
+     * ScanScheduler). Off by default: ports passed over are never probed,
+     * so an open port behind a long filtered run can be missed.
+     */
+    public ScanRequest earlyStop(boolean enabled) {
+        this.earlyStop = enabled;
+        return this;
+    }
+
+    /**
+     * Also export each closed and filtered TCP port, not only the per-host
+     * counts of them (see PortStates). Ports found by an earlier run of a
+     * resumed scan are only there if they were open.
+     */
+    public ScanRequest allPorts(boolean enabled) {
+        this.allPorts = enabled;
+        return this;
+    }
+
+    /**
+     * Learn per-host timeouts from round-trip times, between floor and ceiling
+     */
+    public ScanRequest adaptiveTimeout(int floorMs, int ceilingMs) {
+        this.adaptive = true;
+        this.timeoutFloor = floorMs;
+        this.timeoutCeiling = ceilingMs;
+        return this;
+    }
+
+    /**
+     * Adapt the number of probes in flight to timeouts
+     */
+    public ScanRequest aimd(boolean enabled) {
+        this.aimd = enabled;
+        return this;
+    }
+
+    /**
+     * Print every probe and error to the console
+     */
+    public ScanRequest verbose(boolean enabled) {
+        this.verbose = enabled;
+        return this;
+    }
+
+    /**
+     * Print a progress line to the console while scanning
+     */
+    public ScanRequest showProgress(boolean enabled) {
+        this.showProgress = enabled;
+        return this;
+    }
+
+    /**
+     * Print open ports to the console, and write them to the export file,
+     * as they are found
+     */
+    public ScanRequest streamResults(boolean enabled) {
+        this.streamResults = enabled;
+        return this;
+    }
+
+    /**
+     * Export format for ScanReport.export: txt, csv, json, ndjson, xml or bin
+     */
+    public ScanRequest exportFormat(String format) {
+        return exportFormats(List.of(format));
+    }
+
+    /**
+     * Export formats, all written in one pass by ScanReport.export
+     */
+    public ScanRequest exportFormats(List<String> formats) {
+        for (String format : formats) {
+            if (!ResultExporter.FORMATS.contains(format)) {
+                throw new IllegalArgumentException("Unknown export format " + format);
+            }
+        }
+        this.exportFormats = List.copyOf(new LinkedHashSet<>(formats));
+        return this;
+    }
+
+    /**
+     * Compress the text exports with gzip (bin stays uncompressed)
+     */
+    public ScanRequest gzip(boolean enabled) {
+        this.gzip = enabled;
+        return this;
+    }
+
+    /**
+     * Export file name without extension; each format adds its own
+     */
+    public ScanRequest outputBase(String base) {
+        this.outputBase = base;
+        return this;
+    }
+
+    /**
+     * Record progress in directory; with resume, continue the scan recorded there
+     */
+    public ScanRequest checkpoint(String directory, boolean resume) {
+        this.checkpointDir = directory;
+        this.resume = resume;
+        return this;
+    }
+
+    /**
+     * Re-scan against an earlier JSON export and report the changes
+     */
+    public ScanRequest baseline(String file) {
+        this.baselineFile = file;
+        return this;
+    }
+
+    /**
+     * Probe only this fraction (0 to 1) of the work
+     */
+    public ScanRequest sampleRate(double rate) {
+        this.sampleRate = rate;
+        return this;
+    }
+
+    /**
+     * Probe in a seeded random order; seed may be null to derive one
+     * from the targets and ports
+     */
+    public ScanRequest randomOrder(Long seed) {
+        this.randomOrder = true;
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Scan only slice shard (0-based) of shards of the random order
+     */
+    public ScanRequest shard(int shard, int shards) {
+        if (shards < 1 || shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Invalid shard " + (shard + 1) + "/" + shards);
+        }
+        this.randomOrder = true;
+        this.shard = shard;
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * Record probe latencies and counts in metrics
+     */
+    public ScanRequest metrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Receives the scan's status lines as they happen (baseline loaded,
+     * checkpoint resumed, early baseline changes), one line per call.
+     * Without a listener the engine prints nothing of the kind.
+     */
+    public ScanRequest statusListener(Consumer<String> listener) {
+        this.statusListener = listener;
+        return this;
+    }
+
+    /**
+     * Throws IllegalArgumentException for options that cannot be combined
+     */
+    void validate() {
+        if (baselineFile != null && (checkpointDir != null || streamResults)) {
+            throw new IllegalArgumentException(
+                "--baseline cannot be combined with --checkpoint, --resume or --stream");
+        }
+        if (udp && (baselineFile != null || tls)) {
+            throw new IllegalArgumentException("--udp cannot be combined with --baseline or --tls");
+        }
+        if (gzip && streamResults) {
+            // Streamed files are rewritten in place, which a gzip stream cannot do
+            throw new IllegalArgumentException("--gzip cannot be combined with --stream");
+        }
+    }
+
+    public TargetSet getTargets() {
+        return targets;
+    }
+
+    public int getStartPort() {
+        return startPort;
+    }
+
+    public int getEndPort() {
+        return endPort;
+    }
+
+    public int[] getSpecificPorts() {
+        return specificPorts;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public boolean isUdp() {
+        return udp;
+    }
+
+    /**
+     * PortResult.TCP or PortResult.UDP
+     */
+    public String getProtocol() {
+        return udp ? PortResult.UDP : PortResult.TCP;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public boolean isBannerGrab() {
+        return bannerGrab;
+    }
+
+    public boolean isProbes() {
+        return probes;
+    }
+
+    public boolean isTls() {
+        return tls;
+    }
+
+    public int getBannerTimeout() {
+        return bannerTimeout;
+    }
+
+    public int getHostGroup() {
+        return hostGroup;
+    }
+
+    public boolean isDiscover() {
+        return discover;
+    }
+
+    public boolean isPing() {
+        return ping;
+    }
+
+    public boolean isEarlyStop() {
+        return earlyStop;
+    }
+
+    public boolean isAllPorts() {
+        return allPorts;
+    }
+
+    public int getResolverThreads() {
+        return resolverThreads;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getTimeoutFloor() {
+        return timeoutFloor;
+    }
+
+    public int getTimeoutCeiling() {
+        return timeoutCeiling;
+    }
+
+    public boolean isAimd() {
+        return aimd;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public boolean isShowProgress() {
+        return showProgress;
+    }
+
+    public boolean isStreamResults() {
+        return streamResults;
+    }
+
+    public List<String> getExportFormats() {
+        return exportFormats;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public String getCheckpointDir() {
+        return checkpointDir;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public String getBaselineFile() {
+        return baselineFile;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean isRandomOrder() {
+        return randomOrder;
+    }
+
+    /**
+     * The random order's seed. Without an explicit one it is derived from
+     * the scan, so every shard and every resumed run agrees on the order.
+     */
+    public long getSeed() {
+        return seed != null ? seed
+                            : (long) targets.getSpec().hashCode() << 32 ^ describePorts().hashCode();
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Consumer<String> getStatusListener() {
+        return statusListener;
+    }
+
+    public boolean isRangeScan() {
+        return specificPorts == null;
+    }
+
+    String describePorts() {
+        return isRangeScan() ? startPort + "-" + endPort : Arrays.toString(specificPorts);
+    }
+
+    /**
+     * Ports in probe order: most frequently open first
+     */
+    int[] portList() {
+        if (orderedPorts == null) {
+            orderedPorts = ServiceMapper.orderByLikelihood(
+                isRangeScan() ? IntStream.rangeClosed(startPort, endPort).toArray()
+                              : specificPorts, getProtocol());
+        }
+        return orderedPorts;
+    }
+
+    /**
+     * Export file name for one format. The base name is fixed on first use
+     * so streamed and final output match.
+     */
+    String outputFilename(String format) {
+        if (outputBase == null) {
+            String timestamp = String.valueOf(System.currentTimeMillis());
+            String target = targets.getSpec();
+            outputBase = "scan_" + target.replaceAll("[^A-Za-z0-9-]", "_") + "_" + timestamp;
+        }
+        return outputBase + "." + format + (gzip && !format.equals("bin") ? ".gz" : "");
+    }
+
+    /**
+     * A request for the same scan settings against other targets and ports
+     * (the re-check pass of a baseline scan)
+     */
+    ScanRequest copyFor(TargetSet otherTargets, int[] ports) {
+        ScanRequest copy = new ScanRequest(otherTargets).ports(ports);
+        copy.timeout = timeout;
+        copy.threads = threads;
+        copy.engine = engine;
+        copy.udp = udp;
+        copy.retries = retries;
+        copy.maxInFlight = maxInFlight;
+        copy.bannerGrab = bannerGrab;
+        copy.probes = probes;
+        copy.tls = tls;
+        copy.bannerTimeout = bannerTimeout;
+        copy.hostGroup = hostGroup;
+        copy.earlyStop = earlyStop;
+        copy.allPorts = allPorts;
+        copy.resolverThreads = resolverThreads;
+        copy.adaptive = adaptive;
+        copy.timeoutFloor = timeoutFloor;
+        copy.timeoutCeiling = timeoutCeiling;
+        copy.aimd = aimd;
+        copy.verbose = verbose;
+        copy.showProgress = showProgress;
+        copy.metrics = metrics;
+        copy.statusListener = statusListener;
+        return copy;
+    }
+}
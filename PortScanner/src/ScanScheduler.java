@@ -0,0 +1,443 @@
+import java.net.InetAddress;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Hands out (host, port) work items across many targets.
+ *
+ * A small window of hosts is active at a time and ports are taken from
+ * them round-robin, so consecutive probes land on different hosts and
+ * memory does not grow with the number of targets. Each host is also
+ * capped in how many probes it may have outstanding, which keeps one
+ * slow or firewalled host from tying up every worker; its turn is simply
+ * skipped until some of its probes finish.
+ *
+ * Every probe has a stable index, host position * port count + port
+ * position, which a checkpoint uses to skip probes finished by an
+ * earlier run. Host names that did not resolve, and hosts discovery found
+ * down, are passed over without renumbering the rest.
+ *
+ * In random order the hosts are instead shuffled and taken RANDOM_WINDOW
+ * at a time, and the host x port probes of each window are walked through
+ * a seeded ProbePermutation, so neither a host nor a run of adjacent ports
+ * sees a burst of probes while only the current window's hosts hold any
+ * state. A shard takes one contiguous slice of that sequence. Per-host
+ * limits do not apply in this mode; the shuffle already spreads probes
+ * over the window.
+ *
+ * Engines report each TCP probe as open, closed or filtered. With early
+ * stop enabled, a host that stops answering altogether (a firewall dropping everything, or dropping
+ * the rest of its ports) is detected by its run of silent probes: once
+ * FILTERED_RUN probes in a row went unanswered, only one port in
+ * CONFIRM_STRIDE is still probed. An answer on one of those switches the
+ * host back to full probing; the ports passed over are counted as not
+ * probed, and an open one among them is missed.
+ */
+public class ScanScheduler {
+
+    // A host answering even 5% of probes goes this many in a row without an
+    // answer less than once in a thousand scans: 0.95^135 < 0.001
+    static final int FILTERED_RUN = 135;
+    static final int CONFIRM_STRIDE = 32;
+    static final int RANDOM_WINDOW = 4096;
+
+    private final TargetSet targets;
+    private final int[] ports;
+    private final int perHostLimit;
+    private final HostState[] window;
+    private final ScanCheckpoint checkpoint;
+    private BitSet liveHosts; // null to scan every resolved host
+    private double sampleRate = 1.0;
+    private long sampleSeed;
+    private ProbePermutation hostOrder;   // in random order: the shuffled hosts
+    private ProbePermutation windowOrder; // and the probes of the current window
+    private long randomSeed;
+    private long windowNumber = -1;
+    private Map<Long, HostState> randomHosts; // hosts of the current window, and of
+                                              // earlier ones with probes in flight
+    private long position;
+    private long endPosition;
+    private boolean earlyStop;
+    private PortStates portStates;
+    private long skipped;
+
+    private long nextHost;
+    private int cursor;
+    private int active;
+
+    /**
+     * @param hostGroup    number of hosts scanned side by side
+     * @param perHostLimit maximum outstanding probes per host
+     * @param checkpoint   finished probes to skip and record, or null
+     */
+    public ScanScheduler(TargetSet targets, int[] ports, int hostGroup, int perHostLimit,
+                         ScanCheckpoint checkpoint) {
+        this.targets = targets;
+        this.checkpoint = checkpoint;
+        this.ports = ports;
+        this.perHostLimit = Math.max(1, perHostLimit);
+        this.window = new HostState[(int) Math.max(1, Math.min(hostGroup, targets.size()))];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = nextHostState();
+            if (window[i] != null) {
+                active++;
+            }
+        }
+    }
+
+    /**
+     * Scan only the hosts whose index is set (those HostDiscovery found up).
+     * Must be called before the first poll.
+     */
+    public synchronized void setLiveHosts(BitSet live) {
+        this.liveHosts = live;
+        nextHost = 0;
+        active = 0;
+        for (int i = 0; i < window.length; i++) {
+            window[i] = nextHostState();
+            if (window[i] != null) {
+                active++;
+            }
+        }
+    }
+
+    /**
+     * Probe only a pseudo-random fraction of the work. The choice depends
+     * on the probe index and seed, so the same seed samples the same probes.
+     */
+    public void setSampling(double rate, long seed) {
+        this.sampleRate = rate;
+        this.sampleSeed = seed;
+    }
+
+    /**
+     * Whether hosts that stop answering drop to confirmation probes or
+     * keep getting every port (the default)
+     */
+    public void setEarlyStop(boolean enabled) {
+        this.earlyStop = enabled;
+    }
+
+    /**
+     * Where to record each host's closed and filtered ports once it is done
+     */
+    public void setPortStates(PortStates portStates) {
+        this.portStates = portStates;
+    }
+
+    /**
+     * Hand out probes in a pseudo-random order over all hosts and ports,
+     * restricted to shard (0-based) of shards equal slices. Every run with
+     * the same seed and targets produces the same order and slices.
+     */
+    public synchronized void setRandomOrder(long seed, int shard, int shards) {
+        long total = targets.size() * ports.length;
+        if (total == 0) {
+            return;
+        }
+        hostOrder = new ProbePermutation(targets.size(), seed);
+        randomSeed = seed;
+        randomHosts = new HashMap<>();
+        position = shardStart(total, shard, shards);
+        endPosition = shardStart(total, shard + 1, shards);
+    }
+
+    private static long shardStart(long total, int shard, int shards) {
+        return shard >= shards ? total : (long) Math.floor((double) total * shard / shards);
+    }
+
+    public long getTotalProbes() {
+        long hosts = Math.max(1, targets.size());
+        long scanned = liveHosts != null ? liveHosts.cardinality()
+                                         : hosts - targets.getUnresolvedCount();
+        double probes = hostOrder != null ? (double) (endPosition - position) * scanned / hosts
+                                            : (double) scanned * ports.length;
+        return (long) Math.ceil(probes * sampleRate);
+    }
+
+    /**
+     * Probes passed over on hosts that looked filtered; they count as
+     * done for progress
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * True while there is work left that has not been handed out
+     */
+    public synchronized boolean hasMore() {
+        return hostOrder != null ? position < endPosition : active > 0;
+    }
+
+    /**
+     * Next work item, or null if every active host is at its limit right
+     * now (or everything has been handed out). Never blocks.
+     */
+    public synchronized WorkItem poll() {
+        if (hostOrder != null) {
+            return pollRandom();
+        }
+        int misses = 0;
+        while (misses < window.length) {
+            int slot = cursor;
+            HostState host = window[slot];
+            if (host == null || host.inFlight >= perHostLimit) {
+                cursor = (cursor + 1) % window.length;
+                misses++;
+                continue;
+            }
+
+            WorkItem item = null;
+            while (item == null && host.nextPort < ports.length) {
+                long index = host.index * ports.length + host.nextPort;
+                int port = ports[host.nextPort++];
+                if ((checkpoint == null || !checkpoint.isDone(index)) && isSampled(index)
+                        && !skip(host, index)) {
+                    item = new WorkItem(host, port, index);
+                }
+            }
+            if (host.nextPort == ports.length) {
+                // Host fully dispatched, let the next target take its slot
+                window[slot] = nextHostState();
+                if (window[slot] == null) {
+                    active--;
+                }
+            }
+            if (item != null) {
+                host.inFlight++;
+                cursor = (cursor + 1) % window.length;
+                return item;
+            }
+            finishIfDone(host);
+            // Nothing left to probe on that host; retry the slot with its successor
+        }
+        return null;
+    }
+
+    private WorkItem pollRandom() {
+        while (position < endPosition) {
+            long index = probeAt(position++);
+            if ((checkpoint == null || !checkpoint.isDone(index)) && isSampled(index)) {
+                long target = index / ports.length;
+                if (isPassedOver(target)) {
+                    continue;
+                }
+                HostState host = randomHosts.computeIfAbsent(target,
+                    t -> new HostState(targets.get(t), targets.getAddress(t), t));
+                if (skip(host, index)) {
+                    continue;
+                }
+                host.inFlight++;
+                return new WorkItem(host, ports[(int) (index % ports.length)], index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Probe index at a position of the random order. Entering a new window
+     * retires the hosts of the previous ones.
+     */
+    private long probeAt(long position) {
+        long span = (long) RANDOM_WINDOW * ports.length;
+        long number = position / span;
+        long first = number * RANDOM_WINDOW;
+        if (number != windowNumber) {
+            long hosts = Math.min(RANDOM_WINDOW, targets.size() - first);
+            windowOrder = new ProbePermutation(hosts * ports.length, randomSeed + number);
+            windowNumber = number;
+            Iterator<HostState> previous = randomHosts.values().iterator();
+            while (previous.hasNext()) {
+                HostState host = previous.next();
+                host.retired = true;
+                if (host.inFlight == 0) {
+                    report(host);
+                    previous.remove();
+                }
+            }
+        }
+        long probe = windowOrder.get(position - number * span);
+        return hostOrder.get(first + probe / ports.length) * ports.length
+             + probe % ports.length;
+    }
+
+    /**
+     * Next work item, waiting for a host to free up if necessary.
+     * Returns null once everything has been handed out.
+     */
+    public synchronized WorkItem next() throws InterruptedException {
+        while (true) {
+            WorkItem item = poll();
+            if (item != null || !hasMore()) {
+                return item;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Must be called once for every item when its probe has finished,
+     * after any open port it found has been recorded
+     *
+     * @param state OPEN, CLOSED or FILTERED for a TCP probe, null if the
+     *              probe has no such outcome (UDP, errors)
+     */
+    public void complete(WorkItem item, String state) {
+        if (checkpoint != null) {
+            checkpoint.markDone(item.index);
+        }
+        synchronized (this) {
+            HostState host = item.state;
+            host.inFlight--;
+            if (state != null) {
+                host.record(state);
+                if (portStates != null && !PortResult.OPEN.equals(state)) {
+                    portStates.addPort(item.host, item.port, state);
+                }
+            }
+            if (hostOrder == null) {
+                finishIfDone(host);
+            } else if (host.retired && host.inFlight == 0) {
+                report(host);
+                randomHosts.remove(host.index);
+            }
+            notifyAll();
+        }
+    }
+
+    public void complete(WorkItem item) {
+        complete(item, null);
+    }
+
+    /**
+     * Record the port states of hosts not finished yet. In random order a
+     * host is only known to be done once the walk has left its window, so
+     * the engines call this at the end for the last one.
+     */
+    public synchronized void finish() {
+        if (randomHosts != null) {
+            for (HostState host : randomHosts.values()) {
+                report(host);
+            }
+            randomHosts.clear();
+        }
+    }
+
+    /**
+     * Pass over this probe if the host looks filtered and it is not a
+     * confirmation probe. Passed over probes count as done.
+     */
+    private boolean skip(HostState host, long index) {
+        if (!earlyStop || !host.confirming || ++host.stride >= CONFIRM_STRIDE) {
+            host.stride = 0;
+            return false;
+        }
+        host.skipped++;
+        skipped++;
+        if (checkpoint != null) {
+            checkpoint.markDone(index);
+        }
+        return true;
+    }
+
+    private void finishIfDone(HostState host) {
+        if (host.nextPort == ports.length && host.inFlight == 0) {
+            report(host);
+        }
+    }
+
+    private void report(HostState host) {
+        if (portStates != null && !host.reported) {
+            host.reported = true;
+            portStates.addHost(host.host, host.open, host.closed, host.filtered, host.skipped);
+        }
+    }
+
+    private boolean isSampled(long index) {
+        if (sampleRate >= 1.0) {
+            return true;
+        }
+        // SplitMix64 finalizer: a well mixed hash of the index
+        long z = index + sampleSeed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (z >>> 11) * 0x1.0p-53 < sampleRate;
+    }
+
+    private HostState nextHostState() {
+        while (nextHost < targets.size() && ports.length > 0) {
+            long index = nextHost++;
+            if (!isPassedOver(index)) {
+                return new HostState(targets.get(index), targets.getAddress(index), index);
+            }
+        }
+        return null;
+    }
+
+    private boolean isPassedOver(long host) {
+        return targets.isUnresolved(host) || (liveHosts != null && !liveHosts.get((int) host));
+    }
+
+    /**
+     * A single probe to run
+     */
+    public static class WorkItem {
+        public final String host;
+        public final InetAddress address; // resolved before the scan, null if never resolved
+        public final int port;
+        public final long index;
+        private final HostState state;
+
+        WorkItem(HostState state, int port, long index) {
+            this.host = state.host;
+            this.address = state.address;
+            this.port = port;
+            this.index = index;
+            this.state = state;
+        }
+    }
+
+    private static class HostState {
+        final String host;
+        final InetAddress address;
+        final long index;
+        int nextPort;
+        int inFlight;
+        long open;
+        long closed;
+        long filtered;
+        long skipped;
+        int silentRun;      // probes gone unanswered since the last answer
+        boolean confirming; // looks filtered: one port in CONFIRM_STRIDE is probed
+        int stride;
+        boolean reported;
+        boolean retired; // random order: its window is done, report once idle
+
+        HostState(String host, InetAddress address, long index) {
+            this.host = host;
+            this.address = address;
+            this.index = index;
+        }
+
+        void record(String state) {
+            if (PortResult.FILTERED.equals(state)) {
+                filtered++;
+                if (++silentRun >= FILTERED_RUN) {
+                    confirming = true;
+                }
+                return;
+            }
+            if (PortResult.OPEN.equals(state)) {
+                open++;
+            } else {
+                closed++;
+            }
+            silentRun = 0;
+            confirming = false;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Worker process for a distributed scan: connects to a ScanCoordinator,
+ * runs the shards it is sent one after another and streams the open ports
+ * back as they are found (see ScanCoordinator for the protocol).
+ *
+ * Usage: java PortScanner --worker host:port
+ */
+public class ScanWorker {
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args[1].lastIndexOf(':') < 1) {
+            System.err.println("✗ --worker requires the coordinator's host:port");
+            return;
+        }
+        String host = args[1].substring(0, args[1].lastIndexOf(':'));
+        int port = Integer.parseInt(args[1].substring(args[1].lastIndexOf(':') + 1));
+
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "worker-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Socket socket = new Socket(host, port)) {
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            ScanCoordinator.send(out, "HELLO");
+            heartbeat.scheduleAtFixedRate(() -> {
+                try {
+                    ScanCoordinator.send(out, "ALIVE");
+                } catch (IOException e) {
+                    // The read loop notices the closed connection
+                }
+            }, ScanCoordinator.HEARTBEAT_MS, ScanCoordinator.HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+            System.out.println("Worker: connected to " + args[1]);
+
+            String line;
+            while ((line = in.readLine()) != null && line.startsWith("SCAN\t")) {
+                String[] fields = line.split("\t", -1);
+                String shard = fields[1];
+                String[] scanArgs = new String[fields.length - 2];
+                for (int i = 0; i < scanArgs.length; i++) {
+                    scanArgs[i] = ScanCheckpoint.unescape(fields[i + 2]);
+                }
+                runShard(shard, scanArgs, out);
+            }
+            System.out.println("Worker: no more shards");
+        } catch (IOException e) {
+            System.err.println("✗ Worker connection failed: " + e.getMessage());
+        } finally {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    private static void runShard(String shard, String[] args, OutputStream out) throws IOException {
+        System.out.println("Worker: running " + String.join(" ", args));
+        Consumer<PortResult> onOpen = result -> {
+            try {
+                ScanCoordinator.send(out, "OPEN\t" + shard + "\t" + result.getHost() + "\t"
+                                          + result.getPort() + "\t" + result.getServiceName() + "\t"
+                                          + ScanCheckpoint.escape(result.getBanner())
+                                          + ScanCheckpoint.extraFields(result));
+            } catch (IOException e) {
+                // Coordinator gone: it reassigns the shard, nothing to do here
+            }
+        };
+        try {
+            ScanRequest request = new PortScanner().parseArguments(args);
+            if (request == null) {
+                ScanCoordinator.send(out, "FAIL\t" + shard + "\tinvalid scan arguments");
+                return;
+            }
+            new ScanEngine().scan(request, onOpen).export();
+            ScanCoordinator.send(out, "DONE\t" + shard);
+        } catch (IOException | RuntimeException e) {
+            ScanCoordinator.send(out, "FAIL\t" + shard + "\t" + ScanCheckpoint.escape(
+                String.valueOf(e.getMessage())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+}
@@ -1,56 +1,293 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Maps port numbers to their commonly associated service names
+ *
+ * The table is read once from services.txt next to the classes into two
+ * arrays per protocol (TCP and UDP) indexed by port: a short pointing
+ * into a table of interned names, and the port's frequency rank (1 = most
+ * often found open). Lookups are plain array reads and never allocate.
  */
 public class ServiceMapper {
-    private static final Map<Integer, String> SERVICE_MAP = new HashMap<>();
-    
+    private static final String SERVICES_FILE = "services.txt";
+    private static final String UNKNOWN = "Unknown";
+    private static final int PORTS = 65536;
+    private static final long FRACTION_ONE = 1_000_000_000L;
+
+    private static final Table TCP = new Table();
+    private static final Table UDP = new Table();
+    private static String[] names;
+
     static {
-        // Common TCP ports and their services
-        SERVICE_MAP.put(20, "FTP-Data");
-        SERVICE_MAP.put(21, "FTP");
-        SERVICE_MAP.put(22, "SSH");
-        SERVICE_MAP.put(23, "Telnet");
-        SERVICE_MAP.put(25, "SMTP");
-        SERVICE_MAP.put(53, "DNS");
-        SERVICE_MAP.put(80, "HTTP");
-        SERVICE_MAP.put(110, "POP3");
-        SERVICE_MAP.put(111, "RPC");
-        SERVICE_MAP.put(135, "MS-RPC");
-        SERVICE_MAP.put(139, "NetBIOS");
-        SERVICE_MAP.put(143, "IMAP");
-        SERVICE_MAP.put(443, "HTTPS");
-        SERVICE_MAP.put(445, "SMB");
-        SERVICE_MAP.put(465, "SMTPS");
-        SERVICE_MAP.put(587, "SMTP-Submission");
-        SERVICE_MAP.put(993, "IMAPS");
-        SERVICE_MAP.put(995, "POP3S");
-        SERVICE_MAP.put(1433, "MS-SQL");
-        SERVICE_MAP.put(1521, "Oracle-DB");
-        SERVICE_MAP.put(1723, "PPTP");
-        SERVICE_MAP.put(3306, "MySQL");
-        SERVICE_MAP.put(3389, "RDP");
-        SERVICE_MAP.put(5432, "PostgreSQL");
-        SERVICE_MAP.put(5900, "VNC");
-        SERVICE_MAP.put(6379, "Redis");
-        SERVICE_MAP.put(8080, "HTTP-Proxy");
-        SERVICE_MAP.put(8443, "HTTPS-Alt");
-        SERVICE_MAP.put(9090, "WebSphere");
-        SERVICE_MAP.put(27017, "MongoDB");
-    }
-    
+        Map<String, Short> interned = new HashMap<>();
+        List<String> nameTable = new ArrayList<>();
+        nameTable.add(UNKNOWN);
+        interned.put(UNKNOWN, (short) 0);
+        try (InputStream in = ServiceMapper.class.getResourceAsStream(SERVICES_FILE)) {
+            if (in != null) {
+                load(in.readAllBytes(), interned, nameTable);
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Failed to read " + SERVICES_FILE + ": " + e.getMessage());
+        }
+        if (nameTable.size() == 1) {
+            // Table missing from the classpath: keep the most common names
+            String[][] core = {
+                {"21", "FTP"}, {"22", "SSH"}, {"23", "Telnet"}, {"25", "SMTP"}, {"53", "DNS"},
+                {"80", "HTTP"}, {"110", "POP3"}, {"143", "IMAP"}, {"443", "HTTPS"},
+                {"445", "SMB"}, {"3306", "MySQL"}, {"3389", "RDP"}, {"5432", "PostgreSQL"},
+                {"6379", "Redis"}, {"8080", "HTTP-Proxy"}, {"27017", "MongoDB"}
+            };
+            for (String[] entry : core) {
+                nameTable.add(entry[1]);
+                TCP.nameIndex[Integer.parseInt(entry[0])] = (short) (nameTable.size() - 1);
+            }
+        }
+        names = nameTable.toArray(new String[0]);
+        TCP.rank();
+        UDP.rank();
+    }
+
+    /**
+     * Parse lines of the form: name port/tcp [frequency] (or port/udp)
+     *
+     * Works on the raw bytes, and only the names become Strings, since
+     * this runs interpreted during startup.
+     */
+    private static void load(byte[] data, Map<String, Short> interned, List<String> nameTable) {
+        int i = 0;
+        while (i < data.length) {
+            int lineEnd = i;
+            while (lineEnd < data.length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int pos = skipSpace(data, i, lineEnd);
+            int nameEnd = skipWord(data, pos, lineEnd);
+            int portStart = skipSpace(data, nameEnd, lineEnd);
+            int port = 0;
+            int p = portStart;
+            while (p < lineEnd && p - portStart < 5 && data[p] >= '0' && data[p] <= '9') {
+                port = port * 10 + (data[p++] - '0');
+            }
+            Table table = null;
+            if (p > portStart && p + 4 <= lineEnd && data[p] == '/') {
+                if (data[p + 1] == 't' && data[p + 2] == 'c' && data[p + 3] == 'p') {
+                    table = TCP;
+                } else if (data[p + 1] == 'u' && data[p + 2] == 'd' && data[p + 3] == 'p') {
+                    table = UDP;
+                }
+            }
+
+            if (pos < nameEnd && data[pos] != '#' && table != null && port >= 1 && port < PORTS) {
+                String name = new String(data, pos, nameEnd - pos, StandardCharsets.UTF_8);
+                Short index = interned.get(name);
+                if (index == null) {
+                    index = (short) nameTable.size();
+                    nameTable.add(name.intern());
+                    interned.put(name, index);
+                }
+                table.nameIndex[port] = index;
+
+                long frequency = parseFraction(data, skipSpace(data, p + 4, lineEnd), lineEnd);
+                if (frequency > 0) {
+                    table.addFrequency(port, frequency);
+                }
+            }
+            i = lineEnd + 1;
+        }
+    }
+
+    /**
+     * A decimal fraction such as 0.48 in units of 1e-9, or 0 if absent
+     */
+    private static long parseFraction(byte[] data, int pos, int end) {
+        long value = 0;
+        long scale = FRACTION_ONE;
+        boolean fraction = false;
+        for (; pos < end && !isSpace(data[pos]); pos++) {
+            byte b = data[pos];
+            if (b == '.' && !fraction) {
+                fraction = true;
+            } else if (b >= '0' && b <= '9') {
+                if (!fraction) {
+                    value = value * 10 + (b - '0') * FRACTION_ONE;
+                } else if (scale > 1) {
+                    scale /= 10;
+                    value += (b - '0') * scale;
+                }
+            } else {
+                return 0;
+            }
+        }
+        return Math.min(value, FRACTION_ONE);
+    }
+
+    private static int skipSpace(byte[] data, int pos, int end) {
+        while (pos < end && isSpace(data[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipWord(byte[] data, int pos, int end) {
+        while (pos < end && !isSpace(data[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
     public static String getServiceName(int port) {
-        return SERVICE_MAP.getOrDefault(port, "Unknown");
+        return TCP.name(port);
+    }
+
+    /**
+     * Service name of a port for protocol "tcp" or "udp"
+     */
+    public static String getServiceName(int port, String protocol) {
+        return table(protocol).name(port);
     }
-    
+
+    /**
+     * Frequency rank of a port, 1 for the port most often found open,
+     * 0 if there is no frequency data for it
+     */
+    public static int getRank(int port) {
+        return TCP.rank(port);
+    }
+
+    /**
+     * The default --top-ports list
+     */
     public static int[] getTopPorts() {
-        return new int[]{
-            21, 22, 23, 25, 53, 80, 110, 111, 135, 139, 
-            143, 443, 445, 993, 995, 1723, 3306, 3389, 
-            5432, 5900, 8080, 27017
-        };
+        return getTopPorts(100);
+    }
+
+    /**
+     * The count ports most likely to be open: ranked ports by frequency,
+     * then other named ports, then everything else in ascending order
+     */
+    public static int[] getTopPorts(int count) {
+        return getTopPorts(count, PortResult.TCP);
+    }
+
+    public static int[] getTopPorts(int count, String protocol) {
+        int[] order = table(protocol).likelihoodOrder();
+        return Arrays.copyOf(order, Math.max(0, Math.min(count, order.length)));
+    }
+
+    /**
+     * The given ports reordered so likely open ones come first. Ports with
+     * the same likelihood keep their relative order.
+     */
+    public static int[] orderByLikelihood(int[] ports) {
+        return orderByLikelihood(ports, PortResult.TCP);
+    }
+
+    public static int[] orderByLikelihood(int[] ports, String protocol) {
+        Table table = table(protocol);
+        long[] keys = new long[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            int rank = table.rank(ports[i]);
+            long priority = rank != 0 ? rank : PORTS;
+            keys[i] = (priority << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] ordered = new int[ports.length];
+        for (int i = 0; i < keys.length; i++) {
+            ordered[i] = ports[(int) keys[i]];
+        }
+        return ordered;
+    }
+
+    private static Table table(String protocol) {
+        return PortResult.UDP.equals(protocol) ? UDP : TCP;
     }
 
+    /**
+     * Names and frequency ranks of one protocol's ports
+     */
+    private static class Table {
+        final short[] nameIndex = new short[PORTS];
+        final char[] rank = new char[PORTS]; // 0 = no frequency data
+        private long[] frequencies = new long[256];
+        private int frequencyCount;
+        private int[] rankedPorts;
+        private volatile int[] likelihoodOrder;
+
+        /**
+         * Sort key: the frequency in fixed point (inverted so higher sorts
+         * first) above the port
+         */
+        void addFrequency(int port, long frequency) {
+            if (frequencyCount == frequencies.length) {
+                frequencies = Arrays.copyOf(frequencies, frequencyCount * 2);
+            }
+            frequencies[frequencyCount++] = ((FRACTION_ONE - frequency) << 16) | port;
+        }
+
+        /**
+         * Rank ports by descending frequency, then by port
+         */
+        void rank() {
+            long[] keys = Arrays.copyOf(frequencies, frequencyCount);
+            Arrays.sort(keys);
+            int[] ranked = new int[keys.length];
+            int count = 0;
+            for (long key : keys) {
+                int port = (int) (key & (PORTS - 1));
+                if (rank[port] == 0) {
+                    ranked[count++] = port;
+                    rank[port] = (char) count;
+                }
+            }
+            rankedPorts = Arrays.copyOf(ranked, count);
+            frequencies = null;
+        }
+
+        String name(int port) {
+            if (port < 0 || port >= PORTS) {
+                return UNKNOWN;
+            }
+            return names[nameIndex[port]];
+        }
+
+        int rank(int port) {
+            return port < 0 || port >= PORTS ? 0 : rank[port];
+        }
+
+        int[] likelihoodOrder() {
+            int[] order = likelihoodOrder;
+            if (order != null) {
+                return order;
+            }
+            order = new int[PORTS - 1];
+            int n = 0;
+            for (int port : rankedPorts) {
+                order[n++] = port;
+            }
+            for (int port = 1; port < PORTS; port++) {
+                if (rank[port] == 0 && nameIndex[port] != 0) {
+                    order[n++] = port;
+                }
+            }
+            for (int port = 1; port < PORTS; port++) {
+                if (rank[port] == 0 && nameIndex[port] == 0) {
+                    order[n++] = port;
+                }
+            }
+            likelihoodOrder = order;
+            return order;
+        }
+    }
 }
@@ -0,0 +1,191 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A protocol specific request that makes a quiet service identify itself.
+ *
+ * Many services (HTTP, Redis, MongoDB, ...) send nothing until the client
+ * speaks, so reading the greeting alone leaves their banner empty. The
+ * probe database lists a payload for each such protocol, most likely
+ * first, together with the ports it is usually found on.
+ */
+public class ServiceProbe {
+
+    // Probes tried per port after the plain greeting read came back empty
+    static final int MAX_PROBES_PER_PORT = 3;
+
+    private static final List<ServiceProbe> DATABASE = new ArrayList<>();
+
+    static {
+        // General likelihood order, used once the port-specific probes are tried
+        DATABASE.add(new ServiceProbe("http", "HTTP", "HEAD / HTTP/1.0\r\n\r\n", "HTTP/",
+            80, 81, 591, 3000, 5000, 8000, 8008, 8080, 8081, 8888, 9000, 9090));
+        DATABASE.add(new ServiceProbe("generic", null, "\r\n\r\n", null));
+        DATABASE.add(new ServiceProbe("redis", "Redis", "PING\r\n", null, 6379, 6380) {
+            @Override
+            boolean matches(byte[] data, int length) {
+                // +PONG, or -NOAUTH / -ERR from a protected instance
+                return length > 0 && (data[0] == '+' || data[0] == '-');
+            }
+        });
+        DATABASE.add(new ServiceProbe("memcached", "Memcached", "version\r\n", "VERSION",
+            11211));
+        DATABASE.add(new MongoProbe());
+    }
+
+    private final String name;
+    private final String service;
+    private final byte[] payload;
+    private final byte[] responsePrefix;
+    private final int[] ports;
+
+    ServiceProbe(String name, String service, String payload, String responsePrefix,
+                 int... ports) {
+        this(name, service, payload.getBytes(StandardCharsets.ISO_8859_1),
+             responsePrefix == null ? null : responsePrefix.getBytes(StandardCharsets.ISO_8859_1),
+             ports);
+    }
+
+    ServiceProbe(String name, String service, byte[] payload, byte[] responsePrefix,
+                 int... ports) {
+        this.name = name;
+        this.service = service;
+        this.payload = payload;
+        this.responsePrefix = responsePrefix;
+        this.ports = ports;
+    }
+
+    /**
+     * Probes to try on a port: those registered for it first, then the
+     * rest in general likelihood order, at most MAX_PROBES_PER_PORT
+     */
+    public static List<ServiceProbe> forPort(int port) {
+        List<ServiceProbe> probes = new ArrayList<>();
+        for (ServiceProbe probe : DATABASE) {
+            if (probe.isRegisteredFor(port)) {
+                probes.add(probe);
+            }
+        }
+        for (ServiceProbe probe : DATABASE) {
+            if (!probes.contains(probe)) {
+                probes.add(probe);
+            }
+        }
+        return probes.subList(0, Math.min(MAX_PROBES_PER_PORT, probes.size()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Service name to report when the response matches, or null
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * The request bytes; a fresh read-only view for each exchange
+     */
+    public ByteBuffer payload() {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+
+    boolean isRegisteredFor(int port) {
+        for (int p : ports) {
+            if (p == port) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the response is from the protocol this probe speaks
+     */
+    boolean matches(byte[] data, int length) {
+        if (responsePrefix == null || length < responsePrefix.length) {
+            return false;
+        }
+        return Arrays.equals(data, 0, responsePrefix.length,
+                             responsePrefix, 0, responsePrefix.length);
+    }
+
+    /**
+     * True once the whole reply has arrived
+     */
+    boolean isComplete(byte[] data, int length) {
+        return BannerGrabber.isComplete(data, length);
+    }
+
+    /**
+     * Banner text for a response to this probe
+     */
+    String describe(byte[] data, int length) {
+        return BannerGrabber.formatBanner(data, length);
+    }
+
+    /**
+     * Legacy OP_QUERY isMaster, which every MongoDB version still answers
+     * during the handshake. The binary reply is summarised, not printed.
+     */
+    private static class MongoProbe extends ServiceProbe {
+        private static final int OP_REPLY = 1;
+        private static final int OP_MSG = 2013;
+
+        MongoProbe() {
+            super("mongodb", "MongoDB", isMaster(), null, 27017, 27018, 27019);
+        }
+
+        private static byte[] isMaster() {
+            byte[] collection = "admin.$cmd\0".getBytes(StandardCharsets.ISO_8859_1);
+            byte[] key = "isMaster\0".getBytes(StandardCharsets.ISO_8859_1);
+            int documentLength = 4 + 1 + key.length + 4 + 1;
+            int messageLength = 16 + 4 + collection.length + 4 + 4 + documentLength;
+
+            ByteBuffer message = ByteBuffer.allocate(messageLength).order(ByteOrder.LITTLE_ENDIAN);
+            message.putInt(messageLength).putInt(1).putInt(0).putInt(2004); // header, OP_QUERY
+            message.putInt(0).put(collection).putInt(0).putInt(-1);         // flags, skip, return
+            message.putInt(documentLength).put((byte) 0x10).put(key).putInt(1).put((byte) 0);
+            return message.array();
+        }
+
+        @Override
+        boolean matches(byte[] data, int length) {
+            if (length < 16) {
+                return false;
+            }
+            int opCode = ByteBuffer.wrap(data, 12, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            return opCode == OP_REPLY || opCode == OP_MSG;
+        }
+
+        @Override
+        boolean isComplete(byte[] data, int length) {
+            // Binary reply, complete once its declared message length is in
+            return length >= 4 && length >= ByteBuffer.wrap(data, 0, 4)
+                                                       .order(ByteOrder.LITTLE_ENDIAN).getInt();
+        }
+
+        @Override
+        String describe(byte[] data, int length) {
+            if (!matches(data, length)) {
+                return super.describe(data, length);
+            }
+            byte[] field = "maxWireVersion\0".getBytes(StandardCharsets.ISO_8859_1);
+            for (int i = 1; i + field.length + 4 <= length; i++) {
+                if (data[i - 1] == 0x10
+                        && Arrays.equals(data, i, i + field.length, field, 0, field.length)) {
+                    int version = ByteBuffer.wrap(data, i + field.length, 4)
+                                            .order(ByteOrder.LITTLE_ENDIAN).getInt();
+                    return "MongoDB (wire version " + version + ")";
+                }
+            }
+            return "MongoDB";
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes open ports to the export file as they are found.
+ *
+ * The file is valid after every result, so a scan that is killed halfway
+ * still leaves a usable partial report. For JSON the closing brackets are
+ * rewritten after each entry and the next entry overwrites them. Once the
+ * scan completes, ResultExporter replaces the file with the usual sorted,
+ * per-host report.
+ */
+public class StreamingFileSink implements ResultSink {
+
+    private static final String JSON_TRAILER = "\n  ]\n}\n";
+
+    private final String format;
+    private final String filename;
+    private final FileChannel channel;
+    private final ReportWriter out;
+    private final ReportFormat encoder; // csv and ndjson lines, null for the others
+    private int count;
+
+    public StreamingFileSink(String format, String target, String filename) throws IOException {
+        this.format = format;
+        this.filename = filename;
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new ReportWriter(channel);
+        this.encoder = format.equals("csv") || format.equals("ndjson")
+                       ? ReportFormat.forName(format) : null;
+
+        switch (format) {
+            case "txt":
+                out.append("PARTIAL PORT SCAN REPORT (in progress)\n")
+                   .append("Target Host: ").append(target).newLine()
+                   .append("Scan Started: ").append(ResultExporter.getCurrentTimestamp())
+                   .append("\n\n");
+                break;
+            case "csv":
+                encoder.begin(out, target, 0, 0, 0);
+                break;
+            case "ndjson":
+                out.append("{\"type\": \"scan_info\", \"target\": \"").appendJson(target)
+                   .append("\", \"timestamp\": \"").append(ResultExporter.getCurrentTimestamp())
+                   .append("\", \"partial\": true}\n");
+                break;
+            case "json":
+                out.append("{\n  \"scan_info\": {\n    \"target\": \"").appendJson(target)
+                   .append("\",\n    \"timestamp\": \"").append(ResultExporter.getCurrentTimestamp())
+                   .append("\",\n    \"partial\": true\n  },\n  \"open_ports\": [");
+                break;
+            default:
+                channel.close();
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+        commit();
+    }
+
+    @Override
+    public void accept(PortResult result) {
+        try {
+            switch (format) {
+                case "txt":
+                    out.append(result.getHost()).append("  ").append(result.toString()).newLine();
+                    break;
+                case "json":
+                    out.append(count > 0 ? ",\n" : "\n")
+                       .append("    {\"host\": \"").appendJson(result.getHost())
+                       .append("\", \"port\": ").append(result.getPort())
+                       .append(", \"service\": \"").appendJson(result.getServiceName())
+                       .append("\", \"banner\": \"").appendJson(result.getBanner())
+                       .append("\", \"protocol\": \"").append(result.getProtocol())
+                       .append("\", \"state\": \"").append(result.getState()).append('"');
+                    if (result.getTls() != null) {
+                        out.append(", \"tls\": ");
+                        ReportFormat.appendTls(out, result.getTls());
+                    }
+                    out.append('}');
+                    break;
+                default:
+                    encoder.port(out, result.getHost(), result);
+            }
+            commit();
+            count++;
+        } catch (IOException e) {
+            System.err.println("✗ Failed to stream result to " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write out what is buffered. For JSON the closing brackets go out in
+     * the same write and the next entry overwrites them.
+     */
+    private void commit() throws IOException {
+        if (format.equals("json")) {
+            out.append(JSON_TRAILER);
+            out.flush();
+            channel.position(channel.position() - JSON_TRAILER.length());
+        } else {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("✗ Failed to close " + filename + ": " + e.getMessage());
+        }
+    }
+}
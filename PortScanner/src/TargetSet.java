@@ -0,0 +1,274 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ordered set of scan targets parsed from a target specification.
+ *
+ * A specification is a comma separated list of:
+ *   192.168.1.1            single address or host name
+ *   192.168.0.0/22         IPv4 CIDR block
+ *   10.0.0.1-10.0.0.50     IPv4 range (or the short form 10.0.0.1-50)
+ *   @hosts.txt             file with one of the above per line, # comments
+ *
+ * IPv4 blocks and ranges are kept as (start, count) segments and expanded
+ * on demand, so a /16 costs the same memory as a single address. Names
+ * are resolved once, by resolve(), before the scan starts; names that do
+ * not resolve stay in the set but are marked, and scans skip them.
+ */
+public class TargetSet {
+
+    private final String spec;
+    private final List<Segment> segments = new ArrayList<>();
+    private long size;
+    private Map<String, InetAddress> addresses = Map.of();
+    private Set<String> unresolved = Set.of();
+    private long unresolvedCount;
+
+    private TargetSet(String spec) {
+        this.spec = spec;
+    }
+
+    public static TargetSet parse(String spec) throws IOException {
+        TargetSet targets = new TargetSet(spec);
+        for (String token : spec.split(",")) {
+            targets.addToken(token.trim());
+        }
+        if (targets.size == 0) {
+            throw new IllegalArgumentException("No targets in '" + spec + "'");
+        }
+        return targets;
+    }
+
+    /**
+     * The specification as given on the command line
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Host at the given position, in specification order
+     */
+    public String get(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Target index " + index);
+        }
+        for (Segment segment : segments) {
+            if (index < segment.count) {
+                return segment.names != null ? segment.names.get((int) index)
+                                             : formatIPv4(segment.start + index);
+            }
+            index -= segment.count;
+        }
+        throw new IllegalStateException("Target index " + index);
+    }
+
+    /**
+     * Address of the host at the given position: IPv4 targets are converted
+     * directly, names come from resolve(). Null if a name was not resolved.
+     */
+    public InetAddress getAddress(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Target index " + index);
+        }
+        for (Segment segment : segments) {
+            if (index < segment.count) {
+                if (segment.names == null) {
+                    return HostResolver.fromIPv4(segment.start + index);
+                }
+                String name = segment.names.get((int) index);
+                long ipv4 = parseIPv4(name);
+                return ipv4 >= 0 ? HostResolver.fromIPv4(ipv4) : addresses.get(name);
+            }
+            index -= segment.count;
+        }
+        throw new IllegalStateException("Target index " + index);
+    }
+
+    /**
+     * Look up every host name, up to parallelism at a time
+     *
+     * @return the names that did not resolve, each once
+     */
+    public List<String> resolve(int parallelism) throws InterruptedException {
+        List<String> names = getHostNames();
+        addresses = HostResolver.resolveAll(names, parallelism);
+        Set<String> failed = new LinkedHashSet<>();
+        long count = 0;
+        for (String name : names) {
+            if (!addresses.containsKey(name)) {
+                failed.add(name);
+                count++;
+            }
+        }
+        unresolved = failed;
+        unresolvedCount = count;
+        return new ArrayList<>(failed);
+    }
+
+    /**
+     * Whether the host at the given position is a name resolve() could not look up
+     */
+    public boolean isUnresolved(long index) {
+        return !unresolved.isEmpty() && unresolved.contains(get(index));
+    }
+
+    /**
+     * Targets that are names resolve() could not look up
+     */
+    public long getUnresolvedCount() {
+        return unresolvedCount;
+    }
+
+    /**
+     * Host names that need a DNS lookup, i.e. everything given as a name
+     */
+    public List<String> getHostNames() {
+        List<String> names = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.names != null) {
+                for (String name : segment.names) {
+                    if (parseIPv4(name) < 0) {
+                        names.add(name);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private void addToken(String token) throws IOException {
+        if (token.isEmpty()) {
+            return;
+        }
+
+        if (token.startsWith("@")) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(token.substring(1)))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    if (comment >= 0) {
+                        line = line.substring(0, comment);
+                    }
+                    for (String part : line.trim().split("[\\s,]+")) {
+                        addToken(part);
+                    }
+                }
+            }
+            return;
+        }
+
+        int slash = token.indexOf('/');
+        if (slash > 0) {
+            long base = parseIPv4(token.substring(0, slash));
+            int prefix = parseInt(token.substring(slash + 1), token);
+            if (base < 0 || prefix < 0 || prefix > 32) {
+                throw new IllegalArgumentException("Invalid CIDR block '" + token + "'");
+            }
+            long count = 1L << (32 - prefix);
+            add(new Segment(base & ~(count - 1), count, null));
+            return;
+        }
+
+        int dash = token.indexOf('-');
+        if (dash > 0 && parseIPv4(token.substring(0, dash)) >= 0) {
+            long start = parseIPv4(token.substring(0, dash));
+            String endPart = token.substring(dash + 1);
+            long end = endPart.indexOf('.') >= 0
+                     ? parseIPv4(endPart)
+                     : (start & ~0xFFL) | parseInt(endPart, token);
+            if (end < start || end > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("Invalid address range '" + token + "'");
+            }
+            add(new Segment(start, end - start + 1, null));
+            return;
+        }
+
+        addName(token);
+    }
+
+    private void addName(String name) {
+        // Consecutive names share one segment to keep lookups by index cheap
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || last.names == null) {
+            last = new Segment(0, 0, new ArrayList<>());
+            segments.add(last);
+        }
+        last.names.add(name);
+        last.count++;
+        size++;
+    }
+
+    private void add(Segment segment) {
+        segments.add(segment);
+        size += segment.count;
+    }
+
+    private static int parseInt(String value, String token) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid target '" + token + "'");
+        }
+    }
+
+    /**
+     * Parse a dotted IPv4 address, -1 if the string is not one
+     */
+    static long parseIPv4(String text) {
+        String[] parts = text.split("\\.", -1);
+        if (parts.length != 4) {
+            return -1;
+        }
+        long value = 0;
+        for (String part : parts) {
+            if (part.isEmpty() || part.length() > 3) {
+                return -1;
+            }
+            int octet = 0;
+            for (int i = 0; i < part.length(); i++) {
+                char c = part.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                octet = octet * 10 + (c - '0');
+            }
+            if (octet > 255) {
+                return -1;
+            }
+            value = (value << 8) | octet;
+        }
+        return value;
+    }
+
+    static String formatIPv4(long value) {
+        return ((value >> 24) & 0xFF) + "." + ((value >> 16) & 0xFF) + "."
+             + ((value >> 8) & 0xFF) + "." + (value & 0xFF);
+    }
+
+    /**
+     * Either a run of IPv4 addresses or a run of named hosts
+     */
+    private static class Segment {
+        final long start;
+        long count;
+        final List<String> names;
+
+        Segment(long start, long count, List<String> names) {
+            this.start = start;
+            this.count = count;
+            this.names = names;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * TLS handshakes with open ports, to fingerprint services that say
+ * nothing until they get a ClientHello (HTTPS, IMAPS, SMTPS, ...).
+ *
+ * Every handshake is an SSLEngine on a non-blocking SocketChannel, all
+ * driven by one Selector thread, so hundreds can be in flight without a
+ * thread each. The engines share one SSLContext that accepts any
+ * certificate: the scan records certificates, it does not judge them.
+ * At most maxHandshakes run at once (each holds about 50 KB of buffers),
+ * the rest wait their turn.
+ */
+public class TlsEngine implements AutoCloseable {
+
+    /**
+     * Ports where TLS is spoken from the first byte
+     */
+    private static final int[] TLS_PORTS = {
+        443, 465, 563, 636, 853, 989, 990, 992, 993, 994, 995, 2376, 3269, 4443, 5061, 5986,
+        6443, 6697, 8443, 9443
+    };
+
+    private static SSLContext context;
+
+    private final long timeoutNanos;
+    private final int maxHandshakes;
+    private final SSLContext sslContext;
+    private final Selector selector;
+    private final Thread thread;
+
+    // Handed over from other threads; everything else is selector thread only
+    private final Queue<Handshake> submitted = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Handshake> waiting = new ArrayDeque<>();
+    private final ArrayDeque<Handshake> deadlines = new ArrayDeque<>();
+    private int running;
+    private volatile boolean closed;
+
+    /**
+     * @param timeoutMs     how long a whole handshake may take
+     * @param maxHandshakes handshakes in flight at once
+     */
+    public TlsEngine(int timeoutMs, int maxHandshakes) throws IOException {
+        this.timeoutNanos = timeoutMs * 1_000_000L;
+        this.maxHandshakes = Math.max(1, maxHandshakes);
+        this.sslContext = sharedContext();
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "tls-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * True for ports that usually speak TLS straight away
+     */
+    public static boolean isTlsPort(int port) {
+        for (int p : TLS_PORTS) {
+            if (p == port) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handshake with an open port. The future completes with a result
+     * carrying the TLS details, or with the original result if the
+     * handshake failed or timed out.
+     *
+     * @param address the host's address as resolved for the scan; the
+     *                engine thread never looks names up itself
+     */
+    public CompletableFuture<PortResult> handshake(PortResult result, InetAddress address) {
+        if (closed || address == null) {
+            return CompletableFuture.completedFuture(result);
+        }
+        Handshake handshake = new Handshake(result, address);
+        submitted.add(handshake);
+        selector.wakeup();
+        return handshake.future;
+    }
+
+    /**
+     * Stop the engine. Handshakes still running complete with their
+     * original result. An interrupt while waiting for the engine thread
+     * is kept on the calling thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One context for every engine of the process: creating it loads the
+     * JSSE providers and seeds a SecureRandom, which is slow
+     */
+    private static synchronized SSLContext sharedContext() throws IOException {
+        if (context == null) {
+            try {
+                SSLContext created = SSLContext.getInstance("TLS");
+                created.init(null, new TrustManager[]{new AcceptAll()}, null);
+                context = created;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("TLS unavailable: " + e.getMessage(), e);
+            }
+        }
+        return context;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                Handshake handshake;
+                while ((handshake = submitted.poll()) != null) {
+                    waiting.addLast(handshake);
+                }
+                while (!waiting.isEmpty() && running < maxHandshakes) {
+                    start(waiting.poll());
+                }
+
+                Handshake oldest = deadlines.peek();
+                long waitMs = oldest == null ? 0
+                            : Math.max(1, (oldest.deadline - System.nanoTime()) / 1_000_000L);
+                selector.select(waitMs);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid()) {
+                        handle((Handshake) key.attachment(), key);
+                    }
+                }
+
+                // Every handshake has the same timeout, so deadlines expire in order
+                long now = System.nanoTime();
+                while ((oldest = deadlines.peek()) != null && oldest.deadline - now <= 0) {
+                    finish(oldest, null);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("✗ TLS engine failed: " + e.getMessage());
+        } finally {
+            for (Handshake handshake : deadlines) {
+                handshake.closeChannel();
+                handshake.future.complete(handshake.result);
+            }
+            for (Handshake handshake : waiting) {
+                handshake.future.complete(handshake.result);
+            }
+            for (Handshake handshake : submitted) {
+                handshake.future.complete(handshake.result);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void start(Handshake handshake) {
+        PortResult result = handshake.result;
+        running++;
+        try {
+            // The host name goes out as SNI, so virtual hosts show their own certificate
+            SSLEngine engine = sslContext.createSSLEngine(result.getHost(), result.getPort());
+            engine.setUseClientMode(true);
+            SSLSession session = engine.getSession();
+            handshake.engine = engine;
+            handshake.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+            handshake.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+            handshake.netOut.flip();
+            handshake.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+
+            handshake.channel = SocketChannel.open();
+            handshake.channel.configureBlocking(false);
+            boolean connected = handshake.channel.connect(
+                new InetSocketAddress(handshake.address, result.getPort()));
+            handshake.key = handshake.channel.register(selector, SelectionKey.OP_CONNECT, handshake);
+            handshake.deadline = System.nanoTime() + timeoutNanos;
+            deadlines.addLast(handshake);
+            if (connected) {
+                engine.beginHandshake();
+                advance(handshake);
+            }
+        } catch (IOException e) {
+            finish(handshake, null);
+        }
+    }
+
+    private void handle(Handshake handshake, SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                if (!handshake.channel.finishConnect()) {
+                    return;
+                }
+                handshake.engine.beginHandshake();
+            } else if (key.isReadable()) {
+                if (handshake.channel.read(handshake.netIn) < 0) {
+                    finish(handshake, null);
+                    return;
+                }
+            }
+            advance(handshake);
+        } catch (IOException e) {
+            // Refused, reset, or not TLS at all (SSLException)
+            finish(handshake, null);
+        }
+    }
+
+    /**
+     * Run the handshake as far as the data at hand allows, then wait for
+     * the socket: writable if output is stuck, readable if the engine
+     * needs more from the server
+     */
+    private void advance(Handshake handshake) throws IOException {
+        SSLEngine engine = handshake.engine;
+        while (true) {
+            // Whatever the engine produced goes out before anything else
+            if (handshake.netOut.hasRemaining()) {
+                handshake.channel.write(handshake.netOut);
+                if (handshake.netOut.hasRemaining()) {
+                    handshake.key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    handshake.netOut.clear();
+                    SSLEngineResult wrapped = engine.wrap(ByteBuffer.allocate(0), handshake.netOut);
+                    handshake.netOut.flip();
+                    if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED
+                            && !handshake.netOut.hasRemaining()) {
+                        finish(handshake, null);
+                        return;
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    handshake.netIn.flip();
+                    SSLEngineResult unwrapped = engine.unwrap(handshake.netIn, handshake.appIn);
+                    handshake.netIn.compact();
+                    handshake.appIn.clear(); // application data is not wanted
+                    if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        handshake.key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    if (unwrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        finish(handshake, null);
+                        return;
+                    }
+                    break;
+                case NEED_TASK:
+                    // Certificate parsing and key agreement: short, run in place
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                default:
+                    // Handshake over and its last flight sent; an engine that
+                    // closed got an alert instead of a session
+                    finish(handshake, engine.isOutboundDone() || engine.isInboundDone()
+                                      ? null : describe(engine.getSession()));
+                    return;
+            }
+        }
+    }
+
+    private static TlsInfo describe(SSLSession session) {
+        X509Certificate certificate = null;
+        try {
+            Certificate[] chain = session.getPeerCertificates();
+            if (chain.length > 0 && chain[0] instanceof X509Certificate) {
+                certificate = (X509Certificate) chain[0];
+            }
+        } catch (SSLException e) {
+            // Anonymous suite, no certificate
+        }
+        return TlsInfo.of(session.getProtocol(), session.getCipherSuite(), certificate);
+    }
+
+    /**
+     * End a handshake, successful with tls, failed with null
+     */
+    private void finish(Handshake handshake, TlsInfo tls) {
+        if (handshake.done) {
+            return;
+        }
+        handshake.done = true;
+        handshake.closeChannel();
+        deadlines.remove(handshake);
+        running--;
+        PortResult original = handshake.result;
+        handshake.future.complete(tls == null ? original
+            : new PortResult(original.getHost(), original.getPort(), original.getBanner(),
+                             original.getServiceName(), original.getProtocol(),
+                             original.getState(), tls));
+    }
+
+    /**
+     * One open port being handshaken with
+     */
+    private static class Handshake {
+        final PortResult result;
+        final InetAddress address;
+        final CompletableFuture<PortResult> future = new CompletableFuture<>();
+        SSLEngine engine;
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer netIn;
+        ByteBuffer netOut; // kept flipped: what is left to send
+        ByteBuffer appIn;
+        long deadline;
+        boolean done;
+
+        Handshake(PortResult result, InetAddress address) {
+            this.result = result;
+            this.address = address;
+        }
+
+        void closeChannel() {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Trusts every certificate; the handshake is for inspection only and
+     * nothing is sent over the connection
+     */
+    private static class AcceptAll implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
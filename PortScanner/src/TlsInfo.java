@@ -0,0 +1,95 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * What a TLS handshake with an open port revealed: the negotiated
+ * protocol and cipher suite, and the server certificate's subject, expiry
+ * and SHA-256 fingerprint
+ */
+public class TlsInfo {
+    private final String protocol;
+    private final String cipher;
+    private final String subject;
+    private final String notAfter;
+    private final String sha256;
+
+    public TlsInfo(String protocol, String cipher, String subject, String notAfter, String sha256) {
+        this.protocol = protocol;
+        this.cipher = cipher;
+        this.subject = subject;
+        this.notAfter = notAfter;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * From a negotiated session; certificate fields are empty if the
+     * server sent none (anonymous suites)
+     */
+    static TlsInfo of(String protocol, String cipher, X509Certificate certificate) {
+        if (certificate == null) {
+            return new TlsInfo(protocol, cipher, "", "", "");
+        }
+        SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd");
+        date.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return new TlsInfo(protocol, cipher, certificate.getSubjectX500Principal().getName(),
+                           date.format(certificate.getNotAfter()), fingerprint(certificate));
+    }
+
+    /**
+     * e.g. TLSv1.3
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public String getCipher() {
+        return cipher;
+    }
+
+    /**
+     * Certificate subject as an RFC 2253 name
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * Certificate expiry date (UTC, yyyy-MM-dd)
+     */
+    public String getNotAfter() {
+        return notAfter;
+    }
+
+    /**
+     * SHA-256 of the DER encoded certificate, lowercase hex
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(protocol).append(' ').append(cipher);
+        if (!subject.isEmpty()) {
+            sb.append(", ").append(subject).append(", expires ").append(notAfter);
+        }
+        return sb.toString();
+    }
+
+    private static String fingerprint(X509Certificate certificate) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            return "";
+        }
+    }
+}
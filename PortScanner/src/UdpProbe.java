@@ -0,0 +1,178 @@
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Payloads for UDP scanning, and short descriptions of the replies.
+ *
+ * A UDP service silently drops a datagram it cannot parse, so an empty
+ * probe leaves most open ports indistinguishable from filtered ones. Well
+ * known ports get a request their protocol answers; every other port gets
+ * a minimal datagram, which still draws an ICMP port unreachable when the
+ * port is closed.
+ */
+public class UdpProbe {
+
+    // The JDK does not send zero-length datagrams from a channel
+    private static final byte[] DEFAULT = new byte[1];
+    private static final Map<Integer, byte[]> PAYLOADS = new HashMap<>();
+
+    static {
+        // DNS: version.bind TXT in class CHAOS, answered (or refused) by any server
+        byte[] dns = bytes(0x12, 0x34, 0x01, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                           7, 'v', 'e', 'r', 's', 'i', 'o', 'n', 4, 'b', 'i', 'n', 'd', 0,
+                           0x00, 0x10, 0x00, 0x03);
+        register(dns, 53);
+        // mDNS: PTR _services._dns-sd._udp.local
+        register(bytes(0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                       9, '_', 's', 'e', 'r', 'v', 'i', 'c', 'e', 's',
+                       7, '_', 'd', 'n', 's', '-', 's', 'd', 4, '_', 'u', 'd', 'p',
+                       5, 'l', 'o', 'c', 'a', 'l', 0, 0x00, 0x0c, 0x00, 0x01), 5353);
+        // NTP: version 4 client request
+        byte[] ntp = new byte[48];
+        ntp[0] = (byte) 0xE3;
+        register(ntp, 123);
+        // SNMP v1 GetRequest for sysDescr.0, community "public"
+        register(bytes(0x30, 0x29, 0x02, 0x01, 0x00, 0x04, 0x06, 'p', 'u', 'b', 'l', 'i', 'c',
+                       0xa0, 0x1c, 0x02, 0x04, 0x00, 0x00, 0x00, 0x01, 0x02, 0x01, 0x00,
+                       0x02, 0x01, 0x00, 0x30, 0x0e, 0x30, 0x0c, 0x06, 0x08,
+                       0x2b, 0x06, 0x01, 0x02, 0x01, 0x01, 0x01, 0x00, 0x05, 0x00), 161);
+        // NetBIOS name service: node status of "*"
+        byte[] nbstat = new byte[50];
+        System.arraycopy(bytes(0x80, 0xf0, 0x00, 0x10, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00,
+                               0x00, 0x00, 0x20, 'C', 'K'), 0, nbstat, 0, 15);
+        for (int i = 15; i < 45; i++) {
+            nbstat[i] = 'A';
+        }
+        System.arraycopy(bytes(0x00, 0x00, 0x21, 0x00, 0x01), 0, nbstat, 45, 5);
+        register(nbstat, 137);
+        // rpcbind: NULL call to program 100000 version 2
+        register(bytes(0x72, 0xfe, 0x1d, 0x13, 0, 0, 0, 0, 0, 0, 0, 2, 0, 0x01, 0x86, 0xa0,
+                       0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+                 111);
+        // TFTP: read request for a file that is not there, answered with an error
+        register(bytes(0x00, 0x01, 'a', 0x00, 'o', 'c', 't', 'e', 't', 0x00), 69);
+        register("M-SEARCH * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\n"
+                 + "MAN: \"ssdp:discover\"\r\nMX: 1\r\nST: ssdp:all\r\n\r\n", 1900);
+        // memcached: UDP frame header, then the text protocol
+        register(bytes(0x00, 0x01, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00,
+                       'v', 'e', 'r', 's', 'i', 'o', 'n', '\r', '\n'), 11211);
+        register("\r\n", 7, 19);
+    }
+
+    /**
+     * Datagram that makes the service on port answer, a single zero byte
+     * if there is none
+     */
+    public static byte[] payloadFor(int port) {
+        return PAYLOADS.getOrDefault(port, DEFAULT);
+    }
+
+    /**
+     * One line describing a reply from port, for the banner column
+     */
+    public static String describe(int port, byte[] data, int length) {
+        switch (port) {
+            case 53:
+            case 5353:
+                return describeDns(data, length);
+            case 123:
+                if (length >= 48) {
+                    return "NTP v" + (data[0] >> 3 & 7) + ", stratum " + (data[1] & 0xFF);
+                }
+                break;
+            case 137:
+                return describeNetbios(data, length);
+            case 161:
+                String text = longestPrintable(data, length);
+                return text.isEmpty() ? "SNMP" : "SNMP: " + text;
+            default:
+                break;
+        }
+        if (length > 0 && longestPrintable(data, length).length() * 2 < length) {
+            return length + " byte reply";
+        }
+        return BannerGrabber.formatBanner(data, length);
+    }
+
+    private static String describeDns(byte[] data, int length) {
+        if (length < 12) {
+            return "";
+        }
+        int rcode = data[3] & 0x0F;
+        int answers = (data[6] & 0xFF) << 8 | data[7] & 0xFF;
+        if (rcode == 0 && answers > 0) {
+            // Skip the question, then the answer's name, type, class, ttl and length
+            int pos = skipName(data, length, 12) + 4;
+            pos = skipName(data, length, pos);
+            int type = pos + 10 <= length ? (data[pos] & 0xFF) << 8 | data[pos + 1] & 0xFF : -1;
+            pos += 10;
+            if (type == 16 && pos < length) {
+                int textLength = Math.min(data[pos] & 0xFF, length - pos - 1);
+                return "DNS: " + new String(data, pos + 1, textLength, StandardCharsets.ISO_8859_1);
+            }
+        }
+        String[] codes = {"NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED"};
+        return "DNS " + (rcode < codes.length ? codes[rcode] : "rcode " + rcode);
+    }
+
+    private static int skipName(byte[] data, int length, int pos) {
+        while (pos < length) {
+            int label = data[pos] & 0xFF;
+            if (label == 0) {
+                return pos + 1;
+            }
+            if ((label & 0xC0) == 0xC0) {
+                return pos + 2; // compression pointer ends the name
+            }
+            pos += label + 1;
+        }
+        return length;
+    }
+
+    /**
+     * First name of a node status reply
+     */
+    private static String describeNetbios(byte[] data, int length) {
+        // header 12, name 34, type/class 4, ttl 4, rdlength 2, name count 1
+        int pos = 57;
+        if (length < pos + 15 || data[56] == 0) {
+            return "NetBIOS";
+        }
+        return "NetBIOS: " + new String(data, pos, 15, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    private static String longestPrintable(byte[] data, int length) {
+        int bestStart = 0;
+        int bestLength = 0;
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || data[i] < 0x20 || data[i] > 0x7E) {
+                if (i - start > bestLength) {
+                    bestStart = start;
+                    bestLength = i - start;
+                }
+                start = i + 1;
+            }
+        }
+        return new String(data, bestStart, bestLength, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    private static void register(byte[] payload, int... ports) {
+        for (int port : ports) {
+            PAYLOADS.put(port, payload);
+        }
+    }
+
+    private static void register(String payload, int... ports) {
+        register(payload.getBytes(StandardCharsets.ISO_8859_1), ports);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+}
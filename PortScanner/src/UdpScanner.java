@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * UDP scanner built on a single Selector, like NioConnectScanner.
+ *
+ * Every probe is a connected, non-blocking DatagramChannel. Connecting
+ * lets the kernel match replies to the probe (only datagrams from the
+ * probed address and port are delivered) and turns the ICMP port
+ * unreachable of a closed port into a PortUnreachableException on read.
+ * Each pass of the loop sends a batch of new probes to fill the window,
+ * then waits once for all of them.
+ *
+ * A port that answers is open, one that reports unreachable is closed and
+ * not listed. Without either, the probe is sent again with the timeout
+ * doubled, and after the last retry the port is open|filtered: UDP cannot
+ * tell a silent service from a firewall dropping the probe. A probe that
+ * fails for another reason is an error, not a closed port. Each probe holds
+ * a socket, so the window stays within the file descriptor limit, and
+ * running out of sockets anyway lowers it, as in NioConnectScanner.
+ */
+public class UdpScanner {
+    static final int DEFAULT_RETRIES = 2;
+
+    private static final int MAX_REPLY_BYTES = 2048;
+
+    private final int timeoutMs;
+    private final int retries;
+    private final int maxInFlight;
+    private final boolean describeReplies;
+    private final boolean verbose;
+    private final AdaptiveTimeout adaptiveTimeout;
+    private final CongestionController congestion;
+    private Consumer<PortResult> resultListener;
+    private Consumer<String> statusListener;
+    private ScanMetrics metrics;
+
+    // Shared reply buffer, only touched from the selector thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_REPLY_BYTES);
+
+    /**
+     * @param retries         probes sent again to a silent port before it counts as open|filtered
+     * @param describeReplies put a description of the reply in the banner
+     * @param adaptiveTimeout per-host timeouts, or null to use timeoutMs for every probe
+     * @param congestion      AIMD window below maxInFlight, or null for a fixed window
+     */
+    public UdpScanner(int timeoutMs, int retries, int maxInFlight, boolean describeReplies,
+                      boolean verbose, AdaptiveTimeout adaptiveTimeout,
+                      CongestionController congestion) {
+        this.timeoutMs = timeoutMs;
+        this.retries = retries;
+        this.maxInFlight = maxInFlight;
+        this.describeReplies = describeReplies;
+        this.verbose = verbose;
+        this.adaptiveTimeout = adaptiveTimeout;
+        this.congestion = congestion;
+    }
+
+    /**
+     * Called for every open and open|filtered port as soon as it is known,
+     * on the selector thread
+     */
+    public void setResultListener(Consumer<PortResult> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    public void setStatusListener(Consumer<String> statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    public void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Probe every work item from the scheduler and return the open and
+     * open|filtered ports.
+     */
+    public List<PortResult> scan(ScanScheduler scheduler, AtomicLong scanned)
+            throws IOException, InterruptedException {
+
+        List<PortResult> results = new ArrayList<>();
+        // Keyed by the deadline of the current attempt; a probe is taken out
+        // before its deadline moves, so the heap never holds a stale key
+        PriorityQueue<Probe> waiting = new PriorityQueue<>(
+            (a, b) -> Long.compare(a.deadline - b.deadline, 0));
+        int inFlight = 0;
+        // One socket per probe: never plan on more than the descriptor limit allows
+        int budget = ScanRequest.descriptorBudget(maxInFlight);
+        int window = budget;
+        ScanScheduler.WorkItem retry = null; // item a local socket error held back
+
+        try (Selector selector = Selector.open()) {
+            while (retry != null || scheduler.hasMore() || inFlight > 0) {
+
+                // Send a batch of new probes to fill the window
+                while (inFlight < window && windowOpen()) {
+                    ScanScheduler.WorkItem item = retry != null ? retry
+                                                : inFlight == 0 ? scheduler.next()
+                                                : scheduler.poll();
+                    retry = null;
+                    if (item == null) {
+                        probeDone(null);
+                        break;
+                    }
+                    Probe probe;
+                    try {
+                        probe = start(selector, item, inFlight > 0);
+                    } catch (IOException e) {
+                        // Out of sockets: hold the item, shrink the window to
+                        // what is in flight and retry once some of it is freed
+                        probeDone(null);
+                        retry = item;
+                        if (inFlight == 0) {
+                            throw new IOException("Cannot open a socket with nothing in flight: "
+                                                  + e.getMessage(), e);
+                        }
+                        if (window == budget && statusListener != null) {
+                            statusListener.accept("✗ " + e.getMessage() + ": in-flight window lowered to "
+                                                  + inFlight + " (raise ulimit -n or lower --max-inflight)");
+                        }
+                        window = Math.min(window, inFlight);
+                        break;
+                    }
+                    if (probe.channel == null) {
+                        // Unreachable, or failed, straight away
+                        probeDone(true);
+                        report(probe, null, results, scanned, scheduler);
+                        continue;
+                    }
+                    waiting.add(probe);
+                    inFlight++;
+                }
+
+                if (inFlight == 0) {
+                    continue;
+                }
+                Probe oldest = waiting.peek();
+                selector.select(Math.max(1, (oldest.deadline - System.nanoTime()) / 1_000_000L));
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Probe probe = (Probe) key.attachment();
+                    String state = receive(probe);
+                    if (probe.done) {
+                        inFlight--;
+                        report(probe, state, results, scanned, scheduler);
+                    }
+                }
+
+                // Silent probes: send again with a longer timeout, or give up
+                long now = System.nanoTime();
+                while (!waiting.isEmpty()) {
+                    Probe head = waiting.peek();
+                    if (head.done) {
+                        waiting.poll();
+                        continue;
+                    }
+                    if (head.deadline - now > 0) {
+                        break;
+                    }
+                    waiting.poll();
+                    if (head.attempt < retries && resend(head, now)) {
+                        waiting.add(head);
+                        continue;
+                    }
+                    inFlight--;
+                    if (head.done) {
+                        // Unreachable reported on the resend
+                        report(head, null, results, scanned, scheduler);
+                        continue;
+                    }
+                    head.finish();
+                    probeDone(false);
+                    outcome(head, ScanMetrics.TIMEOUT);
+                    report(head, PortResult.OPEN_FILTERED, results, scanned, scheduler);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Open a connected channel and send the first probe. The returned probe
+     * has no channel if the port turned out unreachable (or the send
+     * failed) straight away.
+     *
+     * @param othersInFlight whether other probes hold sockets that will be freed
+     * @throws IOException when no socket could be had locally: out of file
+     *                     descriptors, or (with others in flight) of local ports
+     */
+    private Probe start(Selector selector, ScanScheduler.WorkItem item, boolean othersInFlight)
+            throws IOException {
+        int timeout = adaptiveTimeout != null ? adaptiveTimeout.timeoutFor(item.host) : timeoutMs;
+        DatagramChannel channel = DatagramChannel.open();
+        if (metrics != null) {
+            metrics.probeStarted();
+        }
+        Probe probe = new Probe(item, timeout * 1_000_000L);
+        try {
+            channel.configureBlocking(false);
+            channel.connect(item.address != null ? new InetSocketAddress(item.address, item.port)
+                                                 : new InetSocketAddress(item.host, item.port));
+            channel.write(ByteBuffer.wrap(probe.payload));
+            probe.key = channel.register(selector, SelectionKey.OP_READ, probe);
+            probe.channel = channel;
+            probe.deadline = probe.started + probe.timeoutNanos;
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            if (e instanceof BindException && othersInFlight) {
+                // No local port left; the probe is retried, so it was never started
+                if (metrics != null) {
+                    metrics.probeFinished();
+                }
+                throw e;
+            }
+            if (!(e instanceof PortUnreachableException)) {
+                probe.error = e.getMessage();
+            }
+            outcome(probe, probe.error == null ? ScanMetrics.REFUSED : ScanMetrics.ERROR);
+        }
+        return probe;
+    }
+
+    /**
+     * Send the probe again, waiting twice as long as the last attempt.
+     * @return false if the send failed, which finishes the probe
+     */
+    private boolean resend(Probe probe, long now) {
+        probe.attempt++;
+        probe.deadline = now + (probe.timeoutNanos << probe.attempt);
+        try {
+            probe.channel.write(ByteBuffer.wrap(probe.payload));
+            return true;
+        } catch (PortUnreachableException e) {
+            // The unreachable of an earlier attempt arrived with no read pending
+            outcome(probe, ScanMetrics.REFUSED);
+            probeDone(true);
+        } catch (IOException e) {
+            probe.error = e.getMessage();
+            outcome(probe, ScanMetrics.ERROR);
+            probeDone(true);
+        }
+        probe.finish();
+        return false;
+    }
+
+    /**
+     * Read the reply of a probe whose channel is readable.
+     * @return OPEN with the probe finished on a reply, null otherwise
+     *         (finished if the port is closed, still waiting on a spurious wakeup)
+     */
+    private String receive(Probe probe) {
+        try {
+            readBuffer.clear();
+            // receive rather than read, which cannot tell an empty reply from none
+            if (probe.channel.receive(readBuffer) == null) {
+                return null;
+            }
+            int read = readBuffer.position();
+            if (probe.attempt == 0) {
+                recordRtt(probe); // Retransmitted replies are ambiguous samples
+            }
+            outcome(probe, ScanMetrics.OPEN);
+            if (describeReplies) {
+                probe.reply = UdpProbe.describe(probe.item.port, readBuffer.array(), read);
+            }
+            probe.finish();
+            probeDone(true);
+            return PortResult.OPEN;
+        } catch (PortUnreachableException e) {
+            // ICMP port unreachable: closed, and a round-trip sample
+            if (probe.attempt == 0) {
+                recordRtt(probe);
+            }
+            outcome(probe, ScanMetrics.REFUSED);
+        } catch (IOException e) {
+            probe.error = e.getMessage();
+            outcome(probe, ScanMetrics.ERROR);
+        }
+        probe.finish();
+        probeDone(true);
+        return null;
+    }
+
+    /**
+     * Take a congestion window slot for the next probe, if AIMD is on.
+     * The slot is given back once the port is classified.
+     */
+    private boolean windowOpen() {
+        return congestion == null || congestion.tryAcquire();
+    }
+
+    /**
+     * End of a probe: feed the outcome to AIMD and free its slot.
+     * @param answered true for a reply or unreachable, false if every
+     *                 attempt went unanswered, null if unused
+     */
+    private void probeDone(Boolean answered) {
+        if (congestion == null) {
+            return;
+        }
+        if (answered != null) {
+            if (answered) {
+                congestion.onResponse();
+            } else {
+                congestion.onTimeout();
+            }
+        }
+        congestion.release();
+    }
+
+    private void outcome(Probe probe, int outcome) {
+        if (metrics != null) {
+            metrics.connectFinished(outcome, System.nanoTime() - probe.started);
+        }
+    }
+
+    private void recordRtt(Probe probe) {
+        if (adaptiveTimeout != null) {
+            adaptiveTimeout.record(probe.item.host, System.nanoTime() - probe.started);
+        }
+    }
+
+    /**
+     * @param state OPEN or OPEN_FILTERED, null for a closed port or an error
+     */
+    private void report(Probe probe, String state, List<PortResult> results,
+                        AtomicLong scanned, ScanScheduler scheduler) {
+        String host = probe.item.host;
+        int port = probe.item.port;
+        if (verbose && probe.error != null) {
+            System.out.println("[ERROR] " + host + ":" + port + "/udp " + probe.error);
+        } else if (verbose) {
+            System.out.println((state == null ? "[CLOSED] " : state.equals(PortResult.OPEN)
+                                ? "[OPEN] " : "[OPEN|FILTERED] ") + host + ":" + port + "/udp");
+        }
+        if (metrics != null) {
+            metrics.probeFinished();
+        }
+        try {
+            if (state != null) {
+                PortResult result = new PortResult(host, port, probe.reply,
+                                                   ServiceMapper.getServiceName(port, PortResult.UDP),
+                                                   PortResult.UDP, state);
+                results.add(result);
+                if (resultListener != null) {
+                    resultListener.accept(result);
+                }
+            }
+        } finally {
+            scheduler.complete(probe.item);
+            scanned.incrementAndGet();
+        }
+    }
+
+    /**
+     * One port being probed, with its retransmissions
+     */
+    private static class Probe {
+        final ScanScheduler.WorkItem item;
+        final byte[] payload;
+        final long started = System.nanoTime();
+        final long timeoutNanos;
+        DatagramChannel channel;
+        SelectionKey key;
+        long deadline;
+        int attempt;
+        boolean done;
+        String reply = "";
+        String error; // why the probe failed, null unless it did
+
+        Probe(ScanScheduler.WorkItem item, long timeoutNanos) {
+            this.item = item;
+            this.payload = UdpProbe.payloadFor(item.port);
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        void finish() {
+            done = true;
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}